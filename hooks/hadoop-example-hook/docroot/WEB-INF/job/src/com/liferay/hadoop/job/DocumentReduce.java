@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.job;
+
+import java.io.IOException;
+
+import java.util.Iterator;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+
+/**
+ * Keeps the latest version of each document, so a document indexed several
+ * times is counted once and a deleted document is not counted. A deletion
+ * wins over a version written at the same time.
+ *
+ * <p>
+ * The counted version of the document, read from the previous output of the
+ * reducer, is compared to the latest new version. If the new version is
+ * later, the counts of the counted version are subtracted from its counts and
+ * the differences are collected to the {@link #COUNTS} output, and the new
+ * version is collected as the counted one. Otherwise the counted version is
+ * collected again, so segments read twice change nothing.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class DocumentReduce
+	implements Reducer<Text, DocumentWritable, Text, DocumentWritable> {
+
+	/**
+	 * The name of the output holding the differences of the term counts.
+	 */
+	public static final String COUNTS = "counts";
+
+	public void reduce(
+			Text key, Iterator<DocumentWritable> values,
+			OutputCollector<Text, DocumentWritable> output, Reporter reporter)
+		throws IOException {
+
+		_countedDocument.reset(-1, false);
+		_document.reset(-1, false);
+
+		boolean counted = false;
+
+		while (values.hasNext()) {
+			DocumentWritable document = values.next();
+
+			if (document.isCounted()) {
+				counted = true;
+
+				_countedDocument.reset(
+					document.getVersion(), document.isDeleted());
+
+				_countedDocument.getTermCountMap().add(
+					document.getTermCountMap(), 1);
+
+				continue;
+			}
+
+			long version = document.getVersion();
+
+			if (version < _document.getVersion()) {
+				continue;
+			}
+
+			if ((version > _document.getVersion()) ||
+				(document.isDeleted() && !_document.isDeleted())) {
+
+				_document.reset(version, document.isDeleted());
+			}
+
+			if (!_document.isDeleted()) {
+				_document.getTermCountMap().add(
+					document.getTermCountMap(), 1);
+			}
+		}
+
+		if (_document.getVersion() <= _countedDocument.getVersion()) {
+			if (counted) {
+				_countedDocument.setCounted(true);
+
+				output.collect(key, _countedDocument);
+			}
+
+			return;
+		}
+
+		_termCountMap.clear();
+
+		if (!_countedDocument.isDeleted()) {
+			_termCountMap.add(_countedDocument.getTermCountMap(), -1);
+		}
+
+		if (!_document.isDeleted()) {
+			_termCountMap.add(_document.getTermCountMap(), 1);
+		}
+
+		_termCountMap.flush(getCountsOutput(reporter));
+
+		_document.setCounted(true);
+
+		output.collect(key, _document);
+	}
+
+	public void configure(JobConf job) {
+		_multipleOutputs = new MultipleOutputs(job);
+	}
+
+	public void close() throws IOException {
+		_multipleOutputs.close();
+	}
+
+	@SuppressWarnings("unchecked")
+	protected OutputCollector<Text, VLongWritable> getCountsOutput(
+			Reporter reporter)
+		throws IOException {
+
+		return _multipleOutputs.getCollector(COUNTS, reporter);
+	}
+
+	private final DocumentWritable _countedDocument = new DocumentWritable();
+	private final DocumentWritable _document = new DocumentWritable();
+	private MultipleOutputs _multipleOutputs;
+	private final TermCountMap _termCountMap = new TermCountMap();
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.job;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The term counts of one version of an index document, or the deletion of
+ * the document at that version. A version may be split over several
+ * instances, whose counts add up. A counted version is the one the results
+ * of a repository currently hold for the document.
+ *
+ * @author Raymond Augé
+ */
+public class DocumentWritable implements Writable {
+
+	public TermCountMap getTermCountMap() {
+		return _termCountMap;
+	}
+
+	public long getVersion() {
+		return _version;
+	}
+
+	public boolean isCounted() {
+		return _counted;
+	}
+
+	public boolean isDeleted() {
+		return _deleted;
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		_version = WritableUtils.readVLong(in);
+		_counted = in.readBoolean();
+		_deleted = in.readBoolean();
+
+		_termCountMap.clear();
+
+		_termCountMap.readFields(in);
+	}
+
+	/**
+	 * Sets the version, clears the term counts and marks the version as not
+	 * counted.
+	 */
+	public void reset(long version, boolean deleted) {
+		_version = version;
+		_counted = false;
+		_deleted = deleted;
+
+		_termCountMap.clear();
+	}
+
+	public void setCounted(boolean counted) {
+		_counted = counted;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVLong(out, _version);
+
+		out.writeBoolean(_counted);
+		out.writeBoolean(_deleted);
+
+		_termCountMap.write(out);
+	}
+
+	private boolean _counted;
+	private boolean _deleted;
+	private final TermCountMap _termCountMap = new TermCountMap();
+	private long _version;
+
+}
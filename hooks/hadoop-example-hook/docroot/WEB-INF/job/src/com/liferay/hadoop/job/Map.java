@@ -16,44 +16,239 @@ package com.liferay.hadoop.job;
 
 import java.io.IOException;
 
-import java.util.StringTokenizer;
+import java.nio.charset.Charset;
 
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 
 /**
+ * Counts the terms of the index records and collects them by document uid
+ * and version, so {@link DocumentReduce} can keep the latest version of each
+ * document.
+ *
+ * <p>
+ * Index records are <code>uid TAB version TAB fieldName TAB value</code>, and
+ * a deletion is <code>uid TAB version</code>. Records written before documents
+ * were versioned are <code>uid TAB fieldName TAB value</code> and are read as
+ * version 0.
+ * </p>
+ *
  * @author Raymond Augé
  */
-public class Map implements Mapper<LongWritable, Text, Text, IntWritable> {
+public class Map implements Mapper<LongWritable, Text, Text, DocumentWritable> {
+
+	/**
+	 * Set this to false to collect the terms of every record instead of
+	 * combining the counts of a document in memory.
+	 */
+	public static final String COMBINE = "liferay.word.count.map.combine";
+
+	/**
+	 * The approximate number of bytes of combined counts held by a map task
+	 * before they are collected.
+	 */
+	public static final String COMBINE_MAX_MEMORY =
+		"liferay.word.count.map.combine.max.memory";
+
+	public static final long DEFAULT_COMBINE_MAX_MEMORY = 16 * 1024 * 1024;
+
+	/**
+	 * Set this to true to lower case the terms before they are counted.
+	 */
+	public static final String LOWER_CASE = "liferay.word.count.map.lower.case";
+
+	/**
+	 * Set this to {@link #SPLIT_UNICODE} to split terms on every code point
+	 * that is not a letter or a digit instead of on white space only.
+	 */
+	public static final String SPLIT = "liferay.word.count.map.split";
+
+	public static final String SPLIT_UNICODE = "unicode";
+
+	public static final String SPLIT_WHITESPACE = "whitespace";
+
+	/**
+	 * Comma separated terms that are not counted. They are tokenized and lower
+	 * cased like the text they are matched against.
+	 */
+	public static final String STOP_WORDS = "liferay.word.count.map.stop.words";
 
 	public void map(
 			LongWritable key, Text value,
-			OutputCollector<Text, IntWritable> output, Reporter reporter)
+			OutputCollector<Text, DocumentWritable> output, Reporter reporter)
 		throws IOException {
 
-		String line = value.toString();
-		StringTokenizer tokenizer = new StringTokenizer(line);
+		this.output = output;
+
+		byte[] bytes = value.getBytes();
+		int length = value.getLength();
+
+		int uidLength = indexOf(bytes, '\t', 0, length);
+
+		if (uidLength == -1) {
+			return;
+		}
+
+		int pos = indexOf(bytes, '\t', uidLength + 1, length);
+
+		long version = parseVersion(
+			bytes, uidLength + 1, (pos == -1) ? length : pos);
+
+		boolean deleted = false;
+		int start = length;
+
+		if (version == -1) {
+			version = 0;
+
+			if (pos != -1) {
+				start = pos + 1;
+			}
+		}
+		else if (pos == -1) {
+			deleted = true;
+		}
+		else {
+			pos = indexOf(bytes, '\t', pos + 1, length);
+
+			if (pos != -1) {
+				start = pos + 1;
+			}
+		}
+
+		if ((document.getVersion() != version) ||
+			(document.isDeleted() != deleted) ||
+			(WritableComparator.compareBytes(
+				uid.getBytes(), 0, uid.getLength(), bytes, 0,
+				uidLength) != 0)) {
+
+			collect();
+
+			uid.set(bytes, 0, uidLength);
+
+			document.reset(version, deleted);
+		}
+
+		pending = true;
+
+		if (deleted) {
+			return;
+		}
+
+		TermCountMap termCountMap = document.getTermCountMap();
 
-		while (tokenizer.hasMoreTokens()) {
-			word.set(tokenizer.nextToken());
+		tokenizer.reset(bytes, start, length);
 
-			output.collect(word, one);
+		while (tokenizer.next()) {
+			byte[] termBytes = tokenizer.getBytes();
+			int termLength = tokenizer.getLength();
+
+			if ((stopWords != null) &&
+				(stopWords.get(termBytes, 0, termLength) > 0)) {
+
+				continue;
+			}
+
+			termCountMap.increment(termBytes, 0, termLength, 1);
+		}
+
+		// The reducer adds up the counts of a version collected in parts
+
+		if (!combine || (termCountMap.getMemorySize() >= combineMaxMemory)) {
+			collect();
+
+			termCountMap.clear();
 		}
 	}
 
 	public void configure(JobConf job) {
+		tokenizer = new TermTokenizer(
+			job.getBoolean(LOWER_CASE, false),
+			job.get(SPLIT, SPLIT_WHITESPACE).equals(SPLIT_UNICODE));
+
+		String[] stopWordsArray = job.getStrings(STOP_WORDS);
+
+		if ((stopWordsArray != null) && (stopWordsArray.length > 0)) {
+			stopWords = new TermCountMap();
+
+			for (String stopWord : stopWordsArray) {
+				byte[] bytes = stopWord.getBytes(UTF8);
+
+				tokenizer.reset(bytes, 0, bytes.length);
+
+				while (tokenizer.next()) {
+					stopWords.increment(
+						tokenizer.getBytes(), 0, tokenizer.getLength(), 1);
+				}
+			}
+		}
+
+		combine = job.getBoolean(COMBINE, true);
+		combineMaxMemory = job.getLong(
+			COMBINE_MAX_MEMORY, DEFAULT_COMBINE_MAX_MEMORY);
 	}
 
 	public void close() throws IOException {
+		collect();
+	}
+
+	private void collect() throws IOException {
+		if (!pending) {
+			return;
+		}
+
+		pending = false;
+
+		output.collect(uid, document);
+	}
+
+	private static int indexOf(byte[] bytes, char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == c) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the version written in ASCII digits, or -1 if the bytes are not
+	 * a version.
+	 */
+	private static long parseVersion(byte[] bytes, int start, int end) {
+		if ((start == end) || ((end - start) > 18)) {
+			return -1;
+		}
+
+		long version = 0;
+
+		for (int i = start; i < end; i++) {
+			int digit = bytes[i] - '0';
+
+			if ((digit < 0) || (digit > 9)) {
+				return -1;
+			}
+
+			version = (version * 10) + digit;
+		}
+
+		return version;
 	}
 
-	private final static IntWritable one = new IntWritable(1);
+	private final static Charset UTF8 = Charset.forName("UTF-8");
 
-	private Text word = new Text();
+	private boolean combine;
+	private long combineMaxMemory;
+	private DocumentWritable document = new DocumentWritable();
+	private OutputCollector<Text, DocumentWritable> output;
+	private boolean pending;
+	private TermCountMap stopWords;
+	private TermTokenizer tokenizer;
+	private Text uid = new Text();
 
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.job;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Reads the counts of a previous word count result so they can be summed with
+ * the counts of new index segments. Text results are split into word and
+ * count by <code>KeyValueTextInputFormat</code>, and map file results are read
+ * as is by <code>SequenceFileInputFormat</code>.
+ *
+ * @author Raymond Augé
+ */
+public class MergeMap implements Mapper<Text, Writable, Text, VLongWritable> {
+
+	public void map(
+			Text key, Writable value,
+			OutputCollector<Text, VLongWritable> output, Reporter reporter)
+		throws IOException {
+
+		if (value instanceof VLongWritable) {
+			output.collect(key, (VLongWritable)value);
+
+			return;
+		}
+
+		try {
+			count.set(Long.parseLong(value.toString().trim()));
+		}
+		catch (NumberFormatException nfe) {
+			return;
+		}
+
+		output.collect(key, count);
+	}
+
+	public void configure(JobConf job) {
+	}
+
+	public void close() throws IOException {
+	}
+
+	private VLongWritable count = new VLongWritable();
+
+}
\ No newline at end of file
@@ -18,30 +18,41 @@ import java.io.IOException;
 
 import java.util.Iterator;
 
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 
 /**
+ * Sums the counts of each term. Counts may be negative differences written by
+ * {@link DocumentReduce}, and a term whose counts add up to 0 is not
+ * collected.
+ *
  * @author Raymond Augé
  */
-public class Reduce implements Reducer<Text, IntWritable, Text, IntWritable> {
+public class Reduce
+	implements Reducer<Text, VLongWritable, Text, VLongWritable> {
 
 	public void reduce(
-			Text key, Iterator<IntWritable> values,
-			OutputCollector<Text, IntWritable> output, Reporter reporter)
+			Text key, Iterator<VLongWritable> values,
+			OutputCollector<Text, VLongWritable> output, Reporter reporter)
 		throws IOException {
 
-		int sum = 0;
+		long sum = 0;
 
 		while (values.hasNext()) {
 			sum += values.next().get();
 		}
 
-		output.collect(key, new IntWritable(sum));
+		if (sum == 0) {
+			return;
+		}
+
+		count.set(sum);
+
+		output.collect(key, count);
 	}
 
 	public void configure(JobConf job) {
@@ -50,4 +61,6 @@ public class Reduce implements Reducer<Text, IntWritable, Text, IntWritable> {
 	public void close() throws IOException {
 	}
 
+	private VLongWritable count = new VLongWritable();
+
 }
\ No newline at end of file
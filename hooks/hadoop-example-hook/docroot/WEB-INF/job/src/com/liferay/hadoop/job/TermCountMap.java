@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.job;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.OutputCollector;
+
+/**
+ * Open addressing hash map from terms to int counts used by {@link Map} to
+ * combine counts before they are collected. Terms are kept as UTF-8 bytes
+ * copied into a single growing array and counts in an int array, so no object
+ * is allocated per term or per occurrence.
+ *
+ * @author Raymond Augé
+ */
+public class TermCountMap {
+
+	public TermCountMap() {
+		_allocate();
+	}
+
+	/**
+	 * Adds the counts of the other map, multiplied by the factor, to the
+	 * counts of this map.
+	 */
+	public void add(TermCountMap termCountMap, int factor) {
+		for (int i = 0; i < termCountMap._size; i++) {
+			increment(
+				termCountMap._keyBytes, termCountMap._keyOffsets[i],
+				termCountMap._keyLengths[i],
+				termCountMap._counts[i] * factor);
+		}
+	}
+
+	/**
+	 * Removes every term. The arrays go back to their initial capacity when
+	 * the terms removed used less than an eighth of them, so that one large
+	 * document does not make every later clear fill its whole table.
+	 */
+	public void clear() {
+		if (((_table.length > _INITIAL_CAPACITY) &&
+			 (_size < (_table.length / 8))) ||
+			((_keyBytes.length > (_INITIAL_CAPACITY * 8)) &&
+			 (_keyBytesLength < (_keyBytes.length / 8)))) {
+
+			_allocate();
+		}
+		else {
+			Arrays.fill(_table, -1);
+		}
+
+		_keyBytesLength = 0;
+		_size = 0;
+	}
+
+	/**
+	 * Collects every term whose count is not 0 with its count and clears the
+	 * map.
+	 */
+	public void flush(OutputCollector<Text, VLongWritable> output)
+		throws IOException {
+
+		for (int i = 0; i < _size; i++) {
+			if (_counts[i] == 0) {
+				continue;
+			}
+
+			_term.set(_keyBytes, _keyOffsets[i], _keyLengths[i]);
+			_count.set(_counts[i]);
+
+			output.collect(_term, _count);
+		}
+
+		clear();
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the terms and counts in
+	 * the map. The arrays holding them may be up to twice as large.
+	 */
+	public long getMemorySize() {
+		return _keyBytesLength + (_size * 24L);
+	}
+
+	/**
+	 * Returns the count of the term, or 0 if the term is not in the map.
+	 */
+	public int get(byte[] bytes, int offset, int length) {
+		int hash = WritableComparator.hashBytes(bytes, offset, length);
+
+		int index = _table[_getSlot(bytes, offset, length, hash)];
+
+		if (index == -1) {
+			return 0;
+		}
+
+		return _counts[index];
+	}
+
+	/**
+	 * Adds the delta to the count of the term and returns the new count.
+	 */
+	public int increment(byte[] bytes, int offset, int length, int delta) {
+		int hash = WritableComparator.hashBytes(bytes, offset, length);
+
+		int slot = _getSlot(bytes, offset, length, hash);
+
+		int index = _table[slot];
+
+		if (index != -1) {
+			_counts[index] += delta;
+
+			return _counts[index];
+		}
+
+		index = _add(bytes, offset, length, hash, delta);
+
+		_table[slot] = index;
+
+		if (_size > ((_table.length * 3) / 4)) {
+			_rehash(_table.length * 2);
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Adds the counts of the terms read from the input, as written by
+	 * {@link #write(DataOutput)}.
+	 */
+	public void readFields(DataInput in) throws IOException {
+		int size = WritableUtils.readVInt(in);
+
+		for (int i = 0; i < size; i++) {
+			int length = WritableUtils.readVInt(in);
+
+			if (length > _buffer.length) {
+				_buffer = new byte[Math.max(_buffer.length * 2, length)];
+			}
+
+			in.readFully(_buffer, 0, length);
+
+			increment(_buffer, 0, length, WritableUtils.readVInt(in));
+		}
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Writes the number of terms, then the length, the bytes and the count of
+	 * every term.
+	 */
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, _size);
+
+		for (int i = 0; i < _size; i++) {
+			WritableUtils.writeVInt(out, _keyLengths[i]);
+
+			out.write(_keyBytes, _keyOffsets[i], _keyLengths[i]);
+
+			WritableUtils.writeVInt(out, _counts[i]);
+		}
+	}
+
+	int getCapacity() {
+		return _table.length;
+	}
+
+	private int _add(
+		byte[] bytes, int offset, int length, int hash, int count) {
+
+		if (_size == _counts.length) {
+			int capacity = _size * 2;
+
+			_counts = Arrays.copyOf(_counts, capacity);
+			_hashes = Arrays.copyOf(_hashes, capacity);
+			_keyLengths = Arrays.copyOf(_keyLengths, capacity);
+			_keyOffsets = Arrays.copyOf(_keyOffsets, capacity);
+		}
+
+		if ((_keyBytesLength + length) > _keyBytes.length) {
+			int capacity = Math.max(
+				_keyBytes.length * 2, _keyBytesLength + length);
+
+			_keyBytes = Arrays.copyOf(_keyBytes, capacity);
+		}
+
+		System.arraycopy(bytes, offset, _keyBytes, _keyBytesLength, length);
+
+		int index = _size++;
+
+		_counts[index] = count;
+		_hashes[index] = hash;
+		_keyLengths[index] = length;
+		_keyOffsets[index] = _keyBytesLength;
+
+		_keyBytesLength += length;
+
+		return index;
+	}
+
+	private void _allocate() {
+		_table = new int[_INITIAL_CAPACITY];
+
+		Arrays.fill(_table, -1);
+
+		_counts = new int[_INITIAL_CAPACITY];
+		_hashes = new int[_INITIAL_CAPACITY];
+		_keyBytes = new byte[_INITIAL_CAPACITY * 8];
+		_keyLengths = new int[_INITIAL_CAPACITY];
+		_keyOffsets = new int[_INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Returns the slot holding the term, or the empty slot where it belongs.
+	 */
+	private int _getSlot(byte[] bytes, int offset, int length, int hash) {
+		int mask = _table.length - 1;
+
+		int slot = _mix(hash) & mask;
+
+		while (true) {
+			int index = _table[slot];
+
+			if ((index == -1) ||
+				((_hashes[index] == hash) && (_keyLengths[index] == length) &&
+				 (WritableComparator.compareBytes(
+					 _keyBytes, _keyOffsets[index], length, bytes, offset,
+					 length) == 0))) {
+
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int _mix(int hash) {
+
+		// Spread the high bits into the low bits used to pick a slot
+
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+
+		return hash;
+	}
+
+	private void _rehash(int capacity) {
+		_table = new int[capacity];
+
+		Arrays.fill(_table, -1);
+
+		int mask = capacity - 1;
+
+		for (int i = 0; i < _size; i++) {
+			int slot = _mix(_hashes[i]) & mask;
+
+			while (_table[slot] != -1) {
+				slot = (slot + 1) & mask;
+			}
+
+			_table[slot] = i;
+		}
+	}
+
+	private static final int _INITIAL_CAPACITY = 1024;
+
+	private byte[] _buffer = new byte[64];
+	private VLongWritable _count = new VLongWritable();
+	private int[] _counts;
+	private int[] _hashes;
+	private byte[] _keyBytes;
+	private int _keyBytesLength;
+	private int[] _keyLengths;
+	private int[] _keyOffsets;
+	private int _size;
+	private int[] _table;
+	private Text _term = new Text();
+
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.job;
+
+import java.util.Arrays;
+
+/**
+ * Splits UTF-8 bytes into terms without decoding them into strings. The
+ * current term is copied into a reused buffer, lower cased if asked.
+ *
+ * <p>
+ * By default terms are split on the same ASCII white space as
+ * <code>StringTokenizer</code>. In Unicode mode they are split on every code
+ * point that is neither a letter, a digit nor a combining mark, so
+ * punctuation is dropped. Malformed UTF-8 bytes are kept as is in the default
+ * mode and split on in Unicode mode.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class TermTokenizer {
+
+	public TermTokenizer(boolean lowerCase, boolean unicode) {
+		_lowerCase = lowerCase;
+		_unicode = unicode;
+	}
+
+	/**
+	 * Returns the buffer holding the current term. Only the first
+	 * {@link #getLength()} bytes belong to the term.
+	 */
+	public byte[] getBytes() {
+		return _term;
+	}
+
+	public int getLength() {
+		return _length;
+	}
+
+	/**
+	 * Moves to the next term and returns <code>true</code>, or returns
+	 * <code>false</code> if there are no terms left.
+	 */
+	public boolean next() {
+		_length = 0;
+
+		while (_position < _end) {
+			int start = _position;
+
+			int codePoint = _decode();
+
+			if (_isDelimiter(codePoint)) {
+				if (_length > 0) {
+					return true;
+				}
+
+				continue;
+			}
+
+			if (_lowerCase && (codePoint != -1)) {
+				int lowerCaseCodePoint = Character.toLowerCase(codePoint);
+
+				if (lowerCaseCodePoint != codePoint) {
+					_encode(lowerCaseCodePoint);
+
+					continue;
+				}
+			}
+
+			_append(_bytes, start, _position - start);
+		}
+
+		return _length > 0;
+	}
+
+	public void reset(byte[] bytes, int start, int end) {
+		_bytes = bytes;
+		_position = start;
+		_end = end;
+		_length = 0;
+	}
+
+	private void _append(byte[] bytes, int offset, int length) {
+		_ensureCapacity(length);
+
+		if (length == 1) {
+			_term[_length] = bytes[offset];
+		}
+		else {
+			System.arraycopy(bytes, offset, _term, _length, length);
+		}
+
+		_length += length;
+	}
+
+	/**
+	 * Decodes the code point at the current position and moves past it.
+	 * Returns -1 and moves past a single byte if the bytes are malformed.
+	 */
+	private int _decode() {
+		int b = _bytes[_position++] & 0xff;
+
+		if (b < 0x80) {
+			return b;
+		}
+
+		int codePoint = 0;
+		int count = 0;
+		int minimum = 0;
+
+		if ((b & 0xe0) == 0xc0) {
+			codePoint = b & 0x1f;
+			count = 1;
+			minimum = 0x80;
+		}
+		else if ((b & 0xf0) == 0xe0) {
+			codePoint = b & 0x0f;
+			count = 2;
+			minimum = 0x800;
+		}
+		else if ((b & 0xf8) == 0xf0) {
+			codePoint = b & 0x07;
+			count = 3;
+			minimum = 0x10000;
+		}
+		else {
+			return -1;
+		}
+
+		if ((_position + count) > _end) {
+			return -1;
+		}
+
+		for (int i = 0; i < count; i++) {
+			int c = _bytes[_position + i] & 0xff;
+
+			if ((c & 0xc0) != 0x80) {
+				return -1;
+			}
+
+			codePoint = (codePoint << 6) | (c & 0x3f);
+		}
+
+		if ((codePoint < minimum) || (codePoint > Character.MAX_CODE_POINT) ||
+			((codePoint >= Character.MIN_SURROGATE) &&
+			 (codePoint <= Character.MAX_SURROGATE))) {
+
+			return -1;
+		}
+
+		_position += count;
+
+		return codePoint;
+	}
+
+	private void _encode(int codePoint) {
+		_ensureCapacity(4);
+
+		if (codePoint < 0x80) {
+			_term[_length++] = (byte)codePoint;
+		}
+		else if (codePoint < 0x800) {
+			_term[_length++] = (byte)(0xc0 | (codePoint >> 6));
+			_term[_length++] = (byte)(0x80 | (codePoint & 0x3f));
+		}
+		else if (codePoint < 0x10000) {
+			_term[_length++] = (byte)(0xe0 | (codePoint >> 12));
+			_term[_length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+			_term[_length++] = (byte)(0x80 | (codePoint & 0x3f));
+		}
+		else {
+			_term[_length++] = (byte)(0xf0 | (codePoint >> 18));
+			_term[_length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+			_term[_length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+			_term[_length++] = (byte)(0x80 | (codePoint & 0x3f));
+		}
+	}
+
+	private void _ensureCapacity(int length) {
+		if ((_length + length) > _term.length) {
+			_term = Arrays.copyOf(
+				_term, Math.max(_term.length * 2, _length + length));
+		}
+	}
+
+	private boolean _isDelimiter(int codePoint) {
+		if (codePoint == -1) {
+			return _unicode;
+		}
+
+		if (!_unicode) {
+			return (codePoint == ' ') || (codePoint == '\t') ||
+				(codePoint == '\n') || (codePoint == '\r') ||
+				(codePoint == '\f');
+		}
+
+		if (Character.isLetterOrDigit(codePoint)) {
+			return false;
+		}
+
+		if (codePoint < 0x80) {
+			return true;
+		}
+
+		int type = Character.getType(codePoint);
+
+		if ((type == Character.COMBINING_SPACING_MARK) ||
+			(type == Character.ENCLOSING_MARK) ||
+			(type == Character.NON_SPACING_MARK)) {
+
+			return false;
+		}
+
+		return true;
+	}
+
+	private byte[] _bytes;
+	private int _end;
+	private int _length;
+	private final boolean _lowerCase;
+	private int _position;
+	private byte[] _term = new byte[64];
+	private final boolean _unicode;
+
+}
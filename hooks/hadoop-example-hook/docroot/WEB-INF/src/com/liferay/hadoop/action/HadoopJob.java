@@ -14,34 +14,33 @@
 
 package com.liferay.hadoop.action;
 
-import com.liferay.hadoop.job.Map;
-import com.liferay.hadoop.job.Reduce;
 import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.JobScheduler;
+import com.liferay.hadoop.util.JobState;
+import com.liferay.hadoop.util.WordCountJob;
+import com.liferay.portal.kernel.json.JSONFactoryUtil;
+import com.liferay.portal.kernel.json.JSONObject;
+import com.liferay.portal.kernel.servlet.ServletResponseUtil;
 import com.liferay.portal.kernel.struts.StrutsAction;
 import com.liferay.portal.kernel.util.ContentTypes;
-import com.liferay.portal.kernel.util.StreamUtil;
+import com.liferay.portal.kernel.util.ParamUtil;
 
-import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
-import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.hadoop.filecache.DistributedCache;
-import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapred.FileInputFormat;
-import org.apache.hadoop.mapred.FileOutputFormat;
-import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.JobStatus;
 import org.apache.hadoop.mapred.RunningJob;
-import org.apache.hadoop.mapred.TextInputFormat;
-import org.apache.hadoop.mapred.TextOutputFormat;
 
 /**
  * <a href="HadoopJob.java.html"><b><i>View Source</i></b></a>
@@ -69,127 +68,159 @@ public class HadoopJob implements StrutsAction {
 			HttpServletRequest request, HttpServletResponse response)
 		throws Exception {
 
-		response.setContentType(ContentTypes.TEXT_PLAIN_UTF8);
+		String cmd = ParamUtil.getString(request, "cmd");
+		String key = ParamUtil.getString(request, "key", _JOB_KEY);
 
-		PrintWriter writer = response.getWriter();
+		JobScheduler jobScheduler = JobScheduler.getInstance();
 
-		FileSystem fileSystem = HadoopManager.getFileSystem();
+		JobState jobState = null;
 
-		JobClient jobClient = HadoopManager.getJobClient();
+		if (cmd.equals("submit")) {
+			jobState = jobScheduler.submitAsync(
+				_JOB_KEY, new JobConfCallable());
+		}
+		else {
+			jobState = jobScheduler.getJobState(key);
+		}
 
-		writer.println("-- Job Status --");
+		JSONObject jsonObject = getStatusJSONObject(jobState);
 
-		Path inputPath = new Path("/index/*/*");
-		Path outputPath = new Path("/wordcount/results");
+		response.setContentType(ContentTypes.APPLICATION_JSON);
 
-		try {
-			if (_runningJob == null) {
-				writer.println("Creating job");
+		ServletResponseUtil.write(response, jsonObject.toString());
 
-				if (fileSystem.exists(_jobPath)) {
-					fileSystem.delete(_jobPath, false);
-				}
+		return null;
+	}
 
-				if (!fileSystem.exists(_jobPath)) {
-					writer.println("Deploying the job code to cluster");
+	/**
+	 * Returns the state of the last job of the key. The job tracker is asked
+	 * for the progress and counters of the job, which does not touch HDFS.
+	 */
+	protected JSONObject getStatusJSONObject(JobState jobState)
+		throws IOException {
 
-					FSDataOutputStream outputStream = null;
+		JSONObject jsonObject = JSONFactoryUtil.createJSONObject();
 
-					try {
-						outputStream = fileSystem.create(_jobPath);
+		if (jobState == null) {
+			jsonObject.put("status", "none");
 
-						ServletContext servletContext =
-							HadoopManager.getServletContext();
+			return jsonObject;
+		}
 
-						InputStream inputStream =
-							servletContext.getResourceAsStream(
-								"/WEB-INF/lib/hadoop-job.jar");
+		jsonObject.put("key", jobState.getKey());
+		jsonObject.put("submitting", jobState.isSubmitting());
+		jsonObject.put("submitTime", jobState.getSubmitTime());
 
-						StreamUtil.transfer(inputStream, outputStream, false);
-					}
-					finally {
-						StreamUtil.cleanUp(outputStream);
-					}
+		Throwable submitError = jobState.getSubmitError();
 
-					writer.println("Job code deployed to cluster");
-				}
+		if (submitError != null) {
+			jsonObject.put("error", submitError.toString());
+		}
 
-				if (fileSystem.exists(outputPath)) {
-					writer.println("A previous job output was found, backing it up");
+		RunningJob runningJob = jobState.getRunningJob();
 
-					fileSystem.rename(
-						outputPath, outputPath.getParent().suffix(
-							"/.results-" + System.currentTimeMillis()));
-				}
+		if (runningJob == null) {
+			if (jobState.isSubmitting()) {
+				jsonObject.put("status", "submitting");
+			}
+			else {
+				jsonObject.put("status", "none");
+			}
 
-				_jobConf = HadoopManager.createNewJobConf();
+			return jsonObject;
+		}
 
-				_jobConf.setJobName("Word Count");
+		boolean complete = runningJob.isComplete();
 
-				writer.println("Job '" + _jobConf.getJobName() + "' is being configured");
+		jsonObject.put("complete", complete);
 
-				_jobConf.setJarByClass(Map.class);
-				_jobConf.setOutputKeyClass(Text.class);
-				_jobConf.setOutputValueClass(IntWritable.class);
-				_jobConf.setMapperClass(Map.class);
-				_jobConf.setCombinerClass(Reduce.class);
-				_jobConf.setReducerClass(Reduce.class);
-				_jobConf.setInputFormat(TextInputFormat.class);
-				_jobConf.setOutputFormat(TextOutputFormat.class);
+		if (!complete) {
+			jsonObject.put(
+				"elapsedTime",
+				System.currentTimeMillis() - jobState.getSubmitTime());
+		}
 
-				writer.println("Job code deployed to distributed cache's classpath");
+		jsonObject.put("jobId", runningJob.getID().toString());
+		jsonObject.put("jobName", runningJob.getJobName());
+		jsonObject.put("mapProgress", runningJob.mapProgress());
+		jsonObject.put("reduceProgress", runningJob.reduceProgress());
+		jsonObject.put(
+			"status", JobStatus.getJobRunState(runningJob.getJobState()));
+		jsonObject.put("trackingURL", runningJob.getTrackingURL());
 
-				DistributedCache.addArchiveToClassPath(
-					_jobPath, _jobConf, fileSystem);
+		Counters counters = runningJob.getCounters();
 
-				FileInputFormat.setInputPaths(_jobConf, inputPath);
-				FileOutputFormat.setOutputPath(_jobConf, outputPath);
+		if (counters != null) {
+			JSONObject countersJSONObject = JSONFactoryUtil.createJSONObject();
 
-				writer.println("Submitting job the first time");
+			for (Counters.Group group : counters) {
+				JSONObject groupJSONObject = JSONFactoryUtil.createJSONObject();
 
-				_runningJob = jobClient.submitJob(_jobConf);
+				for (Counters.Counter counter : group) {
+					groupJSONObject.put(
+						counter.getDisplayName(), counter.getValue());
+				}
 
-				writer.println("Job submitted");
+				countersJSONObject.put(group.getDisplayName(), groupJSONObject);
 			}
 
-			int jobState = _runningJob.getJobState();
+			jsonObject.put("counters", countersJSONObject);
+		}
+
+		return jsonObject;
+	}
+
+	private static final String _DOCUMENTS_JOB_KEY = "/wordcount/.documents";
 
-			writer.println("Job status: " + jobState + " (RUNNING = 1, SUCCEEDED = 2, FAILED = 3, PREP = 4, KILLED = 5)");
+	private static final String[] _INPUT_PATTERNS = {
+		"/index/*/*/" + WordCountJob.SEGMENT_PREFIX + "*",
+		"/index/*/*/merged/" + WordCountJob.SEGMENT_PREFIX + "*"
+	};
 
-			if ((jobState != JobStatus.RUNNING) &&
-				(jobState != JobStatus.PREP)) {
+	private static final String _JOB_KEY = "/wordcount/results";
 
-				writer.println("Re-issuing the job");
+	private static class JobConfCallable implements Callable<JobConf> {
 
-				if (fileSystem.exists(outputPath)) {
-					writer.println("A previous job output was found, backing it up");
+		public JobConf call() throws Exception {
+			FileSystem fileSystem = HadoopManager.getFileSystem();
 
-					fileSystem.rename(
-						outputPath, outputPath.getParent().suffix(
-							"/.results-" + System.currentTimeMillis()));
+			List<Path> inputPaths = new ArrayList<Path>();
+
+			for (String pattern : _INPUT_PATTERNS) {
+				Path inputPath = new Path(pattern);
+
+				FileStatus[] fileStatuses = fileSystem.globStatus(inputPath);
+
+				if ((fileStatuses != null) && (fileStatuses.length > 0)) {
+					inputPaths.add(inputPath);
 				}
+			}
 
-				writer.println("Submitting job the first time");
+			// The documents job runs while the counts job is submitted, and its
+			// state is read under its own key
 
-				_runningJob = jobClient.submitJob(_jobConf);
+			Path documentsPath = new Path(_DOCUMENTS_JOB_KEY);
 
-				writer.println("Job submitted");
+			fileSystem.delete(documentsPath, true);
+
+			WordCountJob.runJob(
+				_DOCUMENTS_JOB_KEY,
+				WordCountJob.createDocumentsJobConf(
+					fileSystem, "Word Count Documents", inputPaths, null,
+					documentsPath));
+
+			Path outputPath = new Path(_JOB_KEY);
+
+			if (fileSystem.exists(outputPath)) {
+				fileSystem.rename(
+					outputPath, outputPath.getParent().suffix(
+						"/.results-" + System.currentTimeMillis()));
 			}
-		}
-		catch (Exception ioe) {
-			writer.println("Job error: ");
 
-			ioe.printStackTrace(writer);
+			return WordCountJob.createCountsJobConf(
+				fileSystem, "Word Count", documentsPath, null, outputPath);
 		}
 
-		writer.flush();
-		writer.close();
-
-		return null;
 	}
 
-	private JobConf _jobConf;
-	private Path _jobPath = new Path("/wordcount/jars/hadoop-job.jar");
-	private RunningJob _runningJob;
-
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.action;
+
+import com.liferay.hadoop.util.MetricsRegistry;
+import com.liferay.portal.kernel.servlet.ServletResponseUtil;
+import com.liferay.portal.kernel.struts.StrutsAction;
+import com.liferay.portal.kernel.util.ContentTypes;
+import com.liferay.portal.kernel.util.StringBundler;
+import com.liferay.portal.kernel.util.StringPool;
+
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes every metric of the {@link MetricsRegistry} as a
+ * <code>name value</code> line, sorted by name. Latencies are in
+ * microseconds.
+ *
+ * @author Raymond Augé
+ */
+public class HadoopMetrics implements StrutsAction {
+
+	public String execute(
+			HttpServletRequest request, HttpServletResponse response)
+		throws Exception {
+
+		return doExecute(request, response);
+	}
+
+	public String execute(
+			StrutsAction strutsAction, HttpServletRequest request,
+			HttpServletResponse response)
+		throws Exception {
+
+		return doExecute(request, response);
+	}
+
+	public String doExecute(
+			HttpServletRequest request, HttpServletResponse response)
+		throws Exception {
+
+		MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+		Map<String, Long> values = metricsRegistry.getValues();
+
+		StringBundler sb = new StringBundler(values.size() * 4);
+
+		for (Map.Entry<String, Long> entry : values.entrySet()) {
+			sb.append(entry.getKey());
+			sb.append(StringPool.SPACE);
+			sb.append(entry.getValue());
+			sb.append(StringPool.NEW_LINE);
+		}
+
+		response.setContentType(ContentTypes.TEXT_PLAIN_UTF8);
+
+		ServletResponseUtil.write(response, sb.toString());
+
+		return null;
+	}
+
+}
@@ -14,7 +14,15 @@
 
 package com.liferay.hadoop.loader;
 
+import com.liferay.hadoop.search.IndexDocumentWriter;
+import com.liferay.hadoop.store.ContainerManager;
+import com.liferay.hadoop.store.HDFSStore;
+import com.liferay.hadoop.util.HadoopExecutor;
 import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.HadoopPropsValues;
+import com.liferay.hadoop.util.JobScheduler;
+import com.liferay.hadoop.util.MetricsRegistry;
+import com.liferay.hadoop.util.WordCountResultService;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -27,10 +35,48 @@ public class JobLoaderServletContextListener implements ServletContextListener {
 	public void contextInitialized(ServletContextEvent servletContextEvent) {
 		HadoopManager.setServletContext(
 			servletContextEvent.getServletContext());
+
+		if (HadoopPropsValues.HADOOP_FILE_SYSTEM_PREWARM) {
+			HadoopManager.prewarm();
+		}
+
+		MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+		metricsRegistry.registerMBean();
 	}
 
 	public void contextDestroyed(ServletContextEvent servletContextEvent) {
 		HadoopManager.setServletContext(null);
+
+		JobScheduler jobScheduler = JobScheduler.getInstance();
+
+		jobScheduler.destroy();
+
+		IndexDocumentWriter indexDocumentWriter =
+			IndexDocumentWriter.getInstance();
+
+		indexDocumentWriter.destroy();
+
+		WordCountResultService wordCountResultService =
+			WordCountResultService.getInstance();
+
+		wordCountResultService.destroy();
+
+		ContainerManager containerManager = ContainerManager.getInstance();
+
+		containerManager.destroy();
+
+		HDFSStore.destroyAll();
+
+		HadoopManager.destroy();
+
+		HadoopExecutor hadoopExecutor = HadoopExecutor.getInstance();
+
+		hadoopExecutor.destroy();
+
+		MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+		metricsRegistry.destroy();
 	}
 
 }
\ No newline at end of file
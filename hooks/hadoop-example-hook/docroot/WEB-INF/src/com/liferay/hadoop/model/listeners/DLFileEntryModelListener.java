@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.model.listeners;
+
+import com.liferay.hadoop.search.IndexDocumentSerializer;
+import com.liferay.hadoop.search.IndexDocumentWriter;
+import com.liferay.portal.ModelListenerException;
+import com.liferay.portal.kernel.search.Document;
+import com.liferay.portal.kernel.search.DocumentImpl;
+import com.liferay.portal.model.BaseModelListener;
+import com.liferay.portal.util.PortletKeys;
+import com.liferay.portlet.documentlibrary.model.DLFileEntry;
+
+/**
+ * Writes the deletion of a file entry's index document to its repository's
+ * index segments, so the word count jobs stop counting the document. Index
+ * post processors are not called when a document is deleted from the index.
+ *
+ * @author Raymond Augé
+ */
+public class DLFileEntryModelListener extends BaseModelListener<DLFileEntry> {
+
+	@Override
+	public void onAfterRemove(DLFileEntry dlFileEntry)
+		throws ModelListenerException {
+
+		// Same uid as the document of DLIndexer
+
+		Document document = new DocumentImpl();
+
+		document.addUID(
+			PortletKeys.DOCUMENT_LIBRARY, dlFileEntry.getFileEntryId());
+
+		byte[] bytes = IndexDocumentSerializer.serializeDeletion(
+			document.getUID());
+
+		IndexDocumentWriter indexDocumentWriter =
+			IndexDocumentWriter.getInstance();
+
+		try {
+			indexDocumentWriter.write(
+				dlFileEntry.getCompanyId(), dlFileEntry.getRepositoryId(),
+				bytes);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+
+			throw new ModelListenerException(ie);
+		}
+	}
+
+}
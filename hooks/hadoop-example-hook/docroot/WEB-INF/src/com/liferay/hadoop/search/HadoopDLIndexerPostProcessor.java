@@ -14,28 +14,18 @@
 
 package com.liferay.hadoop.search;
 
-import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.MetricsRegistry;
 import com.liferay.portal.kernel.search.BooleanQuery;
 import com.liferay.portal.kernel.search.Document;
 import com.liferay.portal.kernel.search.IndexerPostProcessor;
 import com.liferay.portal.kernel.search.SearchContext;
 import com.liferay.portal.kernel.search.Summary;
-import com.liferay.portal.kernel.util.StreamUtil;
-import com.liferay.portal.kernel.util.StringPool;
-import com.liferay.portal.kernel.util.StringUtil;
 import com.liferay.portlet.documentlibrary.model.DLFileEntry;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-
 import java.util.Locale;
 
 import javax.portlet.PortletURL;
 
-import org.apache.hadoop.fs.FSDataOutputStream;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
-
 /**
  * @author Raymond Augé
  */
@@ -50,52 +40,26 @@ public class HadoopDLIndexerPostProcessor implements IndexerPostProcessor {
 	public void postProcessDocument(Document document, Object obj)
 		throws Exception {
 
+		long startTime = System.nanoTime();
+
 		DLFileEntry dlFileEntry = (DLFileEntry)obj;
 
 		long companyId = dlFileEntry.getCompanyId();
 		long repositoryId = dlFileEntry.getRepositoryId();
 
-		String stringObject = document.toString();
-
-		// remove JSON chars
-
-		stringObject = StringUtil.replace(
-			stringObject,
-			new String[] {"\"", ",", ":", "{", "}", "[", "]"},
-			new String[] {
-				StringPool.SPACE, StringPool.SPACE, StringPool.SPACE,
-				StringPool.SPACE, StringPool.SPACE, StringPool.SPACE,
-				StringPool.SPACE
-			});
-
-		Path fullDirPath = HadoopManager.getFullDirPath(
-			companyId, repositoryId, null);
-
-		fullDirPath = new Path("/index".concat(fullDirPath.toString()));
-
-		FSDataOutputStream outputStream = null;
-
-		try {
-			FileSystem fileSystem = HadoopManager.getFileSystem();
+		byte[] bytes = IndexDocumentSerializer.serialize(document);
 
-			String suffix = StringPool.SLASH.concat(document.getUID());
+		IndexDocumentWriter indexDocumentWriter =
+			IndexDocumentWriter.getInstance();
 
-			outputStream = fileSystem.create(
-				fullDirPath.suffix(suffix));
+		indexDocumentWriter.write(companyId, repositoryId, bytes);
 
-			PrintWriter pw = new PrintWriter(outputStream);
+		// Includes the time spent waiting for room in the queue
 
-			pw.write(stringObject);
+		MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
 
-			pw.flush();
-			pw.close();
-		}
-		catch (IOException e) {
-			e.printStackTrace();
-		}
-		finally {
-			StreamUtil.cleanUp(outputStream);
-		}
+		metricsRegistry.increment("indexer.documents.bytes", bytes.length);
+		metricsRegistry.record("indexer.postProcessDocument", startTime);
 	}
 
 	public void postProcessFullQuery(BooleanQuery arg0, SearchContext arg1)
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.search;
+
+import com.liferay.portal.kernel.search.Document;
+import com.liferay.portal.kernel.search.Field;
+import com.liferay.portal.kernel.util.CharPool;
+import com.liferay.portal.kernel.util.LocaleUtil;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serializes the fields of an index document as UTF-8 lines of the form
+ * <code>uid TAB version TAB fieldName TAB value</code>, one line per field
+ * value. Localized values are written under <code>fieldName_languageId</code>.
+ * Tabs and line breaks inside values are written as spaces so every line
+ * stays a self describing record that a map reduce input split can start on.
+ *
+ * <p>
+ * Every serialization of a document gets a new version, and the deletion of a
+ * document is the single line <code>uid TAB version</code>, so the word count
+ * jobs only count the latest version of each document. Versions are the
+ * current time in milliseconds, made unique within the portal node, so
+ * versions written by different nodes are ordered by their clocks.
+ * </p>
+ *
+ * <p>
+ * Characters are encoded straight into a buffer that is reused by each
+ * indexing thread, so serializing a large document allocates nothing but the
+ * returned array.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class IndexDocumentSerializer {
+
+	public static byte[] serialize(Document document) {
+		IndexDocumentSerializer indexDocumentSerializer =
+			_indexDocumentSerializer.get();
+
+		try {
+			return indexDocumentSerializer._serialize(
+				document, _nextVersion());
+		}
+		finally {
+			indexDocumentSerializer._reset();
+		}
+	}
+
+	/**
+	 * Returns the line recording the deletion of the document with the uid.
+	 */
+	public static byte[] serializeDeletion(String uid) {
+		IndexDocumentSerializer indexDocumentSerializer =
+			_indexDocumentSerializer.get();
+
+		try {
+			return indexDocumentSerializer._serializeDeletion(
+				uid, _nextVersion());
+		}
+		finally {
+			indexDocumentSerializer._reset();
+		}
+	}
+
+	private static String _nextVersion() {
+		while (true) {
+			long lastVersion = _lastVersion.get();
+
+			long version = Math.max(
+				System.currentTimeMillis(), lastVersion + 1);
+
+			if (_lastVersion.compareAndSet(lastVersion, version)) {
+				return String.valueOf(version);
+			}
+		}
+	}
+
+	private void _ensureCapacity(int capacity) {
+		if (capacity > _bytes.length) {
+			_bytes = Arrays.copyOf(
+				_bytes, Math.max(_bytes.length << 1, capacity));
+		}
+	}
+
+	private void _reset() {
+		_length = 0;
+
+		// Do not keep the buffer of an unusually large document alive on
+		// every pooled indexing thread
+
+		if (_bytes.length > _MAX_RETAINED_CAPACITY) {
+			_bytes = new byte[_INITIAL_CAPACITY];
+		}
+	}
+
+	private byte[] _serialize(Document document, String version) {
+		String uid = document.getUID();
+
+		Map<String, Field> fields = document.getFields();
+
+		for (Field field : fields.values()) {
+			if (field.isLocalized()) {
+				Map<Locale, String> localizedValues =
+					field.getLocalizedValues();
+
+				for (Map.Entry<Locale, String> entry :
+						localizedValues.entrySet()) {
+
+					_writeLine(
+						uid, version, field.getName(),
+						LocaleUtil.toLanguageId(entry.getKey()),
+						entry.getValue());
+				}
+
+				continue;
+			}
+
+			String[] values = field.getValues();
+
+			if (values == null) {
+				continue;
+			}
+
+			for (String value : values) {
+				_writeLine(uid, version, field.getName(), null, value);
+			}
+		}
+
+		return Arrays.copyOf(_bytes, _length);
+	}
+
+	private byte[] _serializeDeletion(String uid, String version) {
+		_write(uid);
+		_write((byte)CharPool.TAB);
+		_write(version);
+		_write((byte)CharPool.NEW_LINE);
+
+		return Arrays.copyOf(_bytes, _length);
+	}
+
+	private void _write(byte b) {
+		_ensureCapacity(_length + 1);
+
+		_bytes[_length++] = b;
+	}
+
+	private void _write(String s) {
+
+		// A char never needs more than 3 bytes, surrogate pairs take 4 bytes
+		// for 2 chars
+
+		_ensureCapacity(_length + (s.length() * 3));
+
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+
+			if (c < 0x80) {
+				if ((c == CharPool.TAB) || (c == CharPool.NEW_LINE) ||
+					(c == CharPool.RETURN)) {
+
+					c = CharPool.SPACE;
+				}
+
+				_bytes[_length++] = (byte)c;
+			}
+			else if (c < 0x800) {
+				_bytes[_length++] = (byte)(0xC0 | (c >> 6));
+				_bytes[_length++] = (byte)(0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && ((i + 1) < s.length()) &&
+					 Character.isLowSurrogate(s.charAt(i + 1))) {
+
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+
+				_bytes[_length++] = (byte)(0xF0 | (codePoint >> 18));
+				_bytes[_length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+				_bytes[_length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+				_bytes[_length++] = (byte)(0x80 | (codePoint & 0x3F));
+			}
+			else if ((c >= Character.MIN_SURROGATE) &&
+					 (c <= Character.MAX_SURROGATE)) {
+
+				// Unpaired surrogate
+
+				_bytes[_length++] = (byte)'?';
+			}
+			else {
+				_bytes[_length++] = (byte)(0xE0 | (c >> 12));
+				_bytes[_length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				_bytes[_length++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void _writeLine(
+		String uid, String version, String name, String languageId,
+		String value) {
+
+		if (value == null) {
+			return;
+		}
+
+		_write(uid);
+		_write((byte)CharPool.TAB);
+		_write(version);
+		_write((byte)CharPool.TAB);
+		_write(name);
+
+		if (languageId != null) {
+			_write((byte)CharPool.UNDERLINE);
+			_write(languageId);
+		}
+
+		_write((byte)CharPool.TAB);
+		_write(value);
+		_write((byte)CharPool.NEW_LINE);
+	}
+
+	private static final int _INITIAL_CAPACITY = 8192;
+
+	private static final int _MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+	private static AtomicLong _lastVersion = new AtomicLong();
+
+	private static ThreadLocal<IndexDocumentSerializer>
+		_indexDocumentSerializer = new ThreadLocal<IndexDocumentSerializer>() {
+
+			@Override
+			protected IndexDocumentSerializer initialValue() {
+				return new IndexDocumentSerializer();
+			}
+
+		};
+
+	private byte[] _bytes = new byte[_INITIAL_CAPACITY];
+	private int _length;
+
+}
\ No newline at end of file
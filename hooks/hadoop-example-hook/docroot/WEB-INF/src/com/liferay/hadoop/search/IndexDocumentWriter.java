@@ -0,0 +1,443 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.search;
+
+import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.HadoopPropsValues;
+import com.liferay.hadoop.util.MetricsRegistry;
+import com.liferay.hadoop.util.StoreEvent;
+import com.liferay.hadoop.util.WordCountJob;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.NamedThreadFactory;
+import com.liferay.portal.kernel.util.StreamUtil;
+import com.liferay.portal.kernel.util.StringPool;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Ships index documents to HDFS in the background. Documents are queued by the
+ * indexing threads and appended by a single writer thread to one segment file
+ * per repository under <code>/index/companyId/repositoryId</code>. A segment
+ * is written under a name starting with an underscore, which map reduce jobs
+ * skip, and renamed once it is rolled by size or age. Indexing threads block
+ * when the queue is full.
+ *
+ * @author Raymond Augé
+ */
+public class IndexDocumentWriter {
+
+	public static IndexDocumentWriter getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * Writes the queued documents and rolls every open segment, then stops the
+	 * writer thread. Documents written afterwards are dropped.
+	 */
+	public void destroy() {
+		_shutdown = true;
+
+		CountDownLatch countDownLatch = new CountDownLatch(1);
+
+		try {
+			_queue.put(new Marker(countDownLatch, true));
+
+			boolean written = countDownLatch.await(
+				_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+
+			if (!written) {
+				_log.error(
+					"Timed out waiting for " + _queue.size() +
+						" index documents to be written");
+			}
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Blocks until every document queued before the call is written and every
+	 * open segment is rolled.
+	 */
+	public void flush() throws InterruptedException {
+		if (_stopped) {
+			return;
+		}
+
+		CountDownLatch countDownLatch = new CountDownLatch(1);
+
+		_queue.put(new Marker(countDownLatch, false));
+
+		countDownLatch.await();
+	}
+
+	public int getOpenSegmentsCount() {
+		synchronized (_segments) {
+			return _segments.size();
+		}
+	}
+
+	public int getQueueSize() {
+		return _queue.size();
+	}
+
+	public long getWrittenCount() {
+		synchronized (_segments) {
+			return _writtenCount;
+		}
+	}
+
+	/**
+	 * Queues a serialized document, waiting for room in the queue if the
+	 * writer thread falls behind.
+	 *
+	 * @see IndexDocumentSerializer
+	 */
+	public void write(long companyId, long repositoryId, byte[] bytes)
+		throws InterruptedException {
+
+		if (_shutdown) {
+			if (_log.isWarnEnabled()) {
+				_log.warn(
+					"Dropping index document of repository " + repositoryId +
+						" because the writer is shut down");
+			}
+
+			return;
+		}
+
+		_queue.put(new IndexDocument(companyId, repositoryId, bytes));
+	}
+
+	private IndexDocumentWriter() {
+		_queue = new ArrayBlockingQueue<Object>(_QUEUE_SIZE);
+
+		NamedThreadFactory namedThreadFactory = new NamedThreadFactory(
+			IndexDocumentWriter.class.getName(), Thread.NORM_PRIORITY,
+			IndexDocumentWriter.class.getClassLoader());
+
+		Thread thread = namedThreadFactory.newThread(new WriterRunnable());
+
+		thread.setDaemon(true);
+
+		thread.start();
+	}
+
+	private Segment _getSegment(long companyId, long repositoryId)
+		throws IOException {
+
+		String fullDirName = HadoopManager.getFullDirName(
+			companyId, repositoryId, null);
+
+		Segment segment = _segments.get(fullDirName);
+
+		if (segment != null) {
+			return segment;
+		}
+
+		segment = new Segment(
+			companyId, repositoryId,
+			new Path(_INDEX_DIR_NAME.concat(fullDirName)));
+
+		_segments.put(fullDirName, segment);
+
+		return segment;
+	}
+
+	private void _roll(boolean all) {
+		long now = System.currentTimeMillis();
+
+		synchronized (_segments) {
+			Iterator<Segment> itr = _segments.values().iterator();
+
+			while (itr.hasNext()) {
+				Segment segment = itr.next();
+
+				if (all || (_segments.size() > _MAX_OPEN) ||
+					(segment.getLength() >= _SEGMENT_MAX_SIZE) ||
+					((now - segment.getCreateTime()) >= _SEGMENT_MAX_AGE)) {
+
+					itr.remove();
+
+					segment.roll();
+				}
+			}
+		}
+	}
+
+	private void _write(List<Object> items) {
+		for (Object item : items) {
+			if (item instanceof Marker) {
+				Marker marker = (Marker)item;
+
+				_roll(true);
+
+				if (marker.isShutdown()) {
+					_stopped = true;
+				}
+
+				marker.countDown();
+
+				continue;
+			}
+
+			IndexDocument indexDocument = (IndexDocument)item;
+
+			synchronized (_segments) {
+				Segment segment = null;
+
+				try {
+					segment = _getSegment(
+						indexDocument.getCompanyId(),
+						indexDocument.getRepositoryId());
+
+					segment.write(indexDocument.getBytes());
+
+					_writtenCount++;
+				}
+				catch (IOException ioe) {
+					_metricsRegistry.increment("indexer.errors");
+
+					_log.error(
+						"Unable to write index document of repository " +
+							indexDocument.getRepositoryId(),
+						ioe);
+
+					if (segment != null) {
+						_segments.values().remove(segment);
+
+						segment.roll();
+					}
+				}
+			}
+		}
+
+		_roll(false);
+	}
+
+	private static final String _INDEX_DIR_NAME = "/index";
+
+	private static final int _MAX_OPEN =
+		HadoopPropsValues.HADOOP_INDEX_WRITER_MAX_OPEN;
+
+	private static final int _QUEUE_SIZE = Math.max(
+		HadoopPropsValues.HADOOP_INDEX_WRITER_QUEUE_SIZE, 1);
+
+	private static final long _SEGMENT_MAX_AGE =
+		HadoopPropsValues.HADOOP_INDEX_WRITER_SEGMENT_MAX_AGE;
+
+	private static final long _SEGMENT_MAX_SIZE =
+		HadoopPropsValues.HADOOP_INDEX_WRITER_SEGMENT_MAX_SIZE;
+
+	private static final long _SHUTDOWN_TIMEOUT = 60000;
+
+	private static Log _log = LogFactoryUtil.getLog(IndexDocumentWriter.class);
+
+	private static MetricsRegistry _metricsRegistry =
+		MetricsRegistry.getInstance();
+
+	private static IndexDocumentWriter _instance = new IndexDocumentWriter();
+
+	private final BlockingQueue<Object> _queue;
+	private final Map<String, Segment> _segments =
+		new LinkedHashMap<String, Segment>();
+	private volatile boolean _shutdown;
+	private volatile boolean _stopped;
+	private long _writtenCount;
+
+	private static class IndexDocument {
+
+		public IndexDocument(long companyId, long repositoryId, byte[] bytes) {
+			_companyId = companyId;
+			_repositoryId = repositoryId;
+			_bytes = bytes;
+		}
+
+		public byte[] getBytes() {
+			return _bytes;
+		}
+
+		public long getCompanyId() {
+			return _companyId;
+		}
+
+		public long getRepositoryId() {
+			return _repositoryId;
+		}
+
+		private final byte[] _bytes;
+		private final long _companyId;
+		private final long _repositoryId;
+
+	}
+
+	private static class Marker {
+
+		public Marker(CountDownLatch countDownLatch, boolean shutdown) {
+			_countDownLatch = countDownLatch;
+			_shutdown = shutdown;
+		}
+
+		public void countDown() {
+			_countDownLatch.countDown();
+		}
+
+		public boolean isShutdown() {
+			return _shutdown;
+		}
+
+		private final CountDownLatch _countDownLatch;
+		private final boolean _shutdown;
+
+	}
+
+	private static class Segment {
+
+		public Segment(long companyId, long repositoryId, Path dirPath)
+			throws IOException {
+
+			_companyId = companyId;
+			_repositoryId = repositoryId;
+
+			String name =
+				System.currentTimeMillis() + StringPool.DASH +
+					UUID.randomUUID();
+
+			_tempPath = new Path(dirPath, StringPool.UNDERLINE.concat(name));
+			_path = new Path(dirPath, WordCountJob.SEGMENT_PREFIX.concat(name));
+
+			FileSystem fileSystem = HadoopManager.getFileSystem();
+
+			_outputStream = fileSystem.create(_tempPath, false);
+
+			_createTime = System.currentTimeMillis();
+		}
+
+		public long getCreateTime() {
+			return _createTime;
+		}
+
+		public long getLength() {
+			return _length;
+		}
+
+		public void roll() {
+			long startTime = System.nanoTime();
+
+			try {
+				_outputStream.close();
+
+				FileSystem fileSystem = HadoopManager.getFileSystem();
+
+				if (fileSystem.rename(_tempPath, _path)) {
+					HadoopManager.runJob(
+						new StoreEvent(_companyId, _repositoryId, _path));
+				}
+				else {
+					_metricsRegistry.increment("indexer.errors");
+
+					_log.error(
+						"Unable to rename segment " + _tempPath + " to " +
+							_path);
+				}
+			}
+			catch (IOException ioe) {
+				_metricsRegistry.increment("indexer.errors");
+
+				_log.error("Unable to roll segment " + _tempPath, ioe);
+			}
+			finally {
+				StreamUtil.cleanUp(_outputStream);
+
+				_metricsRegistry.record("indexer.roll", startTime);
+			}
+		}
+
+		public void write(byte[] bytes) throws IOException {
+			_outputStream.write(bytes);
+
+			_length += bytes.length;
+		}
+
+		private final long _companyId;
+		private final long _createTime;
+		private long _length;
+		private final FSDataOutputStream _outputStream;
+		private final Path _path;
+		private final long _repositoryId;
+		private final Path _tempPath;
+
+	}
+
+	private class WriterRunnable implements Runnable {
+
+		public void run() {
+			List<Object> items = new ArrayList<Object>();
+
+			while (!_stopped) {
+				try {
+					Object item = _queue.poll(
+						_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+
+					if (item == null) {
+						_roll(false);
+
+						continue;
+					}
+
+					items.add(item);
+
+					_queue.drainTo(items, _BATCH_SIZE - 1);
+
+					_write(items);
+				}
+				catch (InterruptedException ie) {
+					_roll(true);
+
+					return;
+				}
+				catch (Throwable t) {
+					_log.error(t, t);
+				}
+				finally {
+					items.clear();
+				}
+			}
+		}
+
+		private static final int _BATCH_SIZE = 1000;
+
+		private static final long _POLL_INTERVAL = 1000;
+
+	}
+
+}
\ No newline at end of file
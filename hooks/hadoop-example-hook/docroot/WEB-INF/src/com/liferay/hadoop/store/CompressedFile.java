@@ -0,0 +1,528 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.portal.kernel.io.LimitedInputStream;
+import com.liferay.portal.kernel.util.ArrayUtil;
+import com.liferay.portal.kernel.util.MimeTypesUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+import com.liferay.portal.kernel.util.Validator;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Reads and writes versions compressed with a Hadoop codec. A compressed
+ * version is stored next to the path of the version, with a suffix, so it is
+ * told apart from an uploaded file by its name rather than by its content. It
+ * starts with a magic number and the class name of its codec, which must be
+ * the configured codec or one of the codecs of Hadoop, and ends with the
+ * uncompressed length, so its size is known without decompressing it.
+ *
+ * <p>
+ * A marker file is created before the first file is compressed. While
+ * compression is disabled and the marker does not exist, no file can be
+ * compressed, so the suffixed paths are never looked up.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class CompressedFile {
+
+	public CompressedFile(
+		boolean enabled, String codecClassName, String[] skipContentTypes,
+		long markerCheckInterval) {
+
+		_enabled = enabled;
+		_codecClassName = codecClassName;
+		_skipContentTypes = skipContentTypes;
+		_markerCheckInterval = markerCheckInterval;
+	}
+
+	/**
+	 * Returns a stream over the uncompressed content of the compressed file.
+	 */
+	public InputStream getInputStream(InputStream inputStream)
+		throws IOException {
+
+		DataInputStream dataInputStream = new DataInputStream(inputStream);
+
+		byte[] bytes = new byte[_MAGIC.length];
+
+		dataInputStream.readFully(bytes);
+
+		if (!Arrays.equals(bytes, _MAGIC)) {
+			throw new IOException("The file is not compressed");
+		}
+
+		CompressionCodec compressionCodec = _getCompressionCodec(
+			dataInputStream.readUTF());
+
+		return new DecompressedInputStream(
+			compressionCodec, CodecPool.getDecompressor(compressionCodec),
+			new TrailerInputStream(inputStream));
+	}
+
+	/**
+	 * Returns a stream over <code>length</code> bytes of the uncompressed
+	 * content starting at <code>offset</code>, or over the rest of it if
+	 * <code>length</code> is negative. The content before the offset is
+	 * decompressed and skipped.
+	 */
+	public InputStream getInputStream(
+			InputStream inputStream, long offset, long length)
+		throws IOException {
+
+		inputStream = getInputStream(inputStream);
+
+		try {
+			long remaining = offset;
+
+			while (remaining > 0) {
+				long skipped = inputStream.skip(remaining);
+
+				if (skipped <= 0) {
+					if (inputStream.read() == -1) {
+						break;
+					}
+
+					skipped = 1;
+				}
+
+				remaining -= skipped;
+			}
+
+			if (length < 0) {
+				return inputStream;
+			}
+
+			return new LimitedInputStream(inputStream, 0, length);
+		}
+		catch (IOException ioe) {
+			StreamUtil.cleanUp(inputStream);
+
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Returns the uncompressed length of the compressed file, given its
+	 * length in HDFS, read from the end of the file.
+	 */
+	public long getLength(FileSystem fileSystem, Path path, long length)
+		throws IOException {
+
+		if (length < _MIN_LENGTH) {
+			throw new IOException(
+				"The file " + path.toUri().toString() + " is truncated");
+		}
+
+		FSDataInputStream inputStream = fileSystem.open(path);
+
+		try {
+			byte[] bytes = new byte[_TRAILER_LENGTH];
+
+			inputStream.readFully(length - _TRAILER_LENGTH, bytes);
+
+			DataInputStream dataInputStream = new DataInputStream(
+				new ByteArrayInputStream(bytes));
+
+			return dataInputStream.readLong();
+		}
+		finally {
+			StreamUtil.cleanUp(inputStream);
+		}
+	}
+
+	/**
+	 * Returns a stream compressing what is written to it with the configured
+	 * codec. Closing it writes the uncompressed length and closes the
+	 * underlying stream.
+	 */
+	public OutputStream getOutputStream(OutputStream outputStream)
+		throws IOException {
+
+		CompressionCodec compressionCodec = _getCompressionCodec(
+			_codecClassName);
+
+		DataOutputStream dataOutputStream = new DataOutputStream(
+			outputStream);
+
+		dataOutputStream.write(_MAGIC);
+		dataOutputStream.writeUTF(_codecClassName);
+
+		return new CompressedOutputStream(compressionCodec, outputStream);
+	}
+
+	/**
+	 * Returns the path a compressed copy of the version is stored at.
+	 */
+	public Path getPath(Path path) {
+		return new Path(path.getParent(), path.getName().concat(_SUFFIX));
+	}
+
+	/**
+	 * Returns <code>true</code> if compression is enabled or the marker
+	 * exists. A missing marker is looked up again after the check interval,
+	 * since another node may have compressed a file since.
+	 */
+	public boolean hasCompressedFiles(FileSystem fileSystem)
+		throws IOException {
+
+		if (_enabled || _markerExists) {
+			return true;
+		}
+
+		long now = System.currentTimeMillis();
+
+		if (now < _markerCheckTime) {
+			return false;
+		}
+
+		_markerExists = fileSystem.exists(_MARKER_PATH);
+		_markerCheckTime = now + _markerCheckInterval;
+
+		return _markerExists;
+	}
+
+	/**
+	 * Returns <code>true</code> if the status is the one of a compressed
+	 * version, as found at the path returned by {@link #getPath(Path)}.
+	 */
+	public boolean isCompressed(FileStatus fileStatus) {
+		Path path = fileStatus.getPath();
+
+		return path.getName().endsWith(_SUFFIX);
+	}
+
+	/**
+	 * Returns <code>true</code> if compression is enabled and the content
+	 * type detected from the first bytes of the version and its file name is
+	 * not one that is already compressed.
+	 */
+	public boolean isCompressible(String fileName, byte[] bytes, int length) {
+		if (!_enabled) {
+			return false;
+		}
+
+		String contentType = MimeTypesUtil.getContentType(
+			new ByteArrayInputStream(bytes, 0, length), fileName);
+
+		if (Validator.isNull(contentType)) {
+			return true;
+		}
+
+		for (String skipContentType : _skipContentTypes) {
+			if (contentType.startsWith(skipContentType)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * Creates the marker, unless this instance already knows it exists. It
+	 * must be called before a file is compressed.
+	 */
+	public void markCompressed(FileSystem fileSystem) throws IOException {
+		if (_markerExists) {
+			return;
+		}
+
+		fileSystem.create(_MARKER_PATH, true).close();
+
+		_markerExists = true;
+	}
+
+	private CompressionCodec _getCompressionCodec(String codecClassName)
+		throws IOException {
+
+		CompressionCodec compressionCodec = _compressionCodecs.get(
+			codecClassName);
+
+		if (compressionCodec != null) {
+			return compressionCodec;
+		}
+
+		// Only load the classes of known codecs, whatever the file says
+
+		if (!codecClassName.equals(_codecClassName) &&
+			!ArrayUtil.contains(_CODEC_CLASS_NAMES, codecClassName)) {
+
+			throw new IOException(
+				"Compression codec " + codecClassName + " is not allowed");
+		}
+
+		try {
+			Class<?> codecClass = Class.forName(codecClassName);
+
+			compressionCodec = (CompressionCodec)ReflectionUtils.newInstance(
+				codecClass, new Configuration());
+		}
+		catch (Exception e) {
+			throw new IOException(
+				"Unable to load compression codec " + codecClassName, e);
+		}
+
+		CompressionCodec previousCompressionCodec =
+			_compressionCodecs.putIfAbsent(codecClassName, compressionCodec);
+
+		if (previousCompressionCodec != null) {
+			compressionCodec = previousCompressionCodec;
+		}
+
+		return compressionCodec;
+	}
+
+	private static final String[] _CODEC_CLASS_NAMES = {
+		BZip2Codec.class.getName(), DefaultCodec.class.getName(),
+		GzipCodec.class.getName(), SnappyCodec.class.getName()
+	};
+
+	private static final byte[] _MAGIC = {
+		(byte)0x89, 'L', 'H', 'Z', '\r', '\n', 0x1A, '\n'
+	};
+
+	private static final Path _MARKER_PATH = new Path("/.compressed");
+
+	private static final String _SUFFIX = ".lhz";
+
+	private static final int _TRAILER_LENGTH = 8;
+
+	// The magic number, the length of an empty codec class name and the
+	// trailer
+
+	private static final int _MIN_LENGTH = _MAGIC.length + 2 + _TRAILER_LENGTH;
+
+	private final String _codecClassName;
+	private final ConcurrentMap<String, CompressionCodec> _compressionCodecs =
+		new ConcurrentHashMap<String, CompressionCodec>();
+	private final boolean _enabled;
+	private final long _markerCheckInterval;
+	private volatile long _markerCheckTime;
+	private volatile boolean _markerExists;
+	private final String[] _skipContentTypes;
+
+	private static class CompressedOutputStream extends OutputStream {
+
+		public CompressedOutputStream(
+				CompressionCodec compressionCodec, OutputStream outputStream)
+			throws IOException {
+
+			_compressor = CodecPool.getCompressor(compressionCodec);
+
+			_compressionOutputStream = compressionCodec.createOutputStream(
+				outputStream, _compressor);
+
+			_outputStream = outputStream;
+		}
+
+		/**
+		 * Finishes the compressed data and writes the uncompressed length
+		 * after it. The underlying stream is closed rather than the codec
+		 * stream, which would not let the length be written.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (_closed) {
+				return;
+			}
+
+			_closed = true;
+
+			try {
+				_compressionOutputStream.finish();
+
+				DataOutputStream dataOutputStream = new DataOutputStream(
+					_outputStream);
+
+				dataOutputStream.writeLong(_length);
+
+				_outputStream.close();
+			}
+			finally {
+				CodecPool.returnCompressor(_compressor);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			_compressionOutputStream.flush();
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length)
+			throws IOException {
+
+			_compressionOutputStream.write(bytes, offset, length);
+
+			_length += length;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			_compressionOutputStream.write(b);
+
+			_length++;
+		}
+
+		private boolean _closed;
+		private final CompressionOutputStream _compressionOutputStream;
+		private final Compressor _compressor;
+		private long _length;
+		private final OutputStream _outputStream;
+
+	}
+
+	private static class DecompressedInputStream extends FilterInputStream {
+
+		public DecompressedInputStream(
+				CompressionCodec compressionCodec, Decompressor decompressor,
+				InputStream inputStream)
+			throws IOException {
+
+			super(
+				compressionCodec.createInputStream(inputStream, decompressor));
+
+			_decompressor = decompressor;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (_closed) {
+				return;
+			}
+
+			_closed = true;
+
+			try {
+				super.close();
+			}
+			finally {
+				CodecPool.returnDecompressor(_decompressor);
+			}
+		}
+
+		private boolean _closed;
+		private final Decompressor _decompressor;
+
+	}
+
+	/**
+	 * Holds back the uncompressed length written after the compressed data,
+	 * so the codec sees the end of the stream where the data ends.
+	 */
+	private static class TrailerInputStream extends InputStream {
+
+		public TrailerInputStream(InputStream inputStream) {
+			_inputStream = inputStream;
+		}
+
+		@Override
+		public void close() throws IOException {
+			_inputStream.close();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] bytes = new byte[1];
+
+			int read = read(bytes, 0, 1);
+
+			if (read == -1) {
+				return -1;
+			}
+
+			return bytes[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length)
+			throws IOException {
+
+			if (length == 0) {
+				return 0;
+			}
+
+			while ((_count - _position) <= _TRAILER_LENGTH) {
+				if (_end) {
+					return -1;
+				}
+
+				System.arraycopy(
+					_buffer, _position, _buffer, 0, _count - _position);
+
+				_count -= _position;
+				_position = 0;
+
+				int read = _inputStream.read(
+					_buffer, _count, _buffer.length - _count);
+
+				if (read == -1) {
+					_end = true;
+				}
+				else {
+					_count += read;
+				}
+			}
+
+			length = Math.min(length, _count - _position - _TRAILER_LENGTH);
+
+			System.arraycopy(_buffer, _position, bytes, offset, length);
+
+			_position += length;
+
+			return length;
+		}
+
+		private final byte[] _buffer = new byte[8192 + _TRAILER_LENGTH];
+		private int _count;
+		private boolean _end;
+		private final InputStream _inputStream;
+		private int _position;
+
+	}
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Holds the records of one container file. A closed container is read once
+ * from its side index. A container that is still being written, or whose
+ * writer died before the side index was stored, is scanned incrementally from
+ * the last complete record seen. So is a container whose side index is
+ * truncated.
+ *
+ * @author Raymond Augé
+ */
+public class ContainerFile {
+
+	public ContainerFile(Path containerPath) {
+		_containerPath = containerPath;
+	}
+
+	public Path getContainerPath() {
+		return _containerPath;
+	}
+
+	public synchronized List<ContainerRecord> getRecords() {
+		return new ArrayList<ContainerRecord>(_records);
+	}
+
+	public synchronized boolean isClosed() {
+		return _closed;
+	}
+
+	public synchronized void load(FileSystem fileSystem, boolean indexed)
+		throws IOException {
+
+		if (_closed) {
+			return;
+		}
+
+		if (indexed) {
+			try {
+				_records = _readIndex(fileSystem);
+
+				_closed = true;
+
+				return;
+			}
+			catch (EOFException eofe) {
+				if (_log.isWarnEnabled()) {
+					_log.warn(
+						"Scanning container " +
+							_containerPath.toUri().toString() +
+								" because its index is truncated");
+				}
+			}
+		}
+
+		_scan(fileSystem);
+	}
+
+	private List<ContainerRecord> _readIndex(FileSystem fileSystem)
+		throws IOException {
+
+		FSDataInputStream inputStream = fileSystem.open(
+			ContainerWriter.getIndexPath(_containerPath));
+
+		try {
+			int size = inputStream.readInt();
+
+			List<ContainerRecord> records = new ArrayList<ContainerRecord>(
+				size);
+
+			for (int i = 0; i < size; i++) {
+				byte type = inputStream.readByte();
+				String key = inputStream.readUTF();
+				long timestamp = inputStream.readLong();
+				int length = inputStream.readInt();
+				long offset = inputStream.readLong();
+
+				records.add(
+					new ContainerRecord(
+						type, key, timestamp, _containerPath, offset, length));
+			}
+
+			return records;
+		}
+		finally {
+			StreamUtil.cleanUp(inputStream);
+		}
+	}
+
+	private void _scan(FileSystem fileSystem) throws IOException {
+		FSDataInputStream inputStream = fileSystem.open(_containerPath);
+
+		try {
+			if (_scannedOffset > 0) {
+				inputStream.seek(_scannedOffset);
+			}
+
+			byte[] buffer = new byte[8192];
+
+			while (true) {
+				byte type = inputStream.readByte();
+
+				if ((type != ContainerRecord.TYPE_DELETE) &&
+					(type != ContainerRecord.TYPE_PUT)) {
+
+					break;
+				}
+
+				String key = inputStream.readUTF();
+				long timestamp = inputStream.readLong();
+				int length = inputStream.readInt();
+
+				long offset = inputStream.getPos();
+
+				// Read rather than skip the content, skipping past the visible
+				// end of a file being written does not fail
+
+				int remaining = length;
+
+				while (remaining > 0) {
+					int chunk = Math.min(remaining, buffer.length);
+
+					inputStream.readFully(buffer, 0, chunk);
+
+					remaining -= chunk;
+				}
+
+				_records.add(
+					new ContainerRecord(
+						type, key, timestamp, _containerPath, offset, length));
+
+				_scannedOffset = inputStream.getPos();
+			}
+		}
+		catch (EOFException eofe) {
+
+			// The last record is incomplete or still being written
+
+		}
+		finally {
+			StreamUtil.cleanUp(inputStream);
+		}
+	}
+
+	private static Log _log = LogFactoryUtil.getLog(ContainerFile.class);
+
+	private boolean _closed;
+	private final Path _containerPath;
+	private List<ContainerRecord> _records = new ArrayList<ContainerRecord>();
+	private long _scannedOffset;
+
+}
\ No newline at end of file
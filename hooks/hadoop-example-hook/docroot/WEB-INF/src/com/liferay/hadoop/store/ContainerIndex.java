@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.portal.kernel.util.CharPool;
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.Validator;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * In-memory index of the containers of one repository. Keys are file names
+ * and versions relative to the repository. A put is live unless a delete of
+ * the same key, or of one of its ancestor directories, is more recent. The
+ * empty key is the repository itself.
+ *
+ * @author Raymond Augé
+ */
+public class ContainerIndex {
+
+	public ContainerIndex(Path containersPath) {
+		_containersPath = containersPath;
+	}
+
+	/**
+	 * Applies a record written by this JVM without waiting for the next load.
+	 */
+	public synchronized void add(ContainerRecord record) {
+		_apply(record);
+
+		_localRecords.add(record);
+	}
+
+	public synchronized List<ContainerFile> getContainerFiles() {
+		return new ArrayList<ContainerFile>(_containerFiles.values());
+	}
+
+	public Path getContainersPath() {
+		return _containersPath;
+	}
+
+	public synchronized Set<String> getKeys(String prefix) {
+		Set<String> keys = new HashSet<String>();
+
+		for (ContainerRecord record : _putRecords.values()) {
+			String key = record.getKey();
+
+			if (_matches(prefix, key) && _isLive(record)) {
+				keys.add(key);
+			}
+		}
+
+		return keys;
+	}
+
+	public synchronized long getLoadTime() {
+		return _loadTime;
+	}
+
+	/**
+	 * Returns the most recent timestamp of the records seen so far, including
+	 * the records of containers that were compacted since.
+	 */
+	public synchronized long getMaxTimestamp() {
+		return _maxTimestamp;
+	}
+
+	public synchronized ContainerRecord getRecord(String key) {
+		ContainerRecord record = _putRecords.get(key);
+
+		if ((record == null) || !_isLive(record)) {
+			return null;
+		}
+
+		return record;
+	}
+
+	public synchronized int getSize() {
+		return _putRecords.size();
+	}
+
+	public synchronized boolean hasKeys(String prefix) {
+		for (ContainerRecord record : _putRecords.values()) {
+			if (_matches(prefix, record.getKey()) && _isLive(record)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public synchronized boolean isLive(ContainerRecord record) {
+		return _isLive(record);
+	}
+
+	public void load(FileSystem fileSystem) throws IOException {
+		synchronized (_loadLock) {
+			int localRecordsCount = 0;
+			Map<Path, ContainerFile> containerFiles = null;
+
+			synchronized (this) {
+				localRecordsCount = _localRecords.size();
+				containerFiles = new HashMap<Path, ContainerFile>(
+					_containerFiles);
+			}
+
+			Map<Path, ContainerFile> loadedContainerFiles =
+				new HashMap<Path, ContainerFile>();
+
+			FileStatus[] fileStatuses = fileSystem.listStatus(_containersPath);
+
+			if (fileStatuses != null) {
+				Set<String> names = new HashSet<String>();
+
+				for (FileStatus fileStatus : fileStatuses) {
+					names.add(fileStatus.getPath().getName());
+				}
+
+				for (FileStatus fileStatus : fileStatuses) {
+					Path path = fileStatus.getPath();
+
+					if (!path.getName().endsWith(
+							ContainerWriter.DATA_EXTENSION)) {
+
+						continue;
+					}
+
+					path = new Path(_containersPath, path.getName());
+
+					ContainerFile containerFile = containerFiles.get(path);
+
+					if (containerFile == null) {
+						containerFile = new ContainerFile(path);
+					}
+
+					Path indexPath = ContainerWriter.getIndexPath(path);
+
+					containerFile.load(
+						fileSystem, names.contains(indexPath.getName()));
+
+					loadedContainerFiles.put(path, containerFile);
+				}
+			}
+
+			synchronized (this) {
+				_containerFiles = loadedContainerFiles;
+
+				_putRecords.clear();
+				_deleteTimestamps.clear();
+
+				for (ContainerFile containerFile :
+						loadedContainerFiles.values()) {
+
+					for (ContainerRecord record : containerFile.getRecords()) {
+						_apply(record);
+					}
+				}
+
+				// Records added before this load started were synced and
+				// found above. Later ones may have been missed.
+
+				_localRecords = new ArrayList<ContainerRecord>(
+					_localRecords.subList(
+						localRecordsCount, _localRecords.size()));
+
+				for (ContainerRecord record : _localRecords) {
+					_apply(record);
+				}
+
+				_loadTime = System.currentTimeMillis();
+			}
+		}
+	}
+
+	private void _apply(ContainerRecord record) {
+		_maxTimestamp = Math.max(_maxTimestamp, record.getTimestamp());
+
+		String key = record.getKey();
+
+		if (record.isPut()) {
+			ContainerRecord putRecord = _putRecords.get(key);
+
+			if ((putRecord == null) ||
+				(putRecord.getTimestamp() < record.getTimestamp())) {
+
+				_putRecords.put(key, record);
+			}
+		}
+		else {
+			Long timestamp = _deleteTimestamps.get(key);
+
+			if ((timestamp == null) || (timestamp < record.getTimestamp())) {
+				_deleteTimestamps.put(key, record.getTimestamp());
+			}
+		}
+	}
+
+	private boolean _isLive(ContainerRecord record) {
+		if (!record.isPut()) {
+			return false;
+		}
+
+		String key = record.getKey();
+
+		while (true) {
+			Long timestamp = _deleteTimestamps.get(key);
+
+			if ((timestamp != null) && (timestamp >= record.getTimestamp())) {
+				return false;
+			}
+
+			if (key.length() == 0) {
+				return true;
+			}
+
+			int pos = key.lastIndexOf(CharPool.SLASH);
+
+			if (pos == -1) {
+				key = StringPool.BLANK;
+			}
+			else {
+				key = key.substring(0, pos);
+			}
+		}
+	}
+
+	private boolean _matches(String prefix, String key) {
+		if (Validator.isNull(prefix) || key.equals(prefix) ||
+			key.startsWith(prefix.concat(StringPool.SLASH))) {
+
+			return true;
+		}
+
+		return false;
+	}
+
+	private Map<Path, ContainerFile> _containerFiles =
+		new HashMap<Path, ContainerFile>();
+	private final Path _containersPath;
+	private final Map<String, Long> _deleteTimestamps =
+		new HashMap<String, Long>();
+	private final Object _loadLock = new Object();
+	private long _loadTime;
+	private List<ContainerRecord> _localRecords =
+		new ArrayList<ContainerRecord>();
+	private long _maxTimestamp;
+	private final Map<String, ContainerRecord> _putRecords =
+		new HashMap<String, ContainerRecord>();
+
+}
\ No newline at end of file
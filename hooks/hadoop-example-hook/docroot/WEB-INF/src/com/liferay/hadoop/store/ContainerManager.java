@@ -0,0 +1,945 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.HadoopPropsValues;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.NamedThreadFactory;
+import com.liferay.portal.kernel.util.StreamUtil;
+import com.liferay.portal.kernel.util.StringBundler;
+import com.liferay.portal.kernel.util.StringPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+/**
+ * Packs small document versions into per repository container files under
+ * <code>/containers/companyId/repositoryId</code> so they do not each cost a
+ * NameNode object.
+ *
+ * <p>
+ * Every JVM appends to its own container per repository, so no two writers
+ * ever share a file. A container is rolled once it reaches its maximum size or
+ * has been idle for a while, and its side index is written then. Deletes are
+ * appended as records as well. Background compaction rewrites the live
+ * entries of the closed containers whose ratio of dead content exceeds the
+ * compaction ratio, up to the maximum size of one container per run.
+ * </p>
+ *
+ * <p>
+ * The most recent record of a key wins. A record is stamped after every
+ * record of its repository this JVM has seen, so the order of a delete and
+ * the put it hides does not depend on the clocks of the JVMs that wrote them.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class ContainerManager {
+
+	public static ContainerManager getInstance() {
+		return _instance;
+	}
+
+	public void compact(long companyId, long repositoryId) throws IOException {
+		FileSystem fileSystem = _getFileSystem();
+
+		Path containersPath = getContainersPath(companyId, repositoryId);
+
+		Path lockPath = new Path(containersPath, _COMPACTION_LOCK_NAME);
+
+		try {
+			fileSystem.create(lockPath, false).close();
+		}
+		catch (IOException ioe) {
+			_releaseStaleLock(fileSystem, lockPath);
+
+			return;
+		}
+
+		try {
+			ContainerIndex containerIndex = new ContainerIndex(containersPath);
+
+			containerIndex.load(fileSystem);
+
+			_compact(fileSystem, containerIndex);
+		}
+		finally {
+			fileSystem.delete(lockPath, false);
+		}
+
+		String repositoryKey = _getRepositoryKey(companyId, repositoryId);
+
+		synchronized (_containerIndexes) {
+			_containerIndexes.remove(repositoryKey);
+		}
+	}
+
+	/**
+	 * Hides the packed entry of the key and the packed entries below it. The
+	 * index is reloaded first, so entries packed by other JVMs since it was
+	 * last read are hidden as well, at the cost of listing the containers. No
+	 * delete record is written when none of them is live, so writing or
+	 * deleting regular files does not grow the containers.
+	 */
+	public void delete(long companyId, long repositoryId, String key)
+		throws IOException {
+
+		ContainerIndex containerIndex = _getContainerIndex(
+			companyId, repositoryId, true);
+
+		if (!containerIndex.hasKeys(key)) {
+			return;
+		}
+
+		_write(
+			companyId, repositoryId, ContainerRecord.TYPE_DELETE, key, null,
+			0);
+	}
+
+	public void destroy() {
+		if (_scheduledThreadPoolExecutor != null) {
+			_scheduledThreadPoolExecutor.shutdownNow();
+		}
+
+		synchronized (_containerWriters) {
+			for (ContainerWriter containerWriter : _containerWriters.values()) {
+				_close(containerWriter);
+			}
+
+			_containerWriters.clear();
+		}
+	}
+
+	public Path getContainersPath(long companyId, long repositoryId) {
+		return new Path(
+			_CONTAINERS_DIR_NAME.concat(
+				HadoopManager.getFullDirName(companyId, repositoryId, null)));
+	}
+
+	public InputStream getInputStream(
+			long companyId, long repositoryId, String key)
+		throws IOException {
+
+		return getInputStream(companyId, repositoryId, key, 0, -1);
+	}
+
+	/**
+	 * Returns a stream over <code>length</code> bytes of a packed entry
+	 * starting at <code>offset</code>, or over the rest of the entry if
+	 * <code>length</code> is negative. Only the requested bytes are read from
+	 * the container.
+	 */
+	public InputStream getInputStream(
+			long companyId, long repositoryId, String key, long offset,
+			long length)
+		throws IOException {
+
+		ContainerRecord record = getRecord(companyId, repositoryId, key);
+
+		if (record == null) {
+			return null;
+		}
+
+		try {
+			return new ByteArrayInputStream(_read(record, offset, length));
+		}
+		catch (FileNotFoundException fnfe) {
+
+			// The container was compacted by another JVM
+
+			ContainerIndex containerIndex = _getContainerIndex(
+				companyId, repositoryId, true);
+
+			record = containerIndex.getRecord(key);
+
+			if (record == null) {
+				return null;
+			}
+
+			return new ByteArrayInputStream(_read(record, offset, length));
+		}
+	}
+
+	public Set<String> getKeys(long companyId, long repositoryId, String prefix)
+		throws IOException {
+
+		ContainerIndex containerIndex = _getContainerIndex(
+			companyId, repositoryId, false);
+
+		return containerIndex.getKeys(prefix);
+	}
+
+	public int getOpenContainersCount() {
+		synchronized (_containerWriters) {
+			return _containerWriters.size();
+		}
+	}
+
+	public ContainerRecord getRecord(
+			long companyId, long repositoryId, String key)
+		throws IOException {
+
+		ContainerIndex containerIndex = _getContainerIndex(
+			companyId, repositoryId, false);
+
+		return containerIndex.getRecord(key);
+	}
+
+	public int getThreshold() {
+		return _threshold;
+	}
+
+	public boolean hasKeys(long companyId, long repositoryId, String prefix)
+		throws IOException {
+
+		ContainerIndex containerIndex = _getContainerIndex(
+			companyId, repositoryId, false);
+
+		return containerIndex.hasKeys(prefix);
+	}
+
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * Moves the packed entries of a repository to another repository and
+	 * returns the keys that already exist in the target repository. Those are
+	 * left in place.
+	 */
+	public List<String> moveRepository(
+			long companyId, long repositoryId, long newRepositoryId)
+		throws IOException {
+
+		FileSystem fileSystem = _getFileSystem();
+
+		Path sourcePath = getContainersPath(companyId, repositoryId);
+		Path targetPath = getContainersPath(companyId, newRepositoryId);
+
+		_closeContainerWriter(companyId, repositoryId);
+		_closeContainerWriter(companyId, newRepositoryId);
+
+		List<String> duplicateKeys = new ArrayList<String>();
+
+		if (!fileSystem.exists(targetPath)) {
+			fileSystem.mkdirs(
+				targetPath.getParent(), FsPermission.getDefault());
+
+			fileSystem.rename(sourcePath, targetPath);
+		}
+		else {
+			ContainerIndex sourceContainerIndex = _getContainerIndex(
+				companyId, repositoryId, true);
+			ContainerIndex targetContainerIndex = _getContainerIndex(
+				companyId, newRepositoryId, true);
+
+			for (String key : sourceContainerIndex.getKeys(null)) {
+				if (targetContainerIndex.getRecord(key) != null) {
+					duplicateKeys.add(key);
+
+					continue;
+				}
+
+				ContainerRecord record = sourceContainerIndex.getRecord(key);
+
+				if (record == null) {
+					continue;
+				}
+
+				byte[] bytes = _read(record);
+
+				put(companyId, newRepositoryId, key, bytes, bytes.length);
+				delete(companyId, repositoryId, key);
+			}
+		}
+
+		synchronized (_containerIndexes) {
+			_containerIndexes.remove(
+				_getRepositoryKey(companyId, repositoryId));
+			_containerIndexes.remove(
+				_getRepositoryKey(companyId, newRepositoryId));
+		}
+
+		return duplicateKeys;
+	}
+
+	public void put(
+			long companyId, long repositoryId, String key, byte[] bytes,
+			int length)
+		throws IOException {
+
+		_write(
+			companyId, repositoryId, ContainerRecord.TYPE_PUT, key, bytes,
+			length);
+	}
+
+	/**
+	 * Copies a packed entry to a new key, possibly in another repository, and
+	 * deletes the old key. Returns <code>false</code> if the entry is not
+	 * packed.
+	 */
+	public boolean rename(
+			long companyId, long repositoryId, String key,
+			long newRepositoryId, String newKey)
+		throws IOException {
+
+		ContainerRecord record = getRecord(companyId, repositoryId, key);
+
+		if (record == null) {
+			return false;
+		}
+
+		byte[] bytes = _read(record);
+
+		put(companyId, newRepositoryId, newKey, bytes, bytes.length);
+		delete(companyId, repositoryId, key);
+
+		return true;
+	}
+
+	/**
+	 * Creates a manager with the given settings. The file system defaults to
+	 * the one of {@link HadoopManager} when it is <code>null</code>.
+	 */
+	ContainerManager(
+		FileSystem fileSystem, boolean enabled, int threshold, long maxSize,
+		int maxOpen, long idleTime, long indexTimeToLive,
+		long compactionInterval, double compactionRatio) {
+
+		_fileSystem = fileSystem;
+		_enabled = enabled;
+		_threshold = threshold;
+		_maxSize = maxSize;
+		_maxOpen = maxOpen;
+		_idleTime = idleTime;
+		_indexTimeToLive = indexTimeToLive;
+		_compactionInterval = compactionInterval;
+		_compactionRatio = compactionRatio;
+
+		if (!_enabled) {
+			_scheduledThreadPoolExecutor = null;
+
+			return;
+		}
+
+		_scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(
+			1,
+			new NamedThreadFactory(
+				ContainerManager.class.getName(), Thread.MIN_PRIORITY,
+				ContainerManager.class.getClassLoader()));
+
+		long rollInterval = Math.max(_idleTime / 2, 1000);
+
+		_scheduledThreadPoolExecutor.scheduleWithFixedDelay(
+			new RollRunnable(), rollInterval, rollInterval,
+			TimeUnit.MILLISECONDS);
+
+		if (_compactionInterval > 0) {
+			_scheduledThreadPoolExecutor.scheduleWithFixedDelay(
+				new CompactRunnable(), _compactionInterval,
+				_compactionInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void _close(ContainerWriter containerWriter) {
+		try {
+			containerWriter.close();
+		}
+		catch (IOException ioe) {
+			_log.error(
+				"Unable to close container " +
+					containerWriter.getContainerPath(),
+				ioe);
+		}
+	}
+
+	private void _closeContainerWriter(long companyId, long repositoryId) {
+		ContainerWriter containerWriter = null;
+
+		synchronized (_containerWriters) {
+			containerWriter = _containerWriters.remove(
+				_getRepositoryKey(companyId, repositoryId));
+		}
+
+		if (containerWriter != null) {
+			_close(containerWriter);
+		}
+	}
+
+	private void _compact(
+			FileSystem fileSystem, ContainerIndex containerIndex)
+		throws IOException {
+
+		List<ContainerFile> compactedContainerFiles =
+			new ArrayList<ContainerFile>();
+		List<ContainerFile> deletesContainerFiles =
+			new ArrayList<ContainerFile>();
+		List<ContainerRecord> keptPutRecords = new ArrayList<ContainerRecord>();
+
+		long deadLength = 0;
+		long liveLength = 0;
+
+		for (ContainerFile containerFile :
+				containerIndex.getContainerFiles()) {
+
+			List<ContainerRecord> records = containerFile.getRecords();
+
+			long containerDeadLength = 0;
+			long containerLiveLength = 0;
+
+			for (ContainerRecord record : records) {
+				if (!record.isPut()) {
+					continue;
+				}
+
+				if (containerIndex.getRecord(record.getKey()) == record) {
+					containerLiveLength += _getLength(record);
+				}
+				else {
+					containerDeadLength += _getLength(record);
+				}
+			}
+
+			long containerLength = containerDeadLength + containerLiveLength;
+
+			if (containerFile.isClosed() && (containerLength == 0) &&
+				!records.isEmpty()) {
+
+				deletesContainerFiles.add(containerFile);
+
+				continue;
+			}
+
+			// Containers still being written, containers with too little dead
+			// content and containers that would make the new container larger
+			// than its maximum size are left for a later run
+
+			if (!containerFile.isClosed() || (containerLength == 0) ||
+				(((double)containerDeadLength / containerLength) <
+					_compactionRatio) ||
+				(!compactedContainerFiles.isEmpty() &&
+				 ((liveLength + containerLiveLength) > _maxSize))) {
+
+				for (ContainerRecord record : records) {
+					if (record.isPut()) {
+						keptPutRecords.add(record);
+					}
+				}
+
+				continue;
+			}
+
+			compactedContainerFiles.add(containerFile);
+
+			deadLength += containerDeadLength;
+			liveLength += containerLiveLength;
+		}
+
+		// Containers of deletes only are dropped once none of their deletes
+		// hides an entry of a container that is kept
+
+		for (ContainerFile containerFile : deletesContainerFiles) {
+			boolean shadowing = false;
+
+			for (ContainerRecord record : containerFile.getRecords()) {
+				if (_isShadowing(record, keptPutRecords)) {
+					shadowing = true;
+
+					break;
+				}
+			}
+
+			if (!shadowing) {
+				compactedContainerFiles.add(containerFile);
+			}
+		}
+
+		if (compactedContainerFiles.isEmpty()) {
+			return;
+		}
+
+		ContainerWriter containerWriter = null;
+
+		try {
+			for (ContainerFile containerFile : compactedContainerFiles) {
+				containerWriter = _copyLiveRecords(
+					fileSystem, containerIndex, containerFile, keptPutRecords,
+					containerWriter);
+			}
+		}
+		finally {
+			if (containerWriter != null) {
+				containerWriter.close();
+			}
+		}
+
+		for (ContainerFile containerFile : compactedContainerFiles) {
+			Path containerPath = containerFile.getContainerPath();
+
+			Path indexPath = ContainerWriter.getIndexPath(containerPath);
+
+			fileSystem.delete(indexPath, false);
+			fileSystem.delete(containerPath, false);
+		}
+
+		if (_log.isInfoEnabled()) {
+			StringBundler sb = new StringBundler(7);
+
+			sb.append("Compacted ");
+			sb.append(compactedContainerFiles.size());
+			sb.append(" containers ");
+
+			if (containerWriter != null) {
+				sb.append("into ");
+				sb.append(containerWriter.getContainerPath());
+				sb.append(StringPool.SPACE);
+			}
+
+			sb.append("reclaiming " + deadLength + " bytes");
+
+			_log.info(sb.toString());
+		}
+	}
+
+	/**
+	 * Appends the live entries of a container, and the deletes that still
+	 * hide entries of containers that are kept, to the new container. The
+	 * container is read with a single stream, its records being in the order
+	 * of their offsets. The new container is created on the first record.
+	 */
+	private ContainerWriter _copyLiveRecords(
+			FileSystem fileSystem, ContainerIndex containerIndex,
+			ContainerFile containerFile, List<ContainerRecord> keptPutRecords,
+			ContainerWriter containerWriter)
+		throws IOException {
+
+		FSDataInputStream inputStream = null;
+
+		try {
+			for (ContainerRecord record : containerFile.getRecords()) {
+				byte[] bytes = null;
+
+				if (record.isPut()) {
+					if (containerIndex.getRecord(record.getKey()) != record) {
+						continue;
+					}
+
+					if (inputStream == null) {
+						inputStream = fileSystem.open(
+							containerFile.getContainerPath());
+					}
+
+					bytes = new byte[record.getLength()];
+
+					inputStream.seek(record.getOffset());
+					inputStream.readFully(bytes);
+				}
+				else if (!_isShadowing(record, keptPutRecords)) {
+					continue;
+				}
+
+				if (containerWriter == null) {
+					containerWriter = new ContainerWriter(
+						fileSystem,
+						_createContainerPath(
+							containerIndex.getContainersPath()));
+				}
+
+				int length = 0;
+
+				if (bytes != null) {
+					length = bytes.length;
+				}
+
+				containerWriter.write(
+					record.getType(), record.getKey(), record.getTimestamp(),
+					bytes, length);
+			}
+		}
+		finally {
+			StreamUtil.cleanUp(inputStream);
+		}
+
+		return containerWriter;
+	}
+
+	private Path _createContainerPath(Path containersPath) {
+		String name =
+			System.currentTimeMillis() + StringPool.DASH + UUID.randomUUID() +
+				ContainerWriter.DATA_EXTENSION;
+
+		return new Path(containersPath, name);
+	}
+
+	private ContainerIndex _getContainerIndex(
+			long companyId, long repositoryId, boolean reload)
+		throws IOException {
+
+		String repositoryKey = _getRepositoryKey(companyId, repositoryId);
+
+		ContainerIndex containerIndex = null;
+
+		synchronized (_containerIndexes) {
+			containerIndex = _containerIndexes.get(repositoryKey);
+
+			if (containerIndex == null) {
+				containerIndex = new ContainerIndex(
+					getContainersPath(companyId, repositoryId));
+
+				_containerIndexes.put(repositoryKey, containerIndex);
+			}
+		}
+
+		long loadTime = containerIndex.getLoadTime();
+
+		if (reload ||
+			((System.currentTimeMillis() - loadTime) > _indexTimeToLive)) {
+
+			containerIndex.load(_getFileSystem());
+		}
+
+		return containerIndex;
+	}
+
+	private ContainerWriter _getContainerWriter(
+			long companyId, long repositoryId)
+		throws IOException {
+
+		String repositoryKey = _getRepositoryKey(companyId, repositoryId);
+
+		synchronized (_containerWriters) {
+			ContainerWriter containerWriter = _containerWriters.get(
+				repositoryKey);
+
+			if ((containerWriter != null) && !containerWriter.isClosed()) {
+				return containerWriter;
+			}
+
+			FileSystem fileSystem = _getFileSystem();
+
+			containerWriter = new ContainerWriter(
+				fileSystem,
+				_createContainerPath(
+					getContainersPath(companyId, repositoryId)));
+
+			_containerWriters.put(repositoryKey, containerWriter);
+
+			return containerWriter;
+		}
+	}
+
+	private FileSystem _getFileSystem() throws IOException {
+		if (_fileSystem != null) {
+			return _fileSystem;
+		}
+
+		return HadoopManager.getFileSystem();
+	}
+
+	/**
+	 * Returns the length of the record in its container, header included, so
+	 * that entries of empty versions count as well.
+	 */
+	private int _getLength(ContainerRecord record) {
+		String key = record.getKey();
+
+		return _RECORD_HEADER_LENGTH + key.length() + record.getLength();
+	}
+
+	private String _getRepositoryKey(long companyId, long repositoryId) {
+		return HadoopManager.getFullDirName(companyId, repositoryId, null);
+	}
+
+	private boolean _isShadowing(
+		ContainerRecord deleteRecord, List<ContainerRecord> putRecords) {
+
+		String prefix = deleteRecord.getKey();
+
+		for (ContainerRecord putRecord : putRecords) {
+			if (putRecord.getTimestamp() > deleteRecord.getTimestamp()) {
+				continue;
+			}
+
+			String key = putRecord.getKey();
+
+			if ((prefix.length() == 0) || key.equals(prefix) ||
+				key.startsWith(prefix.concat(StringPool.SLASH))) {
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns a timestamp after the previous one of this JVM and after every
+	 * record of the index, whatever the clocks of the JVMs that wrote them.
+	 */
+	private synchronized long _nextTimestamp(ContainerIndex containerIndex) {
+		_timestamp = Math.max(
+			System.currentTimeMillis() * 1000, _timestamp + 1);
+
+		_timestamp = Math.max(
+			_timestamp, containerIndex.getMaxTimestamp() + 1);
+
+		return _timestamp;
+	}
+
+	private byte[] _read(ContainerRecord record) throws IOException {
+		return _read(record, 0, -1);
+	}
+
+	private byte[] _read(ContainerRecord record, long offset, long length)
+		throws IOException {
+
+		long start = Math.min(offset, record.getLength());
+
+		long end = record.getLength();
+
+		if (length >= 0) {
+			end = Math.min(start + length, end);
+		}
+
+		byte[] bytes = new byte[(int)(end - start)];
+
+		if (bytes.length == 0) {
+			return bytes;
+		}
+
+		FileSystem fileSystem = _getFileSystem();
+
+		FSDataInputStream inputStream = fileSystem.open(
+			record.getContainerPath());
+
+		try {
+			inputStream.readFully(record.getOffset() + start, bytes);
+		}
+		finally {
+			StreamUtil.cleanUp(inputStream);
+		}
+
+		return bytes;
+	}
+
+	private void _releaseStaleLock(FileSystem fileSystem, Path lockPath) {
+		try {
+			FileStatus fileStatus = fileSystem.getFileStatus(lockPath);
+
+			long age =
+				System.currentTimeMillis() - fileStatus.getModificationTime();
+
+			if (age > (_compactionInterval * 2)) {
+				fileSystem.delete(lockPath, false);
+			}
+		}
+		catch (IOException ioe) {
+			if (_log.isDebugEnabled()) {
+				_log.debug(ioe, ioe);
+			}
+		}
+	}
+
+	private void _write(
+			long companyId, long repositoryId, byte type, String key,
+			byte[] bytes, int length)
+		throws IOException {
+
+		ContainerIndex containerIndex = _getContainerIndex(
+			companyId, repositoryId, false);
+
+		ContainerWriter containerWriter = _getContainerWriter(
+			companyId, repositoryId);
+
+		ContainerRecord record = null;
+
+		try {
+			record = containerWriter.write(
+				type, key, _nextTimestamp(containerIndex), bytes, length);
+		}
+		catch (IOException ioe) {
+			if (!containerWriter.isClosed()) {
+				throw ioe;
+			}
+
+			// The container was rolled concurrently or broke, retry once
+			// with a new one
+
+			containerWriter = _getContainerWriter(companyId, repositoryId);
+
+			record = containerWriter.write(
+				type, key, _nextTimestamp(containerIndex), bytes, length);
+		}
+
+		containerIndex.add(record);
+
+		if (containerWriter.getLength() >= _maxSize) {
+			synchronized (_containerWriters) {
+				String repositoryKey = _getRepositoryKey(
+					companyId, repositoryId);
+
+				if (_containerWriters.get(repositoryKey) == containerWriter) {
+					_containerWriters.remove(repositoryKey);
+				}
+			}
+
+			_close(containerWriter);
+		}
+	}
+
+	private static final String _COMPACTION_LOCK_NAME = ".compaction.lock";
+
+	private static final String _CONTAINERS_DIR_NAME = "/containers";
+
+	private static final int _MAX_INDEXES = 1000;
+
+	// The type, the length of the key, the timestamp and the length of the
+	// content
+
+	private static final int _RECORD_HEADER_LENGTH = 15;
+
+	private static Log _log = LogFactoryUtil.getLog(ContainerManager.class);
+
+	private static ContainerManager _instance = new ContainerManager(
+		null, HadoopPropsValues.HADOOP_STORE_CONTAINER_ENABLED,
+		HadoopPropsValues.HADOOP_STORE_CONTAINER_THRESHOLD,
+		HadoopPropsValues.HADOOP_STORE_CONTAINER_MAX_SIZE,
+		HadoopPropsValues.HADOOP_STORE_CONTAINER_MAX_OPEN,
+		HadoopPropsValues.HADOOP_STORE_CONTAINER_IDLE_TIME,
+		HadoopPropsValues.HADOOP_STORE_CONTAINER_INDEX_TIME_TO_LIVE,
+		HadoopPropsValues.HADOOP_STORE_CONTAINER_COMPACTION_INTERVAL,
+		HadoopPropsValues.HADOOP_STORE_CONTAINER_COMPACTION_RATIO);
+
+	private final long _compactionInterval;
+	private final double _compactionRatio;
+
+	private final Map<String, ContainerIndex> _containerIndexes =
+		new LinkedHashMap<String, ContainerIndex>(16, 0.75F, true) {
+
+			@Override
+			protected boolean removeEldestEntry(
+				Map.Entry<String, ContainerIndex> eldestEntry) {
+
+				return size() > _MAX_INDEXES;
+			}
+
+		};
+
+	private final Map<String, ContainerWriter> _containerWriters =
+		new LinkedHashMap<String, ContainerWriter>(16, 0.75F, true) {
+
+			@Override
+			protected boolean removeEldestEntry(
+				Map.Entry<String, ContainerWriter> eldestEntry) {
+
+				if (size() <= _maxOpen) {
+					return false;
+				}
+
+				_close(eldestEntry.getValue());
+
+				return true;
+			}
+
+		};
+
+	private final boolean _enabled;
+	private final FileSystem _fileSystem;
+	private final long _idleTime;
+	private final long _indexTimeToLive;
+	private final int _maxOpen;
+	private final long _maxSize;
+	private final ScheduledThreadPoolExecutor _scheduledThreadPoolExecutor;
+	private final int _threshold;
+	private long _timestamp;
+
+	private class CompactRunnable implements Runnable {
+
+		public void run() {
+			List<String> repositoryKeys = null;
+
+			synchronized (_containerIndexes) {
+				repositoryKeys = new ArrayList<String>(
+					_containerIndexes.keySet());
+			}
+
+			for (String repositoryKey : repositoryKeys) {
+				String[] parts = repositoryKey.substring(1).split(
+					StringPool.SLASH);
+
+				try {
+					compact(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+				}
+				catch (Exception e) {
+					_log.error(
+						"Unable to compact containers of " + repositoryKey, e);
+				}
+			}
+		}
+
+	}
+
+	private class RollRunnable implements Runnable {
+
+		public void run() {
+			List<ContainerWriter> containerWriters =
+				new ArrayList<ContainerWriter>();
+
+			long now = System.currentTimeMillis();
+
+			synchronized (_containerWriters) {
+				for (Map.Entry<String, ContainerWriter> entry :
+						new ArrayList<Map.Entry<String, ContainerWriter>>(
+							_containerWriters.entrySet())) {
+
+					ContainerWriter containerWriter = entry.getValue();
+
+					if ((now - containerWriter.getLastWriteTime()) >
+							_idleTime) {
+
+						_containerWriters.remove(entry.getKey());
+
+						containerWriters.add(containerWriter);
+					}
+				}
+			}
+
+			for (ContainerWriter containerWriter : containerWriters) {
+				_close(containerWriter);
+			}
+		}
+
+	}
+
+}
\ No newline at end of file
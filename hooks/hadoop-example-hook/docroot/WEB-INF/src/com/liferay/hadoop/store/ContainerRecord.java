@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * @author Raymond Augé
+ */
+public class ContainerRecord {
+
+	public static final byte TYPE_DELETE = 2;
+
+	public static final byte TYPE_PUT = 1;
+
+	public ContainerRecord(
+		byte type, String key, long timestamp, Path containerPath,
+		long offset, int length) {
+
+		_type = type;
+		_key = key;
+		_timestamp = timestamp;
+		_containerPath = containerPath;
+		_offset = offset;
+		_length = length;
+	}
+
+	public Path getContainerPath() {
+		return _containerPath;
+	}
+
+	public String getKey() {
+		return _key;
+	}
+
+	public int getLength() {
+		return _length;
+	}
+
+	public long getOffset() {
+		return _offset;
+	}
+
+	public long getTimestamp() {
+		return _timestamp;
+	}
+
+	public byte getType() {
+		return _type;
+	}
+
+	public boolean isDelete() {
+		if (_type == TYPE_DELETE) {
+			return true;
+		}
+
+		return false;
+	}
+
+	public boolean isPut() {
+		if (_type == TYPE_PUT) {
+			return true;
+		}
+
+		return false;
+	}
+
+	private final Path _containerPath;
+	private final String _key;
+	private final int _length;
+	private final long _offset;
+	private final long _timestamp;
+	private final byte _type;
+
+}
\ No newline at end of file
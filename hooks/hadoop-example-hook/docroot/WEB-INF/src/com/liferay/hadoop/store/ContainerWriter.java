@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+import com.liferay.portal.kernel.util.StringPool;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Appends records to a container file. Every record is synced before it is
+ * acknowledged so readers on any node can see it. Closing the writer stores
+ * the offsets of all records in a side index next to the container, which is
+ * renamed into place once it is complete.
+ *
+ * <p>
+ * A container record is the record type, the key, the timestamp, the length
+ * of the content and the content. A side index entry is the same header
+ * followed by the offset of the content instead of the content itself.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class ContainerWriter {
+
+	public static final String DATA_EXTENSION = ".data";
+
+	public static final String INDEX_EXTENSION = ".index";
+
+	public static Path getIndexPath(Path containerPath) {
+		String name = containerPath.getName();
+
+		name = name.substring(0, name.length() - DATA_EXTENSION.length());
+
+		return new Path(containerPath.getParent(), name + INDEX_EXTENSION);
+	}
+
+	public ContainerWriter(FileSystem fileSystem, Path containerPath)
+		throws IOException {
+
+		_fileSystem = fileSystem;
+		_containerPath = containerPath;
+
+		_outputStream = fileSystem.create(containerPath, false);
+
+		_lastWriteTime = System.currentTimeMillis();
+	}
+
+	public synchronized void close() throws IOException {
+		if (_closed) {
+			return;
+		}
+
+		_closed = true;
+
+		_outputStream.close();
+
+		// The index is written under a temporary name and renamed, so a
+		// reader never loads a partially written index
+
+		Path indexPath = getIndexPath(_containerPath);
+
+		Path tempIndexPath = new Path(
+			indexPath.getParent(),
+			StringPool.UNDERLINE + indexPath.getName() + StringPool.PERIOD +
+				System.currentTimeMillis());
+
+		FSDataOutputStream outputStream = null;
+
+		boolean renamed = false;
+
+		try {
+			outputStream = _fileSystem.create(tempIndexPath, true);
+
+			outputStream.writeInt(_records.size());
+
+			for (ContainerRecord record : _records) {
+				outputStream.writeByte(record.getType());
+				outputStream.writeUTF(record.getKey());
+				outputStream.writeLong(record.getTimestamp());
+				outputStream.writeInt(record.getLength());
+				outputStream.writeLong(record.getOffset());
+			}
+
+			outputStream.close();
+
+			renamed = _fileSystem.rename(tempIndexPath, indexPath);
+
+			if (!renamed) {
+				throw new IOException(
+					"Unable to rename index " +
+						tempIndexPath.toUri().toString() + " to " +
+							indexPath.toUri().toString());
+			}
+		}
+		finally {
+			StreamUtil.cleanUp(outputStream);
+
+			// Without its index the container is scanned by readers
+
+			if (!renamed) {
+				_fileSystem.delete(tempIndexPath, false);
+			}
+		}
+	}
+
+	public Path getContainerPath() {
+		return _containerPath;
+	}
+
+	public synchronized long getLastWriteTime() {
+		return _lastWriteTime;
+	}
+
+	public synchronized long getLength() throws IOException {
+		return _outputStream.getPos();
+	}
+
+	public synchronized boolean isClosed() {
+		return _closed;
+	}
+
+	public synchronized ContainerRecord write(
+			byte type, String key, long timestamp, byte[] bytes, int length)
+		throws IOException {
+
+		if (_closed) {
+			throw new IOException(
+				"Container " + _containerPath.toUri().toString() +
+					" is closed");
+		}
+
+		try {
+			_outputStream.writeByte(type);
+			_outputStream.writeUTF(key);
+			_outputStream.writeLong(timestamp);
+			_outputStream.writeInt(length);
+
+			long offset = _outputStream.getPos();
+
+			if (length > 0) {
+				_outputStream.write(bytes, 0, length);
+			}
+
+			_outputStream.sync();
+
+			ContainerRecord record = new ContainerRecord(
+				type, key, timestamp, _containerPath, offset, length);
+
+			_records.add(record);
+
+			_lastWriteTime = System.currentTimeMillis();
+
+			return record;
+		}
+		catch (IOException ioe) {
+
+			// A partially written record ends the container. Readers stop at
+			// the last complete record.
+
+			try {
+				close();
+			}
+			catch (IOException closeIOE) {
+				if (_log.isWarnEnabled()) {
+					_log.warn(
+						"Unable to close container " +
+							_containerPath.toUri().toString(),
+						closeIOE);
+				}
+			}
+
+			throw ioe;
+		}
+	}
+
+	private static Log _log = LogFactoryUtil.getLog(ContainerWriter.class);
+
+	private boolean _closed;
+	private final Path _containerPath;
+	private final FileSystem _fileSystem;
+	private long _lastWriteTime;
+	private final FSDataOutputStream _outputStream;
+	private final List<ContainerRecord> _records =
+		new ArrayList<ContainerRecord>();
+
+}
\ No newline at end of file
@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.NamedThreadFactory;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Deletes directories left empty by store deletes. Candidate directories are
+ * queued, de-duplicated and pruned in batches on a background thread, deepest
+ * first, so a bulk delete does not walk the tree once per file on the request
+ * thread. A delay of 0 or less cleans synchronously.
+ *
+ * @author Raymond Augé
+ */
+public class EmptyAncestorsCleaner {
+
+	public EmptyAncestorsCleaner(
+		FileStatusCache fileStatusCache, long delay, int batchSize) {
+
+		_fileStatusCache = fileStatusCache;
+		_delay = delay;
+
+		if (batchSize > 0) {
+			_batchSize = batchSize;
+		}
+		else {
+			_batchSize = Integer.MAX_VALUE;
+		}
+
+		if (_delay <= 0) {
+			_scheduledThreadPoolExecutor = null;
+
+			return;
+		}
+
+		_scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(
+			1,
+			new NamedThreadFactory(
+				EmptyAncestorsCleaner.class.getName(), Thread.NORM_PRIORITY,
+				EmptyAncestorsCleaner.class.getClassLoader()));
+
+		_scheduledThreadPoolExecutor.setKeepAliveTime(
+			Math.max(_delay * 2, 60000), TimeUnit.MILLISECONDS);
+		_scheduledThreadPoolExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	public void add(Path path) throws IOException {
+		if (_scheduledThreadPoolExecutor == null) {
+			clean(Collections.singleton(path));
+
+			return;
+		}
+
+		synchronized (_paths) {
+			if (!_destroyed) {
+				_paths.add(path);
+
+				if (!_scheduled) {
+					_scheduledThreadPoolExecutor.schedule(
+						new CleanRunnable(), _delay, TimeUnit.MILLISECONDS);
+
+					_scheduled = true;
+				}
+
+				return;
+			}
+		}
+
+		clean(Collections.singleton(path));
+	}
+
+	/**
+	 * Stops the background thread. Directories still queued are left in
+	 * place, and later candidates are cleaned synchronously.
+	 */
+	public void destroy() {
+		if (_scheduledThreadPoolExecutor == null) {
+			return;
+		}
+
+		synchronized (_paths) {
+			_destroyed = true;
+
+			if (!_paths.isEmpty() && _log.isInfoEnabled()) {
+				_log.info(
+					"Not cleaning " + _paths.size() +
+						" queued directories on shutdown");
+			}
+
+			_paths.clear();
+		}
+
+		_scheduledThreadPoolExecutor.shutdownNow();
+	}
+
+	public int getBacklogSize() {
+		synchronized (_paths) {
+			return _paths.size();
+		}
+	}
+
+	public long getDeletedCount() {
+		return _deletedCount.get();
+	}
+
+	protected void clean(Collection<Path> paths) throws IOException {
+		FileSystem fileSystem = HadoopManager.getFileSystem();
+
+		TreeSet<Path> pendingPaths = new TreeSet<Path>(_deepestFirstComparator);
+
+		pendingPaths.addAll(paths);
+
+		while (!pendingPaths.isEmpty()) {
+			Path path = pendingPaths.pollFirst();
+
+			Path parentPath = path.getParent();
+
+			if (parentPath == null) {
+				continue;
+			}
+
+			// A non recursive delete fails on a directory that is not empty,
+			// so no listing is needed and a file added concurrently is never
+			// removed
+
+			try {
+				if (!fileSystem.delete(path, false)) {
+					continue;
+				}
+			}
+			catch (IOException ioe) {
+				if (_log.isDebugEnabled()) {
+					_log.debug(
+						"Stopped deleting empty ancestors at " + path, ioe);
+				}
+
+				continue;
+			}
+			finally {
+				_fileStatusCache.remove(path);
+			}
+
+			_deletedCount.incrementAndGet();
+
+			pendingPaths.add(parentPath);
+		}
+	}
+
+	private static Log _log = LogFactoryUtil.getLog(
+		EmptyAncestorsCleaner.class);
+
+	private static Comparator<Path> _deepestFirstComparator =
+		new Comparator<Path>() {
+
+			public int compare(Path path1, Path path2) {
+				int value = path2.depth() - path1.depth();
+
+				if (value != 0) {
+					return value;
+				}
+
+				return path1.compareTo(path2);
+			}
+
+		};
+
+	private final int _batchSize;
+	private final long _delay;
+	private final AtomicLong _deletedCount = new AtomicLong();
+	private boolean _destroyed;
+	private final FileStatusCache _fileStatusCache;
+	private final Set<Path> _paths = new LinkedHashSet<Path>();
+	private boolean _scheduled;
+	private final ScheduledThreadPoolExecutor _scheduledThreadPoolExecutor;
+
+	private class CleanRunnable implements Runnable {
+
+		public void run() {
+			List<Path> paths = null;
+			boolean scheduled = false;
+
+			synchronized (_paths) {
+				paths = new ArrayList<Path>(
+					Math.min(_paths.size(), _batchSize));
+
+				Iterator<Path> itr = _paths.iterator();
+
+				while (itr.hasNext() && (paths.size() < _batchSize)) {
+					paths.add(itr.next());
+
+					itr.remove();
+				}
+
+				scheduled = !_paths.isEmpty();
+
+				_scheduled = scheduled;
+			}
+
+			try {
+				clean(paths);
+			}
+			catch (Exception e) {
+				_log.error("Unable to delete empty ancestors", e);
+			}
+
+			if (!scheduled) {
+				return;
+			}
+
+			synchronized (_paths) {
+				if (!_destroyed) {
+					_scheduledThreadPoolExecutor.schedule(
+						this, _delay, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.portal.kernel.util.StringPool;
+
+/**
+ * Identifies a version of a file of a repository in a bulk read.
+ *
+ * @author Raymond Augé
+ * @see    HDFSStore#visitFiles(long, java.util.List, boolean, FileVisitor)
+ */
+public class FileKey {
+
+	public FileKey(long repositoryId, String fileName, String versionLabel) {
+		_repositoryId = repositoryId;
+		_fileName = fileName;
+		_versionLabel = versionLabel;
+	}
+
+	public String getFileName() {
+		return _fileName;
+	}
+
+	public long getRepositoryId() {
+		return _repositoryId;
+	}
+
+	public String getVersionLabel() {
+		return _versionLabel;
+	}
+
+	@Override
+	public String toString() {
+		return _repositoryId + StringPool.SLASH + _fileName + StringPool.SLASH +
+			_versionLabel;
+	}
+
+	private final String _fileName;
+	private final long _repositoryId;
+	private final String _versionLabel;
+
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import java.io.IOException;
+
+import java.util.List;
+
+/**
+ * Receives the file names of a repository listing one page at a time. Calls
+ * are serialized, so implementations do not need to be thread safe, but pages
+ * arrive in no particular order.
+ *
+ * @author Raymond Augé
+ */
+public interface FileNamesVisitor {
+
+	public void visit(List<String> fileNames) throws IOException;
+
+}
\ No newline at end of file
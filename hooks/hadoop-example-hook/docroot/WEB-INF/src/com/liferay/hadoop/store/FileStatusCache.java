@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Bounded, read-through cache of {@link FileStatus} lookups. Entries expire
+ * after a time to live and the least recently used entry is evicted once the
+ * cache is full. Missing paths are cached as well so repeated existence checks
+ * on absent files do not reach the NameNode.
+ *
+ * <p>
+ * A status looked up while its path, one of its ancestors or one of its
+ * descendants is invalidated is returned but not cached, since it may predate
+ * the change. Changes to other paths do not affect the lookup.
+ * </p>
+ *
+ * <p>
+ * A length computed from a cached status, such as the uncompressed length of
+ * a compressed version, can be kept with it and is dropped with it.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class FileStatusCache {
+
+	public FileStatusCache(int maxSize, long timeToLive) {
+		_maxSize = maxSize;
+		_timeToLive = timeToLive;
+
+		_entries = new LinkedHashMap<Path, CacheEntry>(16, 0.75F, true) {
+
+			@Override
+			protected boolean removeEldestEntry(
+				Map.Entry<Path, CacheEntry> eldestEntry) {
+
+				if (size() > _maxSize) {
+					_evictionCount.incrementAndGet();
+
+					_paths.remove(_getName(eldestEntry.getKey()));
+
+					return true;
+				}
+
+				return false;
+			}
+
+		};
+	}
+
+	public void clear() {
+		synchronized (_entries) {
+			for (Lookup lookup : _lookups) {
+				lookup._stale = true;
+			}
+
+			_entries.clear();
+			_paths.clear();
+		}
+	}
+
+	public long getEvictionCount() {
+		return _evictionCount.get();
+	}
+
+	/**
+	 * Returns the status of the path, or <code>null</code> if the path does
+	 * not exist.
+	 */
+	public FileStatus getFileStatus(FileSystem fileSystem, Path path)
+		throws IOException {
+
+		if (!isEnabled()) {
+			return _getFileStatus(fileSystem, path);
+		}
+
+		long now = System.currentTimeMillis();
+
+		Lookup lookup = new Lookup(path);
+
+		synchronized (_entries) {
+			CacheEntry entry = _entries.get(path);
+
+			if (entry != null) {
+				if (entry._expirationTime > now) {
+					_hitCount.incrementAndGet();
+
+					return entry._fileStatus;
+				}
+
+				_remove(path);
+			}
+
+			_lookups.add(lookup);
+		}
+
+		_missCount.incrementAndGet();
+
+		FileStatus fileStatus = null;
+		boolean found = false;
+
+		try {
+			fileStatus = _getFileStatus(fileSystem, path);
+
+			found = true;
+		}
+		finally {
+			synchronized (_entries) {
+				_lookups.remove(lookup);
+
+				// Do not cache a status that raced with a write or delete of
+				// a related path
+
+				if (found && !lookup._stale) {
+					_entries.put(
+						path, new CacheEntry(fileStatus, now + _timeToLive));
+					_paths.put(_getName(path), path);
+				}
+			}
+		}
+
+		return fileStatus;
+	}
+
+	public long getHitCount() {
+		return _hitCount.get();
+	}
+
+	/**
+	 * Returns the length kept with the status of the path, or -1 if none was
+	 * set for this status.
+	 */
+	public long getLength(Path path, FileStatus fileStatus) {
+		synchronized (_entries) {
+			CacheEntry entry = _entries.get(path);
+
+			if ((entry == null) || (entry._fileStatus != fileStatus)) {
+				return -1;
+			}
+
+			return entry._length;
+		}
+	}
+
+	public long getMissCount() {
+		return _missCount.get();
+	}
+
+	public int getSize() {
+		synchronized (_entries) {
+			return _entries.size();
+		}
+	}
+
+	public boolean isEnabled() {
+		if ((_maxSize > 0) && (_timeToLive > 0)) {
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Removes the path and its ancestors. Creating or deleting a file may
+	 * create or delete its parent directories, so their cached statuses are
+	 * stale as well.
+	 */
+	public void remove(Path path) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		synchronized (_entries) {
+			Set<Path> paths = new HashSet<Path>();
+
+			while (path != null) {
+				_remove(path);
+
+				paths.add(path);
+
+				path = path.getParent();
+			}
+
+			for (Lookup lookup : _lookups) {
+				if (paths.contains(lookup._path)) {
+					lookup._stale = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the directory, its ancestors, and every cached path below it.
+	 * The paths below it are found in the sorted names of the cached paths
+	 * rather than by scanning every entry.
+	 */
+	public void removeAll(Path path) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		String prefix = _getName(path);
+
+		if (!prefix.endsWith(Path.SEPARATOR)) {
+			prefix = prefix.concat(Path.SEPARATOR);
+		}
+
+		synchronized (_entries) {
+
+			// Names below the directory sort between the prefix and the
+			// prefix with its trailing separator incremented
+
+			String toName =
+				prefix.substring(0, prefix.length() - 1) +
+					(char)(Path.SEPARATOR_CHAR + 1);
+
+			Collection<Path> paths = _paths.subMap(
+				prefix, true, toName, false).values();
+
+			for (Path curPath : paths) {
+				_entries.remove(curPath);
+			}
+
+			paths.clear();
+
+			for (Lookup lookup : _lookups) {
+				if (_getName(lookup._path).startsWith(prefix)) {
+					lookup._stale = true;
+				}
+			}
+
+			remove(path);
+		}
+	}
+
+	/**
+	 * Keeps the length with the status of the path, unless the status is no
+	 * longer the cached one.
+	 */
+	public void setLength(Path path, FileStatus fileStatus, long length) {
+		synchronized (_entries) {
+			CacheEntry entry = _entries.get(path);
+
+			if ((entry != null) && (entry._fileStatus == fileStatus)) {
+				entry._length = length;
+			}
+		}
+	}
+
+	private FileStatus _getFileStatus(FileSystem fileSystem, Path path)
+		throws IOException {
+
+		try {
+			return fileSystem.getFileStatus(path);
+		}
+		catch (FileNotFoundException fnfe) {
+			return null;
+		}
+	}
+
+	private String _getName(Path path) {
+		return path.toString();
+	}
+
+	private void _remove(Path path) {
+		if (_entries.remove(path) != null) {
+			_paths.remove(_getName(path));
+		}
+	}
+
+	private final Map<Path, CacheEntry> _entries;
+	private final AtomicLong _evictionCount = new AtomicLong();
+	private final AtomicLong _hitCount = new AtomicLong();
+	private final Set<Lookup> _lookups = new HashSet<Lookup>();
+	private final int _maxSize;
+	private final AtomicLong _missCount = new AtomicLong();
+	private final NavigableMap<String, Path> _paths =
+		new TreeMap<String, Path>();
+	private final long _timeToLive;
+
+	private static class CacheEntry {
+
+		public CacheEntry(FileStatus fileStatus, long expirationTime) {
+			_fileStatus = fileStatus;
+			_expirationTime = expirationTime;
+		}
+
+		private final long _expirationTime;
+		private final FileStatus _fileStatus;
+		private long _length = -1;
+
+	}
+
+	/**
+	 * A status being looked up in the file system, marked stale when a
+	 * related path is invalidated meanwhile.
+	 */
+	private static class Lookup {
+
+		public Lookup(Path path) {
+			_path = path;
+		}
+
+		private final Path _path;
+		private boolean _stale;
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.portal.kernel.exception.PortalException;
+import com.liferay.portal.kernel.exception.SystemException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the content of each version of a bulk read. Calls are made one at
+ * a time from the thread that started the bulk read. The stream is closed
+ * once the call returns.
+ *
+ * @author Raymond Augé
+ * @see    HDFSStore#visitFiles(long, java.util.List, boolean, FileVisitor)
+ */
+public interface FileVisitor {
+
+	public void visit(FileKey fileKey, InputStream inputStream)
+		throws IOException, PortalException, SystemException;
+
+}
@@ -15,18 +15,57 @@
 package com.liferay.hadoop.store;
 
 import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.HadoopPropsValues;
+import com.liferay.hadoop.util.Histogram;
+import com.liferay.hadoop.util.MetricsRegistry;
+import com.liferay.hadoop.util.StoreEvent;
 import com.liferay.portal.kernel.exception.PortalException;
 import com.liferay.portal.kernel.exception.SystemException;
+import com.liferay.portal.kernel.io.LimitedInputStream;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.CharPool;
+import com.liferay.portal.kernel.util.GetterUtil;
+import com.liferay.portal.kernel.util.NamedThreadFactory;
 import com.liferay.portal.kernel.util.StreamUtil;
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.StringUtil;
+import com.liferay.portal.kernel.util.Validator;
 import com.liferay.portlet.documentlibrary.DuplicateFileException;
 import com.liferay.portlet.documentlibrary.store.BaseStore;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -38,6 +77,61 @@ import org.apache.hadoop.fs.permission.FsPermission;
  */
 public class HDFSStore extends BaseStore {
 
+	/**
+	 * Stops the background threads of every store created since the hook was
+	 * deployed.
+	 */
+	public static void destroyAll() {
+		for (HDFSStore hdfsStore : _hdfsStores) {
+			hdfsStore.destroy();
+		}
+
+		_hdfsStores.clear();
+	}
+
+	public HDFSStore() {
+		this(
+			new CompressedFile(
+				HadoopPropsValues.HADOOP_STORE_COMPRESSION_ENABLED,
+				HadoopPropsValues.HADOOP_STORE_COMPRESSION_CODEC,
+				HadoopPropsValues.HADOOP_STORE_COMPRESSION_SKIP_TYPES,
+				HadoopPropsValues.HADOOP_STORE_FILE_STATUS_CACHE_TIME_TO_LIVE));
+	}
+
+	HDFSStore(CompressedFile compressedFile) {
+		_compressedFile = compressedFile;
+
+		_fileStatusCache = new FileStatusCache(
+			HadoopPropsValues.HADOOP_STORE_FILE_STATUS_CACHE_MAX_SIZE,
+			HadoopPropsValues.HADOOP_STORE_FILE_STATUS_CACHE_TIME_TO_LIVE);
+
+		_emptyAncestorsCleaner = new EmptyAncestorsCleaner(
+			_fileStatusCache,
+			HadoopPropsValues.HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_DELAY,
+			HadoopPropsValues.HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_BATCH_SIZE);
+
+		_localFileCache = new LocalFileCache(
+			new File(HadoopPropsValues.HADOOP_STORE_LOCAL_CACHE_DIR),
+			HadoopPropsValues.HADOOP_STORE_LOCAL_CACHE_MAX_SIZE,
+			HadoopPropsValues.HADOOP_STORE_LOCAL_CACHE_MAX_FILE_SIZE);
+
+		// Bulk operations share a bounded pool instead of starting threads
+		// on each call
+
+		ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+			_THREAD_POOL_MAX_SIZE, _THREAD_POOL_MAX_SIZE, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(),
+			new NamedThreadFactory(
+				HDFSStore.class.getName(), Thread.NORM_PRIORITY,
+				HDFSStore.class.getClassLoader()));
+
+		threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+		_executorService = threadPoolExecutor;
+
+		_hdfsStores.add(this);
+	}
+
 	@Override
 	public void addDirectory(long companyId, long repositoryId, String dirName)
 		throws PortalException, SystemException {
@@ -45,14 +139,21 @@ public class HDFSStore extends BaseStore {
 		Path fullPath = HadoopManager.getFullDirPath(
 			companyId, repositoryId, dirName);
 
+		long startTime = System.nanoTime();
+
 		try {
 			FileSystem fileSystem = HadoopManager.getFileSystem();
 
 			fileSystem.mkdirs(fullPath, FsPermission.getDefault());
+
+			_fileStatusCache.remove(fullPath);
 		}
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.addDirectory", startTime);
+		}
 	}
 
 	@Override
@@ -60,24 +161,7 @@ public class HDFSStore extends BaseStore {
 			long companyId, long repositoryId, String fileName, InputStream is)
 		throws PortalException, SystemException {
 
-		Path fullPath = HadoopManager.getFullVersionFilePath(
-			companyId, repositoryId, fileName, VERSION_DEFAULT);
-
-		FSDataOutputStream outputStream = null;
-
-		try {
-			FileSystem fileSystem = HadoopManager.getFileSystem();
-
-			outputStream = fileSystem.create(fullPath);
-
-			StreamUtil.transfer(is, outputStream, false);
-		}
-		catch (IOException ioe) {
-			throw new SystemException(ioe);
-		}
-		finally {
-			StreamUtil.cleanUp(outputStream);
-		}
+		write(companyId, repositoryId, fileName, VERSION_DEFAULT, is);
 	}
 
 	@Override
@@ -92,11 +176,23 @@ public class HDFSStore extends BaseStore {
 		Path fullPath = HadoopManager.getFullDirPath(
 			companyId, repositoryId, dirName);
 
+		HadoopManager.runJob(new StoreEvent(companyId, repositoryId, fullPath));
+
+		long startTime = System.nanoTime();
+
 		try {
+			if (_containerManager.isEnabled()) {
+				_containerManager.delete(
+					companyId, repositoryId, GetterUtil.getString(dirName));
+			}
+
 			FileSystem fileSystem = HadoopManager.getFileSystem();
 
 			fileSystem.delete(fullPath, true);
 
+			_fileStatusCache.removeAll(fullPath);
+			_localFileCache.removeAll(fullPath);
+
 			Path parentPath = fullPath.getParent();
 
 			deleteEmptyAncestors(parentPath);
@@ -104,6 +200,9 @@ public class HDFSStore extends BaseStore {
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.deleteDirectory", startTime);
+		}
 	}
 
 	@Override
@@ -123,11 +222,30 @@ public class HDFSStore extends BaseStore {
 		Path fullPath = HadoopManager.getFullVersionFilePath(
 			companyId, repositoryId, fileName, versionLabel);
 
+		HadoopManager.runJob(new StoreEvent(companyId, repositoryId, fullPath));
+
+		long startTime = System.nanoTime();
+
 		try {
+			if (_containerManager.isEnabled()) {
+				_containerManager.delete(
+					companyId, repositoryId, _getKey(fileName, versionLabel));
+			}
+
 			FileSystem fileSystem = HadoopManager.getFileSystem();
 
-			if (fileSystem.exists(fullPath)) {
-				fileSystem.delete(fullPath, true);
+			fileSystem.delete(fullPath, true);
+
+			_fileStatusCache.removeAll(fullPath);
+			_localFileCache.removeAll(fullPath);
+
+			if (_compressedFile.hasCompressedFiles(fileSystem)) {
+				Path path = _compressedFile.getPath(fullPath);
+
+				fileSystem.delete(path, false);
+
+				_fileStatusCache.remove(path);
+				_localFileCache.remove(path);
 			}
 
 			Path parentPath = fullPath.getParent();
@@ -137,6 +255,23 @@ public class HDFSStore extends BaseStore {
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.deleteFile", startTime);
+		}
+	}
+
+	public void destroy() {
+		_emptyAncestorsCleaner.destroy();
+
+		_executorService.shutdownNow();
+	}
+
+	public long getBytesWritten() {
+		return _metricsRegistry.getCount("store.write.bytes");
+	}
+
+	public EmptyAncestorsCleaner getEmptyAncestorsCleaner() {
+		return _emptyAncestorsCleaner;
 	}
 
 	@Override
@@ -148,64 +283,131 @@ public class HDFSStore extends BaseStore {
 		Path fullPath = HadoopManager.getFullVersionFilePath(
 			companyId, repositoryId, fileName, versionLabel);
 
+		long startTime = System.nanoTime();
+
 		try {
+			if (_containerManager.isEnabled()) {
+				InputStream inputStream = _containerManager.getInputStream(
+					companyId, repositoryId, _getKey(fileName, versionLabel));
+
+				if (inputStream != null) {
+					return inputStream;
+				}
+			}
+
 			FileSystem fileSystem = HadoopManager.getFileSystem();
 
-			if (!fileSystem.exists(fullPath)) {
-				throw new PortalException(
-					"File " + fullPath.toUri().toString() + " does not exist");
+			if (_localFileCache.isEnabled()) {
+				InputStream inputStream = getCachedInputStream(
+					fileSystem, fullPath, 0, -1);
+
+				if (inputStream != null) {
+					return inputStream;
+				}
 			}
 
-			return fileSystem.open(fullPath);
+			return _getInputStream(fileSystem, fullPath, 0, -1);
+		}
+		catch (FileNotFoundException fnfe) {
+			throw new PortalException(
+				"File " + fullPath.toUri().toString() + " does not exist",
+				fnfe);
 		}
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.getFileAsStream", startTime);
+		}
 	}
 
-	public String[] getFileNames(long companyId, long repositoryId)
-		throws SystemException {
+	/**
+	 * Returns a stream over <code>length</code> bytes of the version starting
+	 * at <code>offset</code>, or over the rest of the version if
+	 * <code>length</code> is negative, so partial content requests are served
+	 * without reading the skipped prefix. The stream seeks once to the offset
+	 * and reads the range sequentially over a single DataNode connection per
+	 * block.
+	 */
+	public InputStream getFileAsStream(
+			long companyId, long repositoryId, String fileName,
+			String versionLabel, long offset, long length)
+		throws PortalException, SystemException {
 
-		return getFileNames(companyId, repositoryId);
-	}
+		if (offset < 0) {
+			throw new IllegalArgumentException(
+				"Offset " + offset + " is negative");
+		}
 
-	@Override
-	public String[] getFileNames(
-			long companyId, long repositoryId, String dirName)
-		throws SystemException {
+		Path fullPath = HadoopManager.getFullVersionFilePath(
+			companyId, repositoryId, fileName, versionLabel);
 
-		Path fullPath = HadoopManager.getFullDirPath(
-			companyId, repositoryId, dirName);
+		long startTime = System.nanoTime();
 
 		try {
-			FileSystem fileSystem = HadoopManager.getFileSystem();
+			if (_containerManager.isEnabled()) {
+				InputStream inputStream = _containerManager.getInputStream(
+					companyId, repositoryId, _getKey(fileName, versionLabel),
+					offset, length);
 
-			FileStatus[] listStatus = fileSystem.listStatus(fullPath);
-
-			if ((listStatus == null) || (listStatus.length < 1)) {
-				return new String[0];
+				if (inputStream != null) {
+					return inputStream;
+				}
 			}
 
-			List<String> fileNameList = new ArrayList<String>(
-				listStatus.length);
-
-			for (FileStatus fileStatus : listStatus) {
-				String fileStatusPathString = fileStatus.getPath().toString();
+			FileSystem fileSystem = HadoopManager.getFileSystem();
 
-				int pos = fileStatusPathString.indexOf(dirName);
+			if (_localFileCache.isEnabled()) {
+				InputStream inputStream = getCachedInputStream(
+					fileSystem, fullPath, offset, length);
 
-				if (pos != -1) {
-					fileStatusPathString = fileStatusPathString.substring(pos);
+				if (inputStream != null) {
+					return inputStream;
 				}
-
-				fileNameList.add(fileStatusPathString);
 			}
 
-			return fileNameList.toArray(new String[fileNameList.size()]);
+			return _getInputStream(fileSystem, fullPath, offset, length);
+		}
+		catch (FileNotFoundException fnfe) {
+			throw new PortalException(
+				"File " + fullPath.toUri().toString() + " does not exist",
+				fnfe);
 		}
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.getFileAsStream", startTime);
+		}
+	}
+
+	@Override
+	public String[] getFileNames(long companyId, long repositoryId)
+		throws SystemException {
+
+		return getFileNames(companyId, repositoryId, null);
+	}
+
+	@Override
+	public String[] getFileNames(
+			long companyId, long repositoryId, String dirName)
+		throws SystemException {
+
+		final List<String> fileNames = new ArrayList<String>();
+
+		visitFileNames(
+			companyId, repositoryId, dirName,
+			new FileNamesVisitor() {
+
+				public void visit(List<String> pageFileNames) {
+					fileNames.addAll(pageFileNames);
+				}
+
+			});
+
+		Collections.sort(fileNames);
+
+		return fileNames.toArray(new String[fileNames.size()]);
 	}
 
 	@Override
@@ -215,21 +417,88 @@ public class HDFSStore extends BaseStore {
 		Path fullPath = HadoopManager.getFullVersionFilePath(
 			companyId, repositoryId, fileName, VERSION_DEFAULT);
 
+		long startTime = System.nanoTime();
+
 		try {
+			if (_containerManager.isEnabled()) {
+				ContainerRecord record = _containerManager.getRecord(
+					companyId, repositoryId,
+					_getKey(fileName, VERSION_DEFAULT));
+
+				if (record != null) {
+					return record.getLength();
+				}
+			}
+
 			FileSystem fileSystem = HadoopManager.getFileSystem();
 
-			if (!fileSystem.exists(fullPath)) {
+			FileStatus fileStatus = _getFileStatus(fileSystem, fullPath);
+
+			if (fileStatus == null) {
 				throw new PortalException(
 					"File " + fullPath.toUri().toString() + " does not exist");
 			}
 
-			FileStatus fileStatus = fileSystem.getFileStatus(fullPath);
+			if (!_compressedFile.isCompressed(fileStatus)) {
+				return fileStatus.getLen();
+			}
+
+			// The uncompressed length is read from the file once and cached
+			// with its status
+
+			Path path = _compressedFile.getPath(fullPath);
+
+			long length = _fileStatusCache.getLength(path, fileStatus);
+
+			if (length < 0) {
+				length = _compressedFile.getLength(
+					fileSystem, path, fileStatus.getLen());
 
-			return fileStatus.getLen();
+				_fileStatusCache.setLength(path, fileStatus, length);
+			}
+
+			return length;
 		}
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.getFileSize", startTime);
+		}
+	}
+
+	public FileStatusCache getFileStatusCache() {
+		return _fileStatusCache;
+	}
+
+	public LocalFileCache getLocalFileCache() {
+		return _localFileCache;
+	}
+
+	public long getWriteCount() {
+		Histogram histogram = _metricsRegistry.getHistogram("store.write");
+		Histogram packedHistogram = _metricsRegistry.getHistogram(
+			"store.writePacked");
+
+		return histogram.getCount() + packedHistogram.getCount();
+	}
+
+	/**
+	 * Returns the average write throughput in bytes per second since the hook
+	 * was deployed.
+	 */
+	public long getWriteThroughput() {
+		Histogram histogram = _metricsRegistry.getHistogram("store.write");
+		Histogram packedHistogram = _metricsRegistry.getHistogram(
+			"store.writePacked");
+
+		long writeTime = histogram.getSum() + packedHistogram.getSum();
+
+		if (writeTime <= 0) {
+			return 0;
+		}
+
+		return (getBytesWritten() * 1000000L) / writeTime;
 	}
 
 	@Override
@@ -240,14 +509,28 @@ public class HDFSStore extends BaseStore {
 		Path fullPath = HadoopManager.getFullDirPath(
 			companyId, repositoryId, dirName);
 
+		long startTime = System.nanoTime();
+
 		try {
+			if (_containerManager.isEnabled() &&
+				_containerManager.hasKeys(companyId, repositoryId, dirName)) {
+
+				return true;
+			}
+
 			FileSystem fileSystem = HadoopManager.getFileSystem();
 
-			return fileSystem.exists(fullPath);
+			FileStatus fileStatus = _fileStatusCache.getFileStatus(
+				fileSystem, fullPath);
+
+			return fileStatus != null;
 		}
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.hasDirectory", startTime);
+		}
 	}
 
 	@Override
@@ -259,48 +542,64 @@ public class HDFSStore extends BaseStore {
 		Path fullPath = HadoopManager.getFullVersionFilePath(
 			companyId, repositoryId, fileName, versionLabel);
 
+		long startTime = System.nanoTime();
+
 		try {
+			if (_containerManager.isEnabled() &&
+				(_containerManager.getRecord(
+					companyId, repositoryId,
+					_getKey(fileName, versionLabel)) != null)) {
+
+				return true;
+			}
+
 			FileSystem fileSystem = HadoopManager.getFileSystem();
 
-			return fileSystem.exists(fullPath);
+			FileStatus fileStatus = _getFileStatus(fileSystem, fullPath);
+
+			return fileStatus != null;
 		}
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.hasFile", startTime);
+		}
 	}
 
 	@Override
 	public void move(String srcDir, String destDir) throws SystemException {
-	}
+		Path sourcePath = new Path(Path.SEPARATOR, srcDir);
+		Path targetPath = new Path(Path.SEPARATOR, destDir);
 
-	@Override
-	public void updateFile(
-			long companyId, long repositoryId, long newRepositoryId,
-			String fileName)
-		throws PortalException, SystemException {
-
-		Path sourcePath = HadoopManager.getFullVersionFilePath(
-			companyId, repositoryId, fileName, VERSION_DEFAULT);
-		Path targetPath = HadoopManager.getFullVersionFilePath(
-			companyId, newRepositoryId, fileName, VERSION_DEFAULT);
+		long startTime = System.nanoTime();
 
 		try {
 			FileSystem fileSystem = HadoopManager.getFileSystem();
 
+			// HDFS moves the source into the target when the target is an
+			// existing directory
+
 			if (fileSystem.exists(targetPath)) {
-				throw new DuplicateFileException(fileName);
+				throw new SystemException(
+					"Directory " + targetPath.toUri().toString() +
+						" already exists");
 			}
 
-			if (!fileSystem.exists(sourcePath)) {
-				throw new PortalException(
-					"File " + sourcePath.toUri().toString() + " does not exist");
-			}
+			fileSystem.mkdirs(
+				targetPath.getParent(), FsPermission.getDefault());
 
 			boolean renamed = fileSystem.rename(sourcePath, targetPath);
 
+			_fileStatusCache.removeAll(sourcePath);
+			_fileStatusCache.removeAll(targetPath);
+
+			_localFileCache.removeAll(sourcePath);
+			_localFileCache.removeAll(targetPath);
+
 			if (!renamed) {
 				throw new SystemException(
-					"File name directory was not renamed from " +
+					"Directory was not renamed from " +
 						sourcePath.toUri().toString() + " to " +
 							targetPath.toUri().toString());
 			}
@@ -308,92 +607,653 @@ public class HDFSStore extends BaseStore {
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.move", startTime);
+		}
 	}
 
-	public void updateFile(
-			long companyId, long repositoryId, String fileName,
-			String newFileName)
+	/**
+	 * Moves every file of a repository to another repository of the same
+	 * company. When the target repository does not exist yet, the whole
+	 * repository directory is renamed in a single call. Otherwise the file
+	 * directories are renamed one by one on a bounded pool of threads. Files
+	 * that already exist in the target repository are left in place and
+	 * reported through a {@link DuplicateFileException} once all other files
+	 * are moved.
+	 */
+	public void moveRepository(
+			long companyId, long repositoryId, long newRepositoryId)
 		throws PortalException, SystemException {
 
-		Path sourcePath = HadoopManager.getFullVersionFilePath(
-			companyId, repositoryId, fileName, VERSION_DEFAULT);
-		Path targetPath = HadoopManager.getFullVersionFilePath(
-			companyId, repositoryId, newFileName, VERSION_DEFAULT);
+		Set<String> duplicateNames = new HashSet<String>();
 
-		try {
-			FileSystem fileSystem = HadoopManager.getFileSystem();
+		long startTime = System.nanoTime();
 
-			if (fileSystem.exists(targetPath)) {
-				throw new DuplicateFileException(fileName);
-			}
+		try {
+			if (_containerManager.isEnabled()) {
+				List<String> duplicateKeys = _containerManager.moveRepository(
+					companyId, repositoryId, newRepositoryId);
 
-			if (!fileSystem.exists(sourcePath)) {
-				throw new PortalException(
-					"File " + sourcePath.toUri().toString() + " does not exist");
+				for (String duplicateKey : duplicateKeys) {
+					duplicateNames.add(_getFileName(duplicateKey));
+				}
 			}
 
-			boolean renamed = fileSystem.rename(sourcePath, targetPath);
-
-			if (!renamed) {
-				throw new SystemException(
-					"File name directory was not renamed from " +
-						sourcePath.toUri().toString() + " to " +
-							targetPath.toUri().toString());
-			}
+			moveRepositoryFiles(
+				companyId, repositoryId, newRepositoryId, duplicateNames);
 		}
 		catch (IOException ioe) {
 			throw new SystemException(ioe);
 		}
+		finally {
+			_metricsRegistry.record("store.moveRepository", startTime);
+		}
+
+		if (!duplicateNames.isEmpty()) {
+			throw new DuplicateFileException(
+				StringUtil.merge(duplicateNames.toArray()));
+		}
 	}
 
 	@Override
 	public void updateFile(
-			long companyId, long repositoryId, String fileName,
-			String versionLabel, InputStream inputStream)
+			long companyId, long repositoryId, long newRepositoryId,
+			String fileName)
 		throws PortalException, SystemException {
 
-		Path fullPath = HadoopManager.getFullVersionFilePath(
-			companyId, repositoryId, fileName, versionLabel);
+		Path sourcePath = HadoopManager.getFullVersionFilePath(
+			companyId, repositoryId, fileName, VERSION_DEFAULT);
+		Path targetPath = HadoopManager.getFullVersionFilePath(
+			companyId, newRepositoryId, fileName, VERSION_DEFAULT);
 
-		FSDataOutputStream outputStream = null;
+		if (renamePacked(
+				companyId, repositoryId, fileName, newRepositoryId, fileName,
+				targetPath)) {
 
-		try {
-			FileSystem fileSystem = HadoopManager.getFileSystem();
+			return;
+		}
 
-			outputStream = fileSystem.create(fullPath);
+		rename(sourcePath, targetPath, fileName);
+	}
 
-			StreamUtil.transfer(inputStream, outputStream, false);
-		}
-		catch (IOException ioe) {
-			throw new SystemException(ioe);
-		}
-		finally {
-			StreamUtil.cleanUp(outputStream);
+	public void updateFile(
+			long companyId, long repositoryId, String fileName,
+			String newFileName)
+		throws PortalException, SystemException {
+
+		Path sourcePath = HadoopManager.getFullVersionFilePath(
+			companyId, repositoryId, fileName, VERSION_DEFAULT);
+		Path targetPath = HadoopManager.getFullVersionFilePath(
+			companyId, repositoryId, newFileName, VERSION_DEFAULT);
+
+		if (renamePacked(
+				companyId, repositoryId, fileName, repositoryId, newFileName,
+				targetPath)) {
+
+			return;
 		}
+
+		rename(sourcePath, targetPath, fileName);
 	}
 
-	protected void deleteEmptyAncestors(Path path) throws SystemException {
-		deleteEmptyAncestors(-1, -1, path);
+	@Override
+	public void updateFile(
+			long companyId, long repositoryId, String fileName,
+			String versionLabel, InputStream inputStream)
+		throws PortalException, SystemException {
+
+		write(companyId, repositoryId, fileName, versionLabel, inputStream);
 	}
 
-	protected void deleteEmptyAncestors(
-		long companyId, long repositoryId, Path path) throws SystemException {
+	/**
+	 * Lists the names of the files below the directory, or of the whole
+	 * repository if the directory name is <code>null</code>, and hands them to
+	 * the visitor in pages. The top level directories are walked in parallel
+	 * and no page is kept once it has been visited, so the full listing is
+	 * never held in memory.
+	 */
+	public void visitFileNames(
+			long companyId, long repositoryId, String dirName,
+			FileNamesVisitor fileNamesVisitor)
+		throws SystemException {
+
+		Path fullPath = HadoopManager.getFullDirPath(
+			companyId, repositoryId, dirName);
+
+		long startTime = System.nanoTime();
 
 		try {
-			FileSystem fileSystem = HadoopManager.getFileSystem();
+			Set<String> packedFileNames = Collections.emptySet();
 
-			FileStatus[] listStatus = fileSystem.listStatus(path);
+			if (_containerManager.isEnabled()) {
+				packedFileNames = new HashSet<String>();
+
+				for (String key : _containerManager.getKeys(
+						companyId, repositoryId, dirName)) {
+
+					packedFileNames.add(_getFileName(key));
+				}
+
+				if (!packedFileNames.isEmpty()) {
+					synchronized (fileNamesVisitor) {
+						fileNamesVisitor.visit(
+							new ArrayList<String>(packedFileNames));
+					}
+				}
+			}
+
+			FileSystem fileSystem = HadoopManager.getFileSystem();
+
+			FileStatus[] fileStatuses = fileSystem.listStatus(fullPath);
+
+			if (fileStatuses == null) {
+				return;
+			}
+
+			List<String> fileNames = new ArrayList<String>();
+			List<Callable<Void>> callables = new ArrayList<Callable<Void>>();
+
+			for (FileStatus fileStatus : fileStatuses) {
+				if (!fileStatus.isDir()) {
+					if (Validator.isNotNull(dirName) && fileNames.isEmpty() &&
+						!packedFileNames.contains(dirName)) {
+
+						fileNames.add(dirName);
+					}
+
+					continue;
+				}
+
+				String name = fileStatus.getPath().getName();
+
+				if (Validator.isNotNull(dirName)) {
+					name = dirName.concat(StringPool.SLASH).concat(name);
+				}
+
+				callables.add(
+					new VisitFileNamesCallable(
+						fileSystem, fileStatus.getPath(), name, packedFileNames,
+						fileNamesVisitor));
+			}
+
+			if (!fileNames.isEmpty()) {
+				synchronized (fileNamesVisitor) {
+					fileNamesVisitor.visit(fileNames);
+				}
+			}
+
+			_invokeAll(callables);
+		}
+		catch (IOException ioe) {
+			throw new SystemException(ioe);
+		}
+		finally {
+			_metricsRegistry.record("store.visitFileNames", startTime);
+		}
+	}
+
+	/**
+	 * Hands the content of every version to the visitor while the following
+	 * versions are read ahead on a bounded pool of threads, so their round
+	 * trips to the NameNode and the DataNodes overlap instead of adding up.
+	 * At most <code>hadoop.store.thread.pool.max.size</code> versions are read
+	 * ahead, counting the one being visited, and each holds at most its share
+	 * of <code>hadoop.store.prefetch.readahead.size</code> bytes in memory.
+	 * The rest of a larger version is streamed while it is visited.
+	 *
+	 * <p>
+	 * If <code>ordered</code> is <code>true</code>, versions are visited in
+	 * the order of the list. Otherwise each is visited as soon as it is read.
+	 * The first failure stops the bulk read.
+	 * </p>
+	 */
+	public void visitFiles(
+			long companyId, List<FileKey> fileKeys, boolean ordered,
+			FileVisitor fileVisitor)
+		throws PortalException, SystemException {
+
+		if (fileKeys.isEmpty()) {
+			return;
+		}
+
+		long startTime = System.nanoTime();
+
+		int windowSize = Math.min(fileKeys.size(), _THREAD_POOL_MAX_SIZE);
+
+		int readaheadSize = (int)Math.min(
+			_PREFETCH_READAHEAD_SIZE / windowSize, Integer.MAX_VALUE - 8);
+
+		// Completed reads are only queued when they are visited as they
+		// complete, so visited versions are not held in memory
+
+		CompletionService<InputStream> completionService = null;
+
+		if (!ordered) {
+			completionService = new ExecutorCompletionService<InputStream>(
+				_executorService);
+		}
+
+		// Futures in the order of the list, with the versions they read
+
+		Map<Future<InputStream>, FileKey> futures =
+			new LinkedHashMap<Future<InputStream>, FileKey>();
+
+		Iterator<FileKey> iterator = fileKeys.iterator();
+
+		try {
+			while (iterator.hasNext() && (futures.size() < windowSize)) {
+				FileKey fileKey = iterator.next();
+
+				futures.put(
+					_submit(
+						completionService, new ReadAheadCallable(
+							companyId, fileKey, readaheadSize)),
+					fileKey);
+			}
+
+			while (!futures.isEmpty()) {
+				Future<InputStream> future = null;
+
+				if (ordered) {
+					Set<Future<InputStream>> keySet = futures.keySet();
+
+					future = keySet.iterator().next();
+				}
+				else {
+					future = completionService.take();
+				}
+
+				FileKey fileKey = futures.remove(future);
+
+				InputStream inputStream = _getReadAheadInputStream(future);
+
+				try {
+					fileVisitor.visit(fileKey, inputStream);
+				}
+				finally {
+					StreamUtil.cleanUp(inputStream);
+				}
+
+				if (iterator.hasNext()) {
+					fileKey = iterator.next();
+
+					futures.put(
+						_submit(
+							completionService, new ReadAheadCallable(
+								companyId, fileKey, readaheadSize)),
+						fileKey);
+				}
+			}
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+
+			throw new SystemException(ie);
+		}
+		catch (IOException ioe) {
+			throw new SystemException(ioe);
+		}
+		finally {
+			_cleanUp(futures.keySet());
+
+			_metricsRegistry.record("store.visitFiles", startTime);
+		}
+	}
+
+	protected void deleteEmptyAncestors(Path path) throws SystemException {
+		deleteEmptyAncestors(-1, -1, path);
+	}
+
+	protected void deleteEmptyAncestors(
+		long companyId, long repositoryId, Path path) throws SystemException {
+
+		try {
+			_emptyAncestorsCleaner.add(path);
+		}
+		catch (IOException ioe) {
+			throw new SystemException(ioe);
+		}
+	}
+
+	/**
+	 * Returns a stream over the local copy of the version, or
+	 * <code>null</code> if it cannot be cached. The stream is a plain file
+	 * stream, so copying it to a file or socket channel can use
+	 * <code>FileChannel.transferTo</code>.
+	 */
+	protected InputStream getCachedInputStream(
+			FileSystem fileSystem, Path fullPath, long offset, long length)
+		throws IOException {
+
+		FileStatus fileStatus = _getFileStatus(fileSystem, fullPath);
+
+		if (fileStatus == null) {
+			throw new FileNotFoundException(fullPath.toUri().toString());
+		}
+
+		// A compressed version is cached compressed, at its own path
+
+		boolean compressed = _compressedFile.isCompressed(fileStatus);
+
+		Path path = fullPath;
+
+		if (compressed) {
+			path = _compressedFile.getPath(fullPath);
+		}
+
+		File file = _localFileCache.getFile(fileSystem, path, fileStatus);
+
+		if (file == null) {
+			return null;
+		}
+
+		FileInputStream fileInputStream = null;
+
+		try {
+			fileInputStream = new FileInputStream(file);
+		}
+		catch (FileNotFoundException fnfe) {
+
+			// Evicted since it was looked up
+
+			return null;
+		}
+
+		if (compressed) {
+			try {
+				return _compressedFile.getInputStream(
+					fileInputStream, offset, length);
+			}
+			catch (IOException ioe) {
+				StreamUtil.cleanUp(fileInputStream);
+
+				throw ioe;
+			}
+		}
+
+		if ((offset == 0) && (length < 0)) {
+			return fileInputStream;
+		}
+
+		long remaining = Math.max(fileStatus.getLen() - offset, 0);
+
+		if ((length < 0) || (length > remaining)) {
+			length = remaining;
+		}
+
+		return new LimitedInputStream(fileInputStream, offset, length);
+	}
+
+	protected void moveRepositoryFiles(
+			long companyId, long repositoryId, long newRepositoryId,
+			Set<String> duplicateNames)
+		throws IOException, SystemException {
+
+		Path sourcePath = HadoopManager.getFullDirPath(
+			companyId, repositoryId, null);
+		Path targetPath = HadoopManager.getFullDirPath(
+			companyId, newRepositoryId, null);
+
+		FileSystem fileSystem = HadoopManager.getFileSystem();
+
+		FileStatus[] targetFileStatuses = fileSystem.listStatus(targetPath);
+
+		if (targetFileStatuses == null) {
+			Path parentPath = targetPath.getParent();
+
+			fileSystem.mkdirs(parentPath, FsPermission.getDefault());
+
+			boolean renamed = fileSystem.rename(sourcePath, targetPath);
+
+			_fileStatusCache.removeAll(sourcePath);
+			_fileStatusCache.removeAll(targetPath);
+
+			_localFileCache.removeAll(sourcePath);
+			_localFileCache.removeAll(targetPath);
+
+			if (renamed || !fileSystem.exists(targetPath)) {
+				return;
+			}
+
+			// The target repository was created concurrently
+
+			targetFileStatuses = fileSystem.listStatus(targetPath);
+		}
+
+		FileStatus[] sourceFileStatuses = fileSystem.listStatus(sourcePath);
+
+		if ((sourceFileStatuses == null) || (sourceFileStatuses.length == 0)) {
+			return;
+		}
+
+		Set<String> targetNames = new HashSet<String>();
+
+		if (targetFileStatuses != null) {
+			for (FileStatus targetFileStatus : targetFileStatuses) {
+				targetNames.add(targetFileStatus.getPath().getName());
+			}
+		}
+
+		List<Callable<Void>> callables = new ArrayList<Callable<Void>>(
+			sourceFileStatuses.length);
+
+		for (FileStatus sourceFileStatus : sourceFileStatuses) {
+			String name = sourceFileStatus.getPath().getName();
+
+			if (targetNames.contains(name)) {
+				duplicateNames.add(name);
+
+				continue;
+			}
+
+			callables.add(
+				new RenameCallable(
+					fileSystem, new Path(sourcePath, name),
+					new Path(targetPath, name)));
+		}
+
+		_invokeAll(callables);
+
+		_fileStatusCache.removeAll(sourcePath);
+		_fileStatusCache.removeAll(targetPath);
+
+		_localFileCache.removeAll(sourcePath);
+		_localFileCache.removeAll(targetPath);
+
+		if (duplicateNames.isEmpty()) {
+			deleteEmptyAncestors(sourcePath);
+		}
+	}
+
+	protected void rename(Path sourcePath, Path targetPath, String fileName)
+		throws PortalException, SystemException {
+
+		long startTime = System.nanoTime();
+
+		try {
+			FileSystem fileSystem = HadoopManager.getFileSystem();
+
+			// A compressed version is renamed to the compressed path of the
+			// target, which must not exist uncompressed either
+
+			if (_compressedFile.hasCompressedFiles(fileSystem)) {
+				if (_getFileStatus(fileSystem, targetPath) != null) {
+					throw new DuplicateFileException(fileName);
+				}
+
+				FileStatus fileStatus = _getFileStatus(fileSystem, sourcePath);
+
+				if ((fileStatus != null) &&
+					_compressedFile.isCompressed(fileStatus)) {
+
+					sourcePath = _compressedFile.getPath(sourcePath);
+					targetPath = _compressedFile.getPath(targetPath);
+				}
+			}
+
+			boolean renamed = fileSystem.rename(sourcePath, targetPath);
+
+			if (!renamed) {
+
+				// The NameNode only reports that the rename failed, so find
+				// out why on this rare path instead of checking beforehand
+
+				if (fileSystem.exists(targetPath)) {
+					throw new DuplicateFileException(fileName);
+				}
+
+				if (!fileSystem.exists(sourcePath)) {
+					throw new PortalException(
+						"File " + sourcePath.toUri().toString() +
+							" does not exist");
+				}
+
+				fileSystem.mkdirs(
+					targetPath.getParent(), FsPermission.getDefault());
+
+				renamed = fileSystem.rename(sourcePath, targetPath);
+			}
+
+			_fileStatusCache.removeAll(sourcePath);
+			_fileStatusCache.remove(targetPath);
+
+			_localFileCache.removeAll(sourcePath);
+			_localFileCache.removeAll(targetPath);
+
+			if (!renamed) {
+				throw new SystemException(
+					"File name directory was not renamed from " +
+						sourcePath.toUri().toString() + " to " +
+							targetPath.toUri().toString());
+			}
+		}
+		catch (IOException ioe) {
+			throw new SystemException(ioe);
+		}
+		finally {
+			_metricsRegistry.record("store.rename", startTime);
+		}
+	}
+
+	/**
+	 * Renames a version packed into a container by copying its bytes to the
+	 * new key. Returns <code>false</code> if the version is a regular file.
+	 */
+	protected boolean renamePacked(
+			long companyId, long repositoryId, String fileName,
+			long newRepositoryId, String newFileName, Path targetPath)
+		throws PortalException, SystemException {
+
+		if (!_containerManager.isEnabled()) {
+			return false;
+		}
+
+		String key = _getKey(fileName, VERSION_DEFAULT);
+		String newKey = _getKey(newFileName, VERSION_DEFAULT);
+
+		long startTime = System.nanoTime();
+
+		try {
+			if (_containerManager.getRecord(
+					companyId, repositoryId, key) == null) {
+
+				return false;
+			}
+
+			FileSystem fileSystem = HadoopManager.getFileSystem();
+
+			if ((_containerManager.getRecord(
+					companyId, newRepositoryId, newKey) != null) ||
+				(_getFileStatus(fileSystem, targetPath) != null)) {
+
+				throw new DuplicateFileException(fileName);
+			}
+
+			return _containerManager.rename(
+				companyId, repositoryId, key, newRepositoryId, newKey);
+		}
+		catch (IOException ioe) {
+			throw new SystemException(ioe);
+		}
+		finally {
+			_metricsRegistry.record("store.renamePacked", startTime);
+		}
+	}
+
+	/**
+	 * Packs versions no larger than the container threshold into a container
+	 * and writes larger ones as regular files. Only the first bytes of the
+	 * stream are buffered to decide.
+	 */
+	protected void write(
+			long companyId, long repositoryId, String fileName,
+			String versionLabel, InputStream inputStream)
+		throws SystemException {
+
+		Path fullPath = HadoopManager.getFullVersionFilePath(
+			companyId, repositoryId, fileName, versionLabel);
+
+		HadoopManager.runJob(new StoreEvent(companyId, repositoryId, fullPath));
+
+		if (!_containerManager.isEnabled()) {
+			write(fullPath, fileName, null, 0, inputStream);
+
+			return;
+		}
+
+		String key = _getKey(fileName, versionLabel);
+
+		try {
+			byte[] bytes = new byte[_containerManager.getThreshold() + 1];
+
+			int length = 0;
+			int read = 0;
+
+			while ((length < bytes.length) &&
+				   ((read = inputStream.read(
+					   bytes, length, bytes.length - length)) != -1)) {
+
+				length += read;
+			}
+
+			if (length == bytes.length) {
+				write(fullPath, fileName, bytes, length, inputStream);
+
+				// Hide an older packed copy of the version, if there is one
+
+				_containerManager.delete(companyId, repositoryId, key);
 
-			if ((listStatus == null) || (listStatus.length > 0)) {
 				return;
 			}
 
-			Path parentPath = path.getParent();
+			long startTime = System.nanoTime();
+
+			_containerManager.put(companyId, repositoryId, key, bytes, length);
+
+			_localFileCache.remove(fullPath);
+
+			_metricsRegistry.increment("store.write.bytes", length);
+			_metricsRegistry.record("store.writePacked", startTime);
+
+			// Remove an older regular copy of the version
 
-			if (fileSystem.delete(path, true) &&
-				fileSystem.exists(parentPath)) {
+			FileSystem fileSystem = HadoopManager.getFileSystem();
+
+			FileStatus fileStatus = _getFileStatus(fileSystem, fullPath);
+
+			if (fileStatus != null) {
+				Path path = fullPath;
+
+				if (_compressedFile.isCompressed(fileStatus)) {
+					path = _compressedFile.getPath(fullPath);
+				}
+
+				fileSystem.delete(path, false);
 
-				deleteEmptyAncestors(companyId, repositoryId, parentPath);
+				_fileStatusCache.removeAll(path);
+				_localFileCache.removeAll(path);
+
+				deleteEmptyAncestors(fullPath.getParent());
 			}
 		}
 		catch (IOException ioe) {
@@ -401,4 +1261,633 @@ public class HDFSStore extends BaseStore {
 		}
 	}
 
+	/**
+	 * Writes a regular file from the bytes already read from the stream, if
+	 * any, followed by the rest of the stream. The file is compressed unless
+	 * compression is disabled or the content type detected from its first
+	 * bytes is already compressed.
+	 */
+	protected void write(
+			Path fullPath, String fileName, byte[] bytes, int length,
+			InputStream inputStream)
+		throws SystemException {
+
+		long startTime = System.nanoTime();
+
+		Path path = fullPath;
+		long size = length;
+		FSDataOutputStream outputStream = null;
+
+		File cacheFile = null;
+		OutputStream cacheOutputStream = null;
+
+		try {
+			if (_compressedFile.isEnabled() && (bytes == null)) {
+				bytes = new byte[_CONTENT_TYPE_DETECTION_SIZE];
+
+				int read = 0;
+
+				while ((length < bytes.length) &&
+					   ((read = inputStream.read(
+						   bytes, length, bytes.length - length)) != -1)) {
+
+					length += read;
+				}
+
+				size = length;
+			}
+
+			boolean compressed = _compressedFile.isCompressible(
+				fileName, bytes, length);
+
+			FileSystem fileSystem = HadoopManager.getFileSystem();
+
+			// A compressed version is stored at its own path, so it is told
+			// apart from an uploaded file without reading it. The copy
+			// stored the other way, if any, is removed once written.
+
+			Path otherPath = null;
+
+			if (compressed) {
+				_compressedFile.markCompressed(fileSystem);
+
+				path = _compressedFile.getPath(fullPath);
+				otherPath = fullPath;
+			}
+			else if (_compressedFile.hasCompressedFiles(fileSystem)) {
+				otherPath = _compressedFile.getPath(fullPath);
+			}
+
+			// Write through to the local cache so the first read after an
+			// upload does not go back to the cluster
+
+			if (_localFileCache.isEnabled()) {
+				_localFileCache.remove(path);
+
+				cacheFile = _localFileCache.createTempFile();
+
+				cacheOutputStream = new FileOutputStream(cacheFile);
+			}
+
+			short replication = _WRITE_REPLICATION;
+
+			if (replication <= 0) {
+				replication = fileSystem.getDefaultReplication();
+			}
+
+			long blockSize = _WRITE_BLOCK_SIZE;
+
+			if (blockSize <= 0) {
+				blockSize = fileSystem.getDefaultBlockSize();
+			}
+
+			outputStream = fileSystem.create(
+				path, true, _WRITE_BUFFER_SIZE, replication, blockSize);
+
+			WriteThroughOutputStream writeThroughOutputStream =
+				new WriteThroughOutputStream(outputStream, cacheOutputStream);
+
+			OutputStream contentOutputStream = writeThroughOutputStream;
+
+			if (compressed) {
+				contentOutputStream = _compressedFile.getOutputStream(
+					writeThroughOutputStream);
+			}
+
+			if (length > 0) {
+				contentOutputStream.write(bytes, 0, length);
+			}
+
+			// The client ships full packets to the DataNodes on its own
+			// streamer thread, so a large buffer lets the next read from the
+			// request overlap with the network write of the previous one
+
+			byte[] buffer = new byte[_WRITE_BUFFER_SIZE];
+
+			int read = 0;
+
+			while ((read = inputStream.read(buffer)) != -1) {
+				contentOutputStream.write(buffer, 0, read);
+
+				size += read;
+			}
+
+			// Closing completes the file on the NameNode and must not fail
+			// silently
+
+			contentOutputStream.close();
+
+			if (compressed) {
+				_metricsRegistry.increment(
+					"store.write.compressed.bytes", size);
+				_metricsRegistry.increment(
+					"store.write.compressed.storedBytes",
+					writeThroughOutputStream.getSize());
+			}
+
+			if (writeThroughOutputStream.getCacheOutputStream() != null) {
+				cacheOutputStream.close();
+
+				_localFileCache.put(
+					path, cacheFile, writeThroughOutputStream.getSize());
+
+				cacheFile = null;
+			}
+
+			if (otherPath != null) {
+				fileSystem.delete(otherPath, false);
+
+				_fileStatusCache.remove(otherPath);
+				_localFileCache.remove(otherPath);
+			}
+		}
+		catch (IOException ioe) {
+			throw new SystemException(ioe);
+		}
+		finally {
+			StreamUtil.cleanUp(outputStream);
+			StreamUtil.cleanUp(cacheOutputStream);
+
+			if (cacheFile != null) {
+				cacheFile.delete();
+			}
+
+			_fileStatusCache.remove(path);
+		}
+
+		long writeTime = System.nanoTime() - startTime;
+
+		_metricsRegistry.increment("store.write.bytes", size);
+		_metricsRegistry.record("store.write", startTime);
+
+		if (_log.isDebugEnabled() && (writeTime > 0)) {
+			_log.debug(
+				"Wrote " + size + " bytes to " + path + " in " +
+					(writeTime / 1000000) + " ms at " +
+						((size * 1000000000L) / writeTime) + " bytes/s");
+		}
+	}
+
+	/**
+	 * Closes the streams read ahead for versions that will not be visited.
+	 * Reads in progress are waited for rather than interrupted, so no stream
+	 * is left open.
+	 */
+	private void _cleanUp(Collection<Future<InputStream>> futures) {
+		for (Future<InputStream> future : futures) {
+			try {
+				StreamUtil.cleanUp(future.get());
+			}
+			catch (ExecutionException ee) {
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+
+				return;
+			}
+		}
+	}
+
+	private String _getFileName(String key) {
+		return key.substring(0, key.lastIndexOf(CharPool.SLASH));
+	}
+
+	/**
+	 * Returns the status of the version, looking up its compressed copy only
+	 * if it is not stored as it is and compressed files may exist.
+	 */
+	private FileStatus _getFileStatus(FileSystem fileSystem, Path fullPath)
+		throws IOException {
+
+		FileStatus fileStatus = _fileStatusCache.getFileStatus(
+			fileSystem, fullPath);
+
+		if ((fileStatus == null) &&
+			_compressedFile.hasCompressedFiles(fileSystem)) {
+
+			fileStatus = _fileStatusCache.getFileStatus(
+				fileSystem, _compressedFile.getPath(fullPath));
+		}
+
+		return fileStatus;
+	}
+
+	/**
+	 * Opens the version as it is stored, or its compressed copy if it is not
+	 * stored as it is and compressed files may exist, so reading an
+	 * uncompressed version costs a single call.
+	 */
+	private InputStream _getInputStream(
+			FileSystem fileSystem, Path fullPath, long offset, long length)
+		throws IOException {
+
+		FSDataInputStream inputStream = null;
+		boolean compressed = false;
+
+		try {
+			inputStream = fileSystem.open(fullPath);
+		}
+		catch (FileNotFoundException fnfe) {
+			if (!_compressedFile.hasCompressedFiles(fileSystem)) {
+				throw fnfe;
+			}
+
+			inputStream = fileSystem.open(_compressedFile.getPath(fullPath));
+
+			compressed = true;
+		}
+
+		try {
+
+			// A compressed version is decompressed from its start
+
+			if (compressed) {
+				return _compressedFile.getInputStream(
+					inputStream, offset, length);
+			}
+
+			if (offset > 0) {
+				inputStream.seek(offset);
+			}
+
+			if (length >= 0) {
+				return new LimitedInputStream(inputStream, 0, length);
+			}
+
+			return inputStream;
+		}
+		catch (IOException ioe) {
+			StreamUtil.cleanUp(inputStream);
+
+			throw ioe;
+		}
+	}
+
+	private String _getKey(String fileName, String versionLabel) {
+		if (Validator.isNull(versionLabel)) {
+			versionLabel = VERSION_DEFAULT;
+		}
+
+		return fileName.concat(StringPool.SLASH).concat(versionLabel);
+	}
+
+	private InputStream _getReadAheadInputStream(Future<InputStream> future)
+		throws InterruptedException, PortalException, SystemException {
+
+		try {
+			return future.get();
+		}
+		catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+
+			if (cause instanceof PortalException) {
+				throw (PortalException)cause;
+			}
+			else if (cause instanceof SystemException) {
+				throw (SystemException)cause;
+			}
+
+			throw new SystemException(cause);
+		}
+	}
+
+	private void _invokeAll(List<Callable<Void>> callables)
+		throws IOException, SystemException {
+
+		if (callables.isEmpty()) {
+			return;
+		}
+
+		try {
+			List<Future<Void>> futures = _executorService.invokeAll(callables);
+
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+
+			throw new SystemException(cause);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+
+			throw new SystemException(ie);
+		}
+	}
+
+	/**
+	 * Reads the stream into memory if it ends within the maximum length, and
+	 * otherwise returns a stream over the bytes read followed by the rest of
+	 * the stream.
+	 */
+	private InputStream _readAhead(InputStream inputStream, int maxLength)
+		throws IOException {
+
+		byte[] bytes = new byte[Math.min(maxLength, 8192)];
+
+		int length = 0;
+
+		while (true) {
+			if (length == bytes.length) {
+				if (length >= maxLength) {
+					return new SequenceInputStream(
+						new ByteArrayInputStream(bytes, 0, length),
+						inputStream);
+				}
+
+				bytes = Arrays.copyOf(
+					bytes, (int)Math.min(length * 2L, maxLength));
+			}
+
+			int read = inputStream.read(bytes, length, bytes.length - length);
+
+			if (read == -1) {
+				inputStream.close();
+
+				return new ByteArrayInputStream(bytes, 0, length);
+			}
+
+			length += read;
+		}
+	}
+
+	private Future<InputStream> _submit(
+		CompletionService<InputStream> completionService,
+		Callable<InputStream> callable) {
+
+		if (completionService != null) {
+			return completionService.submit(callable);
+		}
+
+		return _executorService.submit(callable);
+	}
+
+	private OutputStream _writeCache(
+		OutputStream cacheOutputStream, byte[] bytes, int offset, int length,
+		long size) {
+
+		if (cacheOutputStream == null) {
+			return null;
+		}
+
+		if (size > _localFileCache.getMaxFileSize()) {
+			StreamUtil.cleanUp(cacheOutputStream);
+
+			return null;
+		}
+
+		try {
+			cacheOutputStream.write(bytes, offset, length);
+
+			return cacheOutputStream;
+		}
+		catch (IOException ioe) {
+
+			// A full or broken local disk must not fail the upload
+
+			if (_log.isWarnEnabled()) {
+				_log.warn("Unable to write to the local cache", ioe);
+			}
+
+			StreamUtil.cleanUp(cacheOutputStream);
+
+			return null;
+		}
+	}
+
+	private static final int _CONTENT_TYPE_DETECTION_SIZE = 8192;
+
+	private static final int _PAGE_SIZE =
+		HadoopPropsValues.HADOOP_STORE_FILE_NAMES_PAGE_SIZE;
+
+	private static final long _PREFETCH_READAHEAD_SIZE = Math.max(
+		HadoopPropsValues.HADOOP_STORE_PREFETCH_READAHEAD_SIZE, 0);
+
+	private static final int _THREAD_POOL_MAX_SIZE = Math.max(
+		HadoopPropsValues.HADOOP_STORE_THREAD_POOL_MAX_SIZE, 1);
+
+	private static final long _WRITE_BLOCK_SIZE =
+		HadoopPropsValues.HADOOP_STORE_WRITE_BLOCK_SIZE;
+
+	private static final int _WRITE_BUFFER_SIZE = Math.max(
+		HadoopPropsValues.HADOOP_STORE_WRITE_BUFFER_SIZE, 4096);
+
+	private static final short _WRITE_REPLICATION =
+		HadoopPropsValues.HADOOP_STORE_WRITE_REPLICATION;
+
+	private static Log _log = LogFactoryUtil.getLog(HDFSStore.class);
+
+	private static List<HDFSStore> _hdfsStores =
+		new CopyOnWriteArrayList<HDFSStore>();
+
+	private final ContainerManager _containerManager =
+		ContainerManager.getInstance();
+	private CompressedFile _compressedFile;
+	private EmptyAncestorsCleaner _emptyAncestorsCleaner;
+	private final ExecutorService _executorService;
+	private FileStatusCache _fileStatusCache;
+	private LocalFileCache _localFileCache;
+	private final MetricsRegistry _metricsRegistry =
+		MetricsRegistry.getInstance();
+
+	private class ReadAheadCallable implements Callable<InputStream> {
+
+		public ReadAheadCallable(
+			long companyId, FileKey fileKey, int readaheadSize) {
+
+			_companyId = companyId;
+			_fileKey = fileKey;
+			_readaheadSize = readaheadSize;
+		}
+
+		public InputStream call() throws Exception {
+			InputStream inputStream = getFileAsStream(
+				_companyId, _fileKey.getRepositoryId(), _fileKey.getFileName(),
+				_fileKey.getVersionLabel());
+
+			try {
+				return _readAhead(inputStream, _readaheadSize);
+			}
+			catch (IOException ioe) {
+				StreamUtil.cleanUp(inputStream);
+
+				throw ioe;
+			}
+		}
+
+		private final long _companyId;
+		private final FileKey _fileKey;
+		private final int _readaheadSize;
+
+	}
+
+	private class RenameCallable implements Callable<Void> {
+
+		public RenameCallable(
+			FileSystem fileSystem, Path sourcePath, Path targetPath) {
+
+			_fileSystem = fileSystem;
+			_sourcePath = sourcePath;
+			_targetPath = targetPath;
+		}
+
+		public Void call() throws IOException {
+			if (!_fileSystem.rename(_sourcePath, _targetPath)) {
+				throw new IOException(
+					"Unable to rename " + _sourcePath.toUri().toString() +
+						" to " + _targetPath.toUri().toString());
+			}
+
+			return null;
+		}
+
+		private final FileSystem _fileSystem;
+		private final Path _sourcePath;
+		private final Path _targetPath;
+
+	}
+
+	private class VisitFileNamesCallable implements Callable<Void> {
+
+		public VisitFileNamesCallable(
+			FileSystem fileSystem, Path path, String name,
+			Set<String> packedFileNames, FileNamesVisitor fileNamesVisitor) {
+
+			_fileSystem = fileSystem;
+			_path = path;
+			_name = name;
+			_packedFileNames = packedFileNames;
+			_fileNamesVisitor = fileNamesVisitor;
+		}
+
+		public Void call() throws IOException {
+			visit(_path, _name);
+
+			flush();
+
+			return null;
+		}
+
+		protected void flush() throws IOException {
+			if (_fileNames.isEmpty()) {
+				return;
+			}
+
+			synchronized (_fileNamesVisitor) {
+				_fileNamesVisitor.visit(_fileNames);
+			}
+
+			_fileNames = new ArrayList<String>();
+		}
+
+		protected void visit(Path path, String name) throws IOException {
+			FileStatus[] fileStatuses = _fileSystem.listStatus(path);
+
+			if (fileStatuses == null) {
+				return;
+			}
+
+			boolean fileName = false;
+
+			for (FileStatus fileStatus : fileStatuses) {
+				if (!fileStatus.isDir()) {
+
+					// A directory holding versions is a file name, unless it
+					// was already reported as packed
+
+					if (!fileName && !_packedFileNames.contains(name)) {
+						_fileNames.add(name);
+
+						if (_fileNames.size() >= _PAGE_SIZE) {
+							flush();
+						}
+
+						fileName = true;
+					}
+
+					continue;
+				}
+
+				Path childPath = fileStatus.getPath();
+
+				visit(
+					childPath,
+					name.concat(StringPool.SLASH).concat(childPath.getName()));
+			}
+		}
+
+		private List<String> _fileNames = new ArrayList<String>();
+		private final FileNamesVisitor _fileNamesVisitor;
+		private final FileSystem _fileSystem;
+		private final String _name;
+		private final Set<String> _packedFileNames;
+		private final Path _path;
+
+	}
+
+	/**
+	 * Writes the bytes stored in the file to HDFS and to the local cache, so
+	 * a compressed version is cached compressed as it is read from HDFS.
+	 * Closing it closes the HDFS stream only.
+	 */
+	private class WriteThroughOutputStream extends OutputStream {
+
+		public WriteThroughOutputStream(
+			FSDataOutputStream outputStream, OutputStream cacheOutputStream) {
+
+			_outputStream = outputStream;
+			_cacheOutputStream = cacheOutputStream;
+		}
+
+		@Override
+		public void close() throws IOException {
+			_outputStream.close();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			_outputStream.flush();
+		}
+
+		/**
+		 * Returns the stream to the local cache, or <code>null</code> if the
+		 * file is not cached because it is too large or the local disk failed.
+		 */
+		public OutputStream getCacheOutputStream() {
+			return _cacheOutputStream;
+		}
+
+		public long getSize() {
+			return _size;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length)
+			throws IOException {
+
+			_outputStream.write(bytes, offset, length);
+
+			_size += length;
+
+			_cacheOutputStream = _writeCache(
+				_cacheOutputStream, bytes, offset, length, _size);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		private OutputStream _cacheOutputStream;
+		private final FSDataOutputStream _outputStream;
+		private long _size;
+
+	}
+
 }
\ No newline at end of file
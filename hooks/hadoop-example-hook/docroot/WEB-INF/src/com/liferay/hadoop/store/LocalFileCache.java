@@ -0,0 +1,522 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Read-through cache of HDFS files on the local disk. The least recently used
+ * files are evicted once the cache grows past its maximum size. A cached file
+ * is only served while its length and modification time match the status
+ * reported for the HDFS file, so versions rewritten through another portal
+ * node are fetched again. Concurrent misses on a version wait for a single
+ * download, which is discarded if its file is written or deleted meanwhile.
+ *
+ * @author Raymond Augé
+ */
+public class LocalFileCache {
+
+	public LocalFileCache(File cacheDir, long maxSize, long maxFileSize) {
+		_cacheDir = cacheDir;
+		_maxSize = maxSize;
+		_maxFileSize = maxFileSize;
+
+		if (!isEnabled()) {
+			return;
+		}
+
+		// Nothing tells which files changed while the portal was down. Only
+		// the files named by the cache are deleted, in case the directory is
+		// shared.
+
+		File[] files = _cacheDir.listFiles();
+
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+
+				if (file.isFile() && name.startsWith(_FILE_PREFIX) &&
+					(name.endsWith(_FILE_EXTENSION) ||
+					 name.endsWith(_TEMP_FILE_EXTENSION))) {
+
+					file.delete();
+				}
+			}
+		}
+
+		_cacheDir.mkdirs();
+	}
+
+	public void clear() {
+		synchronized (_entries) {
+			for (FetchFutureTask fetchFutureTask :
+					_fetchFutureTasks.values()) {
+
+				fetchFutureTask.invalidate();
+			}
+
+			for (CacheEntry entry : _entries.values()) {
+				entry._file.delete();
+			}
+
+			_entries.clear();
+			_paths.clear();
+
+			_size = 0;
+		}
+	}
+
+	public File createTempFile() throws IOException {
+		return File.createTempFile(
+			_FILE_PREFIX, _TEMP_FILE_EXTENSION, _cacheDir);
+	}
+
+	public long getEvictionCount() {
+		return _evictionCount.get();
+	}
+
+	/**
+	 * Returns the local copy of the HDFS file, fetching it first if it is not
+	 * cached yet. Returns <code>null</code> if the file is too large to be
+	 * cached or changed while it was fetched.
+	 */
+	public File getFile(
+			FileSystem fileSystem, Path path, FileStatus fileStatus)
+		throws IOException {
+
+		if (!isCacheable(fileStatus.getLen())) {
+			return null;
+		}
+
+		FetchFutureTask fetchFutureTask = null;
+		boolean fetching = false;
+
+		synchronized (_entries) {
+			CacheEntry entry = _entries.get(path);
+
+			if (entry != null) {
+				if (entry.matches(fileStatus)) {
+					_hitCount.incrementAndGet();
+
+					return entry._file;
+				}
+
+				_remove(path);
+			}
+
+			_missCount.incrementAndGet();
+
+			// Concurrent misses on the same version share one download
+
+			fetchFutureTask = _fetchFutureTasks.get(path);
+
+			if ((fetchFutureTask == null) ||
+				!fetchFutureTask.matches(fileStatus)) {
+
+				// A download of an older version is not added when done
+
+				if (fetchFutureTask != null) {
+					fetchFutureTask.invalidate();
+				}
+
+				fetchFutureTask = new FetchFutureTask(
+					new FetchCallable(fileSystem, path, fileStatus),
+					fileStatus);
+
+				_fetchFutureTasks.put(path, fetchFutureTask);
+
+				fetching = true;
+			}
+		}
+
+		if (fetching) {
+			try {
+				fetchFutureTask.run();
+			}
+			finally {
+				synchronized (_entries) {
+					if (_fetchFutureTasks.get(path) == fetchFutureTask) {
+						_fetchFutureTasks.remove(path);
+					}
+				}
+			}
+		}
+
+		try {
+			return fetchFutureTask.get();
+		}
+		catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+
+			throw new IOException(cause);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException();
+		}
+	}
+
+	public long getHitCount() {
+		return _hitCount.get();
+	}
+
+	public long getMaxFileSize() {
+		return _maxFileSize;
+	}
+
+	public long getMissCount() {
+		return _missCount.get();
+	}
+
+	public long getSize() {
+		synchronized (_entries) {
+			return _size;
+		}
+	}
+
+	public boolean isCacheable(long length) {
+		if (isEnabled() && (length <= _maxFileSize)) {
+			return true;
+		}
+
+		return false;
+	}
+
+	public boolean isEnabled() {
+		if ((_maxSize > 0) && (_maxFileSize > 0)) {
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds a local copy written alongside the HDFS file. The modification
+	 * time of the HDFS file is taken from the first status it is served
+	 * against.
+	 */
+	public void put(Path path, File tempFile, long length) {
+		synchronized (_entries) {
+			_invalidate(path);
+			_remove(path);
+
+			_put(path, tempFile, length, -1);
+		}
+	}
+
+	public void remove(Path path) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		synchronized (_entries) {
+			_invalidate(path);
+			_remove(path);
+		}
+	}
+
+	/**
+	 * Removes the file and every cached file below it, found as a range of
+	 * the sorted names of the cached files.
+	 */
+	public void removeAll(Path path) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		String prefix = path.toString();
+
+		if (!prefix.endsWith(Path.SEPARATOR)) {
+			prefix = prefix.concat(Path.SEPARATOR);
+		}
+
+		synchronized (_entries) {
+			for (Map.Entry<Path, FetchFutureTask> mapEntry :
+					_fetchFutureTasks.entrySet()) {
+
+				Path curPath = mapEntry.getKey();
+
+				if (curPath.toString().startsWith(prefix)) {
+					FetchFutureTask fetchFutureTask = mapEntry.getValue();
+
+					fetchFutureTask.invalidate();
+				}
+			}
+
+			String toName =
+				prefix.substring(0, prefix.length() - 1) +
+					(char)(Path.SEPARATOR_CHAR + 1);
+
+			Collection<Path> paths = _paths.subMap(
+				prefix, true, toName, false).values();
+
+			for (Path curPath : paths) {
+				_delete(_entries.remove(curPath));
+			}
+
+			paths.clear();
+
+			_invalidate(path);
+			_remove(path);
+		}
+	}
+
+	private void _delete(CacheEntry entry) {
+		_size -= entry._length;
+
+		// Readers that already opened the file keep reading it
+
+		if (!entry._file.delete() && _log.isWarnEnabled()) {
+			_log.warn("Unable to delete " + entry._file);
+		}
+	}
+
+	private void _invalidate(Path path) {
+		FetchFutureTask fetchFutureTask = _fetchFutureTasks.get(path);
+
+		if (fetchFutureTask != null) {
+			fetchFutureTask.invalidate();
+		}
+	}
+
+	private File _put(
+		Path path, File tempFile, long length, long modificationTime) {
+
+		File file = new File(
+			_cacheDir,
+			_FILE_PREFIX + _fileCount.incrementAndGet() + _FILE_EXTENSION);
+
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+
+			return null;
+		}
+
+		_entries.put(path, new CacheEntry(file, length, modificationTime));
+		_paths.put(path.toString(), path);
+
+		_size += length;
+
+		Iterator<Map.Entry<Path, CacheEntry>> itr =
+			_entries.entrySet().iterator();
+
+		while ((_size > _maxSize) && itr.hasNext()) {
+			Map.Entry<Path, CacheEntry> mapEntry = itr.next();
+
+			CacheEntry entry = mapEntry.getValue();
+
+			if (entry._file == file) {
+				break;
+			}
+
+			itr.remove();
+
+			_paths.remove(mapEntry.getKey().toString());
+
+			_delete(entry);
+
+			_evictionCount.incrementAndGet();
+		}
+
+		return file;
+	}
+
+	private void _remove(Path path) {
+		CacheEntry entry = _entries.remove(path);
+
+		if (entry != null) {
+			_paths.remove(path.toString());
+
+			_delete(entry);
+		}
+	}
+
+	private static final String _FILE_EXTENSION = ".cache";
+
+	private static final String _FILE_PREFIX = "hdfs-";
+
+	private static final String _TEMP_FILE_EXTENSION = ".tmp";
+
+	private static Log _log = LogFactoryUtil.getLog(LocalFileCache.class);
+
+	private final File _cacheDir;
+	private final Map<Path, CacheEntry> _entries =
+		new LinkedHashMap<Path, CacheEntry>(16, 0.75F, true);
+	private final AtomicLong _evictionCount = new AtomicLong();
+	private final Map<Path, FetchFutureTask> _fetchFutureTasks =
+		new HashMap<Path, FetchFutureTask>();
+	private final AtomicLong _fileCount = new AtomicLong();
+	private final AtomicLong _hitCount = new AtomicLong();
+	private final long _maxFileSize;
+	private final long _maxSize;
+	private final AtomicLong _missCount = new AtomicLong();
+	private final NavigableMap<String, Path> _paths =
+		new TreeMap<String, Path>();
+	private long _size;
+
+	private static class CacheEntry {
+
+		public CacheEntry(File file, long length, long modificationTime) {
+			_file = file;
+			_length = length;
+			_modificationTime = modificationTime;
+		}
+
+		public boolean matches(FileStatus fileStatus) {
+			if (fileStatus.getLen() != _length) {
+				return false;
+			}
+
+			if (_modificationTime < 0) {
+				_modificationTime = fileStatus.getModificationTime();
+
+				return true;
+			}
+
+			if (fileStatus.getModificationTime() == _modificationTime) {
+				return true;
+			}
+
+			return false;
+		}
+
+		private final File _file;
+		private final long _length;
+		private long _modificationTime;
+
+	}
+
+	/**
+	 * Downloads a version to a temporary file and adds it to the cache,
+	 * unless the version was written or deleted through this cache since the
+	 * download was requested.
+	 */
+	private class FetchCallable implements Callable<File> {
+
+		public FetchCallable(
+			FileSystem fileSystem, Path path, FileStatus fileStatus) {
+
+			_fileSystem = fileSystem;
+			_path = path;
+			_fileStatus = fileStatus;
+		}
+
+		public File call() throws IOException {
+			File tempFile = createTempFile();
+
+			InputStream inputStream = null;
+			OutputStream outputStream = null;
+
+			try {
+				inputStream = _fileSystem.open(_path);
+				outputStream = new FileOutputStream(tempFile);
+
+				StreamUtil.transfer(inputStream, outputStream, false);
+
+				outputStream.close();
+			}
+			catch (IOException ioe) {
+				tempFile.delete();
+
+				throw ioe;
+			}
+			finally {
+				StreamUtil.cleanUp(inputStream);
+				StreamUtil.cleanUp(outputStream);
+			}
+
+			synchronized (_entries) {
+				if (_stale) {
+					tempFile.delete();
+
+					return null;
+				}
+
+				return _put(
+					_path, tempFile, _fileStatus.getLen(),
+					_fileStatus.getModificationTime());
+			}
+		}
+
+		private final FileStatus _fileStatus;
+		private final FileSystem _fileSystem;
+		private final Path _path;
+		private boolean _stale;
+
+	}
+
+	private class FetchFutureTask extends FutureTask<File> {
+
+		public FetchFutureTask(
+			FetchCallable fetchCallable, FileStatus fileStatus) {
+
+			super(fetchCallable);
+
+			_fetchCallable = fetchCallable;
+			_length = fileStatus.getLen();
+			_modificationTime = fileStatus.getModificationTime();
+		}
+
+		public void invalidate() {
+			_fetchCallable._stale = true;
+		}
+
+		public boolean matches(FileStatus fileStatus) {
+			if ((fileStatus.getLen() == _length) &&
+				(fileStatus.getModificationTime() == _modificationTime)) {
+
+				return true;
+			}
+
+			return false;
+		}
+
+		private final FetchCallable _fetchCallable;
+		private final long _length;
+		private final long _modificationTime;
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Wraps a file system to count the calls made through it. Only the duration
+ * of each call is tracked, so reading or writing an opened stream does not
+ * count as an in-flight call.
+ *
+ * @author Raymond Augé
+ */
+public class CallCountingFileSystem extends FilterFileSystem {
+
+	public CallCountingFileSystem(String name, FileSystem fileSystem) {
+		super(fileSystem);
+
+		_name = name;
+	}
+
+	@Override
+	public FSDataOutputStream append(
+			Path path, int bufferSize, Progressable progressable)
+		throws IOException {
+
+		_beginCall();
+
+		try {
+			return super.append(path, bufferSize, progressable);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	@Override
+	public FSDataOutputStream create(
+			Path path, FsPermission fsPermission, boolean overwrite,
+			int bufferSize, short replication, long blockSize,
+			Progressable progressable)
+		throws IOException {
+
+		_beginCall();
+
+		try {
+			return super.create(
+				path, fsPermission, overwrite, bufferSize, replication,
+				blockSize, progressable);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	@Override
+	public boolean delete(Path path, boolean recursive) throws IOException {
+		_beginCall();
+
+		try {
+			return super.delete(path, recursive);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	public long getCallsCount() {
+		return _callsCount.get();
+	}
+
+	@Override
+	public BlockLocation[] getFileBlockLocations(
+			FileStatus fileStatus, long start, long length)
+		throws IOException {
+
+		_beginCall();
+
+		try {
+			return super.getFileBlockLocations(fileStatus, start, length);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	@Override
+	public FileStatus getFileStatus(Path path) throws IOException {
+		_beginCall();
+
+		try {
+			return super.getFileStatus(path);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	public String getFileSystemName() {
+		return _name;
+	}
+
+	public int getInFlightCallsCount() {
+		return _inFlightCallsCount.get();
+	}
+
+	public int getMaxInFlightCallsCount() {
+		return _maxInFlightCallsCount.get();
+	}
+
+	@Override
+	public FileStatus[] listStatus(Path path) throws IOException {
+		_beginCall();
+
+		try {
+			return super.listStatus(path);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	@Override
+	public boolean mkdirs(Path path, FsPermission fsPermission)
+		throws IOException {
+
+		_beginCall();
+
+		try {
+			return super.mkdirs(path, fsPermission);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	@Override
+	public FSDataInputStream open(Path path, int bufferSize)
+		throws IOException {
+
+		_beginCall();
+
+		try {
+			return super.open(path, bufferSize);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	@Override
+	public boolean rename(Path sourcePath, Path targetPath)
+		throws IOException {
+
+		_beginCall();
+
+		try {
+			return super.rename(sourcePath, targetPath);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	@Override
+	public boolean setReplication(Path path, short replication)
+		throws IOException {
+
+		_beginCall();
+
+		try {
+			return super.setReplication(path, replication);
+		}
+		finally {
+			_endCall();
+		}
+	}
+
+	private void _beginCall() {
+		_callsCount.incrementAndGet();
+
+		int inFlightCallsCount = _inFlightCallsCount.incrementAndGet();
+
+		while (true) {
+			int maxInFlightCallsCount = _maxInFlightCallsCount.get();
+
+			if ((inFlightCallsCount <= maxInFlightCallsCount) ||
+				_maxInFlightCallsCount.compareAndSet(
+					maxInFlightCallsCount, inFlightCallsCount)) {
+
+				return;
+			}
+		}
+	}
+
+	private void _endCall() {
+		_inFlightCallsCount.decrementAndGet();
+	}
+
+	private final AtomicLong _callsCount = new AtomicLong();
+	private final AtomicInteger _inFlightCallsCount = new AtomicInteger();
+	private final AtomicInteger _maxInFlightCallsCount = new AtomicInteger();
+	private final String _name;
+
+}
\ No newline at end of file
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens after a number of consecutive failures so further calls fail right
+ * away. Once the open time has passed, a single trial call is let through.
+ * The breaker closes if it succeeds and opens again if it fails.
+ *
+ * @author Raymond Augé
+ */
+public class CircuitBreaker {
+
+	public CircuitBreaker(int threshold, long openTime) {
+		_threshold = Math.max(threshold, 1);
+		_openTime = openTime;
+	}
+
+	/**
+	 * Returns <code>true</code> if the call may be made. The caller must
+	 * report its outcome with {@link #onFailure()} or {@link #onSuccess()},
+	 * or with {@link #onSkipped()} if it was not made after all.
+	 */
+	public boolean allowCall() {
+		if (!_open) {
+			return true;
+		}
+
+		if ((System.currentTimeMillis() - _openedTime) < _openTime) {
+			return false;
+		}
+
+		return _trialCall.compareAndSet(false, true);
+	}
+
+	public boolean isOpen() {
+		return _open;
+	}
+
+	public void onFailure() {
+		if (_open) {
+			_openedTime = System.currentTimeMillis();
+
+			_trialCall.set(false);
+
+			return;
+		}
+
+		if (_failuresCount.incrementAndGet() >= _threshold) {
+			_openedTime = System.currentTimeMillis();
+			_open = true;
+		}
+	}
+
+	public void onSkipped() {
+		if (_open) {
+			_trialCall.set(false);
+		}
+	}
+
+	public void onSuccess() {
+		_failuresCount.set(0);
+
+		if (_open) {
+			_open = false;
+
+			_trialCall.set(false);
+		}
+	}
+
+	private final AtomicInteger _failuresCount = new AtomicInteger();
+	private volatile boolean _open;
+	private volatile long _openedTime;
+	private final long _openTime;
+	private final int _threshold;
+	private final AtomicBoolean _trialCall = new AtomicBoolean();
+
+}
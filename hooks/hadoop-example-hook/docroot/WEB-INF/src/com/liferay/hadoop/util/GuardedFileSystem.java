@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import java.io.IOException;
+
+import java.util.concurrent.Callable;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Wraps a file system to make the calls through the {@link HadoopExecutor},
+ * which applies the call timeout, the bulkhead and the circuit breaker of the
+ * file system. Reading or writing an opened stream is not guarded and relies
+ * on the socket timeouts of the Hadoop client.
+ *
+ * @author Raymond Augé
+ */
+public class GuardedFileSystem extends FilterFileSystem {
+
+	public GuardedFileSystem(String name, FileSystem fileSystem) {
+		super(fileSystem);
+
+		_name = name;
+	}
+
+	@Override
+	public FSDataOutputStream append(
+			final Path path, final int bufferSize,
+			final Progressable progressable)
+		throws IOException {
+
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<FSDataOutputStream>() {
+
+				public FSDataOutputStream call() throws IOException {
+					return fs.append(path, bufferSize, progressable);
+				}
+
+			});
+	}
+
+	@Override
+	public FSDataOutputStream create(
+			final Path path, final FsPermission fsPermission,
+			final boolean overwrite, final int bufferSize,
+			final short replication, final long blockSize,
+			final Progressable progressable)
+		throws IOException {
+
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<FSDataOutputStream>() {
+
+				public FSDataOutputStream call() throws IOException {
+					return fs.create(
+						path, fsPermission, overwrite, bufferSize, replication,
+						blockSize, progressable);
+				}
+
+			});
+	}
+
+	@Override
+	public boolean delete(final Path path, final boolean recursive)
+		throws IOException {
+
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<Boolean>() {
+
+				public Boolean call() throws IOException {
+					return fs.delete(path, recursive);
+				}
+
+			});
+	}
+
+	@Override
+	public BlockLocation[] getFileBlockLocations(
+			final FileStatus fileStatus, final long start, final long length)
+		throws IOException {
+
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<BlockLocation[]>() {
+
+				public BlockLocation[] call() throws IOException {
+					return fs.getFileBlockLocations(fileStatus, start, length);
+				}
+
+			});
+	}
+
+	@Override
+	public FileStatus getFileStatus(final Path path) throws IOException {
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<FileStatus>() {
+
+				public FileStatus call() throws IOException {
+					return fs.getFileStatus(path);
+				}
+
+			});
+	}
+
+	@Override
+	public FileStatus[] listStatus(final Path path) throws IOException {
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<FileStatus[]>() {
+
+				public FileStatus[] call() throws IOException {
+					return fs.listStatus(path);
+				}
+
+			});
+	}
+
+	@Override
+	public boolean mkdirs(final Path path, final FsPermission fsPermission)
+		throws IOException {
+
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<Boolean>() {
+
+				public Boolean call() throws IOException {
+					return fs.mkdirs(path, fsPermission);
+				}
+
+			});
+	}
+
+	@Override
+	public FSDataInputStream open(final Path path, final int bufferSize)
+		throws IOException {
+
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<FSDataInputStream>() {
+
+				public FSDataInputStream call() throws IOException {
+					return fs.open(path, bufferSize);
+				}
+
+			});
+	}
+
+	@Override
+	public boolean rename(final Path sourcePath, final Path targetPath)
+		throws IOException {
+
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<Boolean>() {
+
+				public Boolean call() throws IOException {
+					return fs.rename(sourcePath, targetPath);
+				}
+
+			});
+	}
+
+	@Override
+	public boolean setReplication(final Path path, final short replication)
+		throws IOException {
+
+		return _hadoopExecutor.call(
+			_name,
+			new Callable<Boolean>() {
+
+				public Boolean call() throws IOException {
+					return fs.setReplication(path, replication);
+				}
+
+			});
+	}
+
+	private final HadoopExecutor _hadoopExecutor =
+		HadoopExecutor.getInstance();
+	private final String _name;
+
+}
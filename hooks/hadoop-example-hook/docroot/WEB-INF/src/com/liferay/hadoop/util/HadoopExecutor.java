@@ -0,0 +1,432 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.lang.reflect.Method;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.AccessControlException;
+
+/**
+ * Runs calls to the file systems on a dedicated executor, so the portal
+ * thread making a call waits for it at most the call timeout. The executor
+ * uses virtual threads when the JVM supports them and a bounded pool of
+ * threads otherwise.
+ *
+ * <p>
+ * Each file system has a bulkhead limiting the number of calls made to it at
+ * once and a {@link CircuitBreaker} that opens after consecutive failures.
+ * A call waits a bounded time for a place in the bulkhead. Calls rejected by
+ * either fail with an <code>IOException</code>, so a slow or unreachable
+ * cluster cannot hold on to every request thread.
+ * </p>
+ *
+ * <p>
+ * A call that timed out is not interrupted, since interrupting the Hadoop
+ * client can break the connection it shares with other calls. It keeps its
+ * place in the bulkhead until the client gives up on it, and a stream it
+ * opens, creates or appends to once nobody waits for it is closed.
+ * </p>
+ *
+ * @author Raymond Augé
+ * @see    GuardedFileSystem
+ */
+public class HadoopExecutor {
+
+	public static HadoopExecutor getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * Runs the call on the executor and waits for its result. Exceptions
+	 * thrown by the call are rethrown as they are.
+	 */
+	public <T> T call(String fileSystemName, Callable<T> callable)
+		throws IOException {
+
+		Guard guard = _getGuard(fileSystemName);
+
+		boolean acquired = false;
+
+		try {
+			acquired = guard._semaphore.tryAcquire(
+				_MAX_CONCURRENT_CALLS_WAIT_TIME, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException(
+				"Interrupted while waiting to call file system " +
+					fileSystemName);
+		}
+
+		if (!acquired) {
+			_metricsRegistry.increment(guard._rejectedName);
+
+			throw new IOException(
+				"Too many concurrent calls to file system " + fileSystemName);
+		}
+
+		CircuitBreaker circuitBreaker = guard._circuitBreaker;
+
+		if (!circuitBreaker.allowCall()) {
+			guard._semaphore.release();
+
+			_metricsRegistry.increment(guard._rejectedName);
+
+			throw new IOException(
+				"Calls to file system " + fileSystemName +
+					" are failing and are suspended");
+		}
+
+		GuardedCallable<T> guardedCallable = new GuardedCallable<T>(
+			callable, guard._semaphore);
+
+		Future<T> future = null;
+
+		try {
+			future = _executorService.submit(guardedCallable);
+		}
+		catch (RejectedExecutionException ree) {
+			guard._semaphore.release();
+
+			circuitBreaker.onSkipped();
+
+			throw new IOException("The executor is shut down", ree);
+		}
+
+		try {
+			T value = null;
+
+			if (_CALL_TIMEOUT > 0) {
+				value = future.get(_CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+			else {
+				value = future.get();
+			}
+
+			circuitBreaker.onSuccess();
+
+			return value;
+		}
+		catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+
+			if (_isFailure(cause)) {
+				_metricsRegistry.increment(guard._failuresName);
+
+				circuitBreaker.onFailure();
+			}
+			else {
+				circuitBreaker.onSuccess();
+			}
+
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+			else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			else if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+
+			throw new IOException(cause);
+		}
+		catch (InterruptedException ie) {
+			guardedCallable.cancel(future);
+
+			circuitBreaker.onSkipped();
+
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException(
+				"Interrupted while calling file system " + fileSystemName);
+		}
+		catch (TimeoutException te) {
+			guardedCallable.cancel(future);
+
+			_metricsRegistry.increment(guard._timeoutsName);
+
+			circuitBreaker.onFailure();
+
+			throw new IOException(
+				"Timed out after " + _CALL_TIMEOUT +
+					" ms calling file system " + fileSystemName);
+		}
+	}
+
+	public void destroy() {
+		_executorService.shutdownNow();
+	}
+
+	/**
+	 * Returns <code>true</code> if calls to the file system currently fail
+	 * right away because of consecutive failures.
+	 */
+	public boolean isCircuitOpen(String fileSystemName) {
+		Guard guard = _guards.get(fileSystemName);
+
+		if (guard == null) {
+			return false;
+		}
+
+		return guard._circuitBreaker.isOpen();
+	}
+
+	public boolean isVirtualThreads() {
+		return _virtualThreads;
+	}
+
+	private HadoopExecutor() {
+		ExecutorService executorService = null;
+
+		if (HadoopPropsValues.HADOOP_EXECUTOR_VIRTUAL_THREADS_ENABLED) {
+			executorService = _createVirtualThreadExecutorService();
+		}
+
+		if (executorService != null) {
+			_virtualThreads = true;
+		}
+		else {
+			_virtualThreads = false;
+
+			int threadPoolMaxSize = Math.max(
+				HadoopPropsValues.HADOOP_EXECUTOR_THREAD_POOL_MAX_SIZE, 1);
+
+			ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+				threadPoolMaxSize, threadPoolMaxSize, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new NamedThreadFactory(
+					HadoopExecutor.class.getName(), Thread.NORM_PRIORITY,
+					HadoopExecutor.class.getClassLoader()));
+
+			threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+			executorService = threadPoolExecutor;
+		}
+
+		_executorService = executorService;
+	}
+
+	/**
+	 * Returns an executor starting a virtual thread per call, or
+	 * <code>null</code> if the JVM has no virtual threads. The executor is
+	 * looked up by reflection so the plugin still runs on older JVMs.
+	 */
+	private ExecutorService _createVirtualThreadExecutorService() {
+		try {
+			Method method = Executors.class.getMethod(
+				"newVirtualThreadPerTaskExecutor");
+
+			return (ExecutorService)method.invoke(null);
+		}
+		catch (NoSuchMethodException nsme) {
+			if (_log.isInfoEnabled()) {
+				_log.info(
+					"Virtual threads are not supported by this JVM, using a " +
+						"thread pool");
+			}
+		}
+		catch (Exception e) {
+			_log.error("Unable to create a virtual thread executor", e);
+		}
+
+		return null;
+	}
+
+	private Guard _getGuard(String fileSystemName) {
+		Guard guard = _guards.get(fileSystemName);
+
+		if (guard == null) {
+			guard = new Guard(fileSystemName);
+
+			Guard previousGuard = _guards.putIfAbsent(fileSystemName, guard);
+
+			if (previousGuard != null) {
+				guard = previousGuard;
+			}
+		}
+
+		return guard;
+	}
+
+	/**
+	 * Returns <code>true</code> if the exception tells that the file system
+	 * is unhealthy. Missing files and errors reported by the NameNode mean it
+	 * answered.
+	 */
+	private boolean _isFailure(Throwable throwable) {
+		if ((throwable instanceof AccessControlException) ||
+			(throwable instanceof FileAlreadyExistsException) ||
+			(throwable instanceof FileNotFoundException) ||
+			(throwable instanceof RemoteException)) {
+
+			return false;
+		}
+
+		return throwable instanceof IOException;
+	}
+
+	private static final long _CALL_TIMEOUT =
+		HadoopPropsValues.HADOOP_EXECUTOR_CALL_TIMEOUT;
+
+	private static final int _MAX_CONCURRENT_CALLS = Math.max(
+		HadoopPropsValues.HADOOP_EXECUTOR_MAX_CONCURRENT_CALLS, 1);
+
+	private static final long _MAX_CONCURRENT_CALLS_WAIT_TIME = Math.max(
+		HadoopPropsValues.HADOOP_EXECUTOR_MAX_CONCURRENT_CALLS_WAIT_TIME, 0);
+
+	private static Log _log = LogFactoryUtil.getLog(HadoopExecutor.class);
+
+	private static HadoopExecutor _instance = new HadoopExecutor();
+
+	private final ExecutorService _executorService;
+	private final ConcurrentMap<String, Guard> _guards =
+		new ConcurrentHashMap<String, Guard>();
+	private final MetricsRegistry _metricsRegistry =
+		MetricsRegistry.getInstance();
+	private final boolean _virtualThreads;
+
+	private static class Guard {
+
+		public Guard(String fileSystemName) {
+			String prefix = "fileSystem.".concat(fileSystemName);
+
+			_failuresName = prefix.concat(".failures");
+			_rejectedName = prefix.concat(".rejected");
+			_timeoutsName = prefix.concat(".timeouts");
+		}
+
+		private final CircuitBreaker _circuitBreaker = new CircuitBreaker(
+			HadoopPropsValues.HADOOP_EXECUTOR_CIRCUIT_BREAKER_THRESHOLD,
+			HadoopPropsValues.HADOOP_EXECUTOR_CIRCUIT_BREAKER_OPEN_TIME);
+		private final String _failuresName;
+		private final String _rejectedName;
+		private final Semaphore _semaphore = new Semaphore(
+			_MAX_CONCURRENT_CALLS);
+		private final String _timeoutsName;
+
+	}
+
+	/**
+	 * Releases the place of the call in the bulkhead once the call is done,
+	 * or right away if the call is cancelled before it started. A stream
+	 * returned after the caller gave up is closed, by the call if it is still
+	 * running when cancelled or by the cancel if the call just completed.
+	 */
+	private static class GuardedCallable<T> implements Callable<T> {
+
+		public GuardedCallable(Callable<T> callable, Semaphore semaphore) {
+			_callable = callable;
+			_semaphore = semaphore;
+		}
+
+		public T call() throws Exception {
+			if (!_state.compareAndSet(_STATE_NEW, _STATE_RUNNING)) {
+				return null;
+			}
+
+			T value = null;
+
+			try {
+				value = _callable.call();
+
+				return value;
+			}
+			finally {
+				_semaphore.release();
+
+				_value = value;
+
+				if (!_state.compareAndSet(_STATE_RUNNING, _STATE_DONE)) {
+					_close(value);
+				}
+			}
+		}
+
+		public void cancel(Future<T> future) {
+			if (_state.compareAndSet(_STATE_NEW, _STATE_CANCELLED)) {
+				_semaphore.release();
+			}
+			else if (!_state.compareAndSet(
+						_STATE_RUNNING, _STATE_ABANDONED)) {
+
+				_close(_value);
+			}
+
+			future.cancel(false);
+		}
+
+		private void _close(T value) {
+			if (!(value instanceof Closeable)) {
+				return;
+			}
+
+			Closeable closeable = (Closeable)value;
+
+			try {
+				closeable.close();
+			}
+			catch (IOException ioe) {
+				if (_log.isDebugEnabled()) {
+					_log.debug(ioe, ioe);
+				}
+			}
+		}
+
+		private static final int _STATE_ABANDONED = 3;
+
+		private static final int _STATE_CANCELLED = 2;
+
+		private static final int _STATE_DONE = 4;
+
+		private static final int _STATE_NEW = 0;
+
+		private static final int _STATE_RUNNING = 1;
+
+		private final Callable<T> _callable;
+		private final Semaphore _semaphore;
+		private final AtomicInteger _state = new AtomicInteger(_STATE_NEW);
+		private volatile T _value;
+
+	}
+
+}
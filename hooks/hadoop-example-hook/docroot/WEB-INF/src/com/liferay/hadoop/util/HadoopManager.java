@@ -14,8 +14,12 @@
 
 package com.liferay.hadoop.util;
 
-import com.liferay.hadoop.job.Map;
-import com.liferay.hadoop.job.Reduce;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.ArrayUtil;
+import com.liferay.portal.kernel.util.CharPool;
+import com.liferay.portal.kernel.util.NamedThreadFactory;
+import com.liferay.portal.kernel.util.PropsUtil;
 import com.liferay.portal.kernel.util.StreamUtil;
 import com.liferay.portal.kernel.util.StringBundler;
 import com.liferay.portal.kernel.util.StringPool;
@@ -25,37 +29,72 @@ import com.liferay.portlet.documentlibrary.store.Store;
 import java.io.IOException;
 import java.io.InputStream;
 
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+
 import javax.servlet.ServletContext;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapred.FileInputFormat;
-import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.mapred.JobStatus;
-import org.apache.hadoop.mapred.RunningJob;
-import org.apache.hadoop.mapred.TextInputFormat;
-import org.apache.hadoop.mapred.TextOutputFormat;
 
 /**
  * @author Raymond Augé
  */
 public class HadoopManager {
 
+	public static final String DEFAULT_FILE_SYSTEM_NAME = "default";
+
 	public static JobConf createNewJobConf() {
 		return new JobConf(_sharedJobConf);
 	}
 
+	public static void destroy() {
+		getIstance()._destroy();
+	}
+
+	/**
+	 * Returns the number of calls made to the named file system, each of
+	 * which is a NameNode RPC, or 0 if it has not been used yet.
+	 */
+	public static long getCallsCount(String name) {
+		CallCountingFileSystem callCountingFileSystem =
+			getIstance()._fileSystems.get(name);
+
+		if (callCountingFileSystem == null) {
+			return 0;
+		}
+
+		return callCountingFileSystem.getCallsCount();
+	}
+
 	public static FileSystem getFileSystem()
 		throws IOException {
 
-		return getIstance()._getFileSystem();
+		return getIstance()._getFileSystem(DEFAULT_FILE_SYSTEM_NAME);
+	}
+
+	/**
+	 * Returns one of the file systems named by
+	 * <code>hadoop.file.system.names</code>, such as a hot and a cold storage
+	 * cluster.
+	 */
+	public static FileSystem getFileSystem(String name) throws IOException {
+		return getIstance()._getFileSystem(name);
+	}
+
+	public static String[] getFileSystemNames() {
+		return getIstance()._fileSystemNames;
 	}
 
 	public static String getFullDirName(
@@ -107,6 +146,21 @@ public class HadoopManager {
 			getFullVersionFileName(companyId, repositoryId, fileName, version));
 	}
 
+	/**
+	 * Returns the number of calls currently made to the named file system, or
+	 * 0 if it has not been used yet.
+	 */
+	public static int getInFlightCallsCount(String name) {
+		CallCountingFileSystem callCountingFileSystem =
+			getIstance()._fileSystems.get(name);
+
+		if (callCountingFileSystem == null) {
+			return 0;
+		}
+
+		return callCountingFileSystem.getInFlightCallsCount();
+	}
+
 	public static HadoopManager getIstance() {
 		return _instance;
 	}
@@ -115,148 +169,435 @@ public class HadoopManager {
 		return getIstance()._getJobClient();
 	}
 
+	/**
+	 * Returns the path of the job jar on the cluster, uploading it from the
+	 * plugin first if it is not there yet.
+	 */
+	public static Path getJobJarPath() throws IOException {
+		return getIstance()._getJobJarPath();
+	}
+
 	public static ServletContext getServletContext() {
 		return _servletContext;
 	}
 
 	public static void setServletContext(ServletContext servletContext) {
 		_servletContext = servletContext;
+
+		// The plugin may have been redeployed with another job jar
+
+		_jobJarPath = null;
 	}
 
-	public static void runJob(StoreEvent storeEvent) throws IOException {
-		FileSystem fileSystem = getFileSystem();
+	/**
+	 * Connects to every file system and to the job tracker in the background
+	 * so the first requests do not pay for opening the connections.
+	 */
+	public static void prewarm() {
+		Thread thread = _threadFactory.newThread(
+			new Runnable() {
 
-		if (_servletContext == null) {
-			return;
-		}
+				public void run() {
+					getIstance()._prewarm();
+				}
 
-		JobClient jobClient = getJobClient();
+			});
 
-		Path inputPath = new Path(
-			"/index".concat(storeEvent.getRootPath().toString()).concat("/*"));
-		Path outputPath = new Path(
-			"/wordcount".concat(
-				storeEvent.getRootPath().toString()).concat("/results"));
+		thread.start();
+	}
 
-		try {
-			if (_runningJob == null) {
-				if (!fileSystem.exists(_jobPath)) {
-					FSDataOutputStream outputStream = null;
-
-					try {
-						outputStream = fileSystem.create(_jobPath);
-
-						InputStream inputStream =
-							_servletContext.getResourceAsStream(
-								"/WEB-INF/lib/hadoop-job.jar");
-
-						StreamUtil.transfer(inputStream, outputStream, false);
-					}
-					finally {
-						StreamUtil.cleanUp(outputStream);
-					}
+	/**
+	 * Requests a word count run for the repository of the event.
+	 *
+	 * @see JobScheduler
+	 */
+	public static void runJob(StoreEvent storeEvent) {
+		JobScheduler jobScheduler = JobScheduler.getInstance();
+
+		jobScheduler.schedule(storeEvent);
+	}
+
+	/**
+	 * Deletes the job jars no portal node holds a fresh lease on, and the
+	 * expired leases. A jar is also kept until it is older than the maximum
+	 * age, in case it was uploaded by a node that did not lease it yet.
+	 */
+	private void _deleteUnusedJobJars(FileSystem fileSystem, Path jobJarPath)
+		throws IOException {
+
+		long time =
+			System.currentTimeMillis() -
+				HadoopPropsValues.HADOOP_JOB_JAR_MAX_AGE;
+
+		Set<String> leasedJobJarNames = new HashSet<String>();
+
+		leasedJobJarNames.add(jobJarPath.getName());
+
+		FileStatus[] fileStatuses = fileSystem.listStatus(
+			_JOB_JAR_LEASES_PATH);
+
+		if (fileStatuses != null) {
+			for (FileStatus fileStatus : fileStatuses) {
+				Path path = fileStatus.getPath();
+
+				if (fileStatus.getModificationTime() < time) {
+					fileSystem.delete(path, false);
+
+					continue;
 				}
 
-				if (fileSystem.exists(outputPath)) {
-					fileSystem.rename(
-						outputPath, outputPath.getParent().suffix(
-							"/.results-" + System.currentTimeMillis()));
+				String name = path.getName();
+
+				int pos = name.lastIndexOf(CharPool.PERIOD);
+
+				if (pos != -1) {
+					leasedJobJarNames.add(name.substring(0, pos));
 				}
+			}
+		}
 
-				_jobConf = new JobConf(_sharedJobConf);
+		fileStatuses = fileSystem.listStatus(_JOB_JARS_PATH);
 
-				_jobConf.setJobName("Word Count");
-				_jobConf.setJarByClass(Map.class);
-				_jobConf.setOutputKeyClass(Text.class);
-				_jobConf.setOutputValueClass(IntWritable.class);
-				_jobConf.setMapperClass(Map.class);
-				_jobConf.setCombinerClass(Reduce.class);
-				_jobConf.setReducerClass(Reduce.class);
-				_jobConf.setInputFormat(TextInputFormat.class);
-				_jobConf.setOutputFormat(TextOutputFormat.class);
+		if (fileStatuses == null) {
+			return;
+		}
 
-				DistributedCache.addArchiveToClassPath(
-					_jobPath, _jobConf, fileSystem);
+		for (FileStatus fileStatus : fileStatuses) {
+			Path path = fileStatus.getPath();
 
-				FileInputFormat.setInputPaths(_jobConf, inputPath);
-				FileOutputFormat.setOutputPath(_jobConf, outputPath);
+			if (fileStatus.isDir() ||
+				leasedJobJarNames.contains(path.getName()) ||
+				(fileStatus.getModificationTime() >= time)) {
 
-				_runningJob = jobClient.submitJob(_jobConf);
+				continue;
 			}
 
-			int jobState = _runningJob.getJobState();
+			if (fileSystem.delete(path, false) && _log.isInfoEnabled()) {
+				_log.info("Deleted unused job jar " + path);
+			}
+		}
+	}
 
-			if ((jobState != JobStatus.RUNNING) &&
-				(jobState != JobStatus.PREP)) {
+	private void _destroy() {
+		synchronized (_fileSystems) {
+			for (FileSystem fileSystem : _fileSystems.values()) {
+				try {
+					fileSystem.close();
+				}
+				catch (IOException ioe) {
+					_log.error(ioe, ioe);
+				}
+			}
 
-				System.out.println("Re-issuing the word count job.");
+			_fileSystems.clear();
+		}
 
-				if (fileSystem.exists(outputPath)) {
-					fileSystem.rename(
-						outputPath, outputPath.getParent().suffix(
-							"/.results-" + System.currentTimeMillis()));
+		synchronized (this) {
+			if (_jobClient != null) {
+				try {
+					_jobClient.close();
+				}
+				catch (IOException ioe) {
+					_log.error(ioe, ioe);
 				}
 
-				_runningJob = jobClient.submitJob(_jobConf);
+				_jobClient = null;
 			}
 		}
-		catch (Exception ioe) {
-			ioe.printStackTrace();
-		}
 	}
 
-	private FileSystem _getFileSystem() throws IOException {
-		if (_fileSystem != null) {
-			return _fileSystem;
+	private FileSystem _getFileSystem(String name) throws IOException {
+		CallCountingFileSystem callCountingFileSystem = _fileSystems.get(name);
+
+		if (callCountingFileSystem != null) {
+			return callCountingFileSystem;
 		}
 
-		_fileSystem = FileSystem.get(_configuration);
+		Configuration configuration = _fileSystemConfigurations.get(name);
 
-		return _fileSystem;
+		if (configuration == null) {
+			throw new IOException("No file system is configured as " + name);
+		}
+
+		synchronized (_fileSystems) {
+			callCountingFileSystem = _fileSystems.get(name);
+
+			if (callCountingFileSystem == null) {
+				FileSystem fileSystem = FileSystem.get(configuration);
+
+				if (HadoopPropsValues.HADOOP_EXECUTOR_ENABLED) {
+					fileSystem = new GuardedFileSystem(name, fileSystem);
+				}
+
+				callCountingFileSystem = new CallCountingFileSystem(
+					name, fileSystem);
+
+				_fileSystems.put(name, callCountingFileSystem);
+			}
+
+			return callCountingFileSystem;
+		}
 	}
 
 	private JobClient _getJobClient() throws IOException {
-		if (_jobClient != null) {
+		JobClient jobClient = _jobClient;
+
+		if (jobClient != null) {
+			return jobClient;
+		}
+
+		synchronized (this) {
+			if (_jobClient == null) {
+				_jobClient = new JobClient(_sharedJobConf);
+			}
+
 			return _jobClient;
 		}
+	}
+
+	/**
+	 * Returns the path of the job jar, leasing it for this node. The lease is
+	 * renewed every quarter of the maximum age of the job jars, which also
+	 * uploads the jar again if it was deleted while this node did not use it.
+	 */
+	private synchronized Path _getJobJarPath() throws IOException {
+		Path jobJarPath = _jobJarPath;
+
+		long now = System.currentTimeMillis();
+
+		if ((jobJarPath != null) &&
+			((now - _jobJarLeaseTime) <
+				(HadoopPropsValues.HADOOP_JOB_JAR_MAX_AGE / 4))) {
+
+			return jobJarPath;
+		}
+
+		if (jobJarPath == null) {
+			ServletContext servletContext = _servletContext;
+
+			if (servletContext == null) {
+				throw new IOException("The job jar is not available yet");
+			}
 
-		_jobClient = new JobClient(_sharedJobConf);
+			InputStream inputStream = servletContext.getResourceAsStream(
+				_JOB_JAR_RESOURCE_NAME);
 
-		return _jobClient;
+			MD5Hash md5Hash = null;
+
+			try {
+				md5Hash = MD5Hash.digest(inputStream);
+			}
+			finally {
+				StreamUtil.cleanUp(inputStream);
+			}
+
+			jobJarPath = new Path(
+				_JOB_JARS_PATH, "hadoop-job-" + md5Hash.toString() + ".jar");
+		}
+
+		FileSystem fileSystem = _getFileSystem(DEFAULT_FILE_SYSTEM_NAME);
+
+		// Lease the jar before uploading it so no node deletes it in between
+
+		fileSystem.create(
+			new Path(
+				_JOB_JAR_LEASES_PATH,
+				jobJarPath.getName() + StringPool.PERIOD + _nodeId),
+			true).close();
+
+		if (!fileSystem.exists(jobJarPath)) {
+			ServletContext servletContext = _servletContext;
+
+			if (servletContext == null) {
+				throw new IOException("The job jar is not available yet");
+			}
+
+			_uploadJobJar(fileSystem, servletContext, jobJarPath);
+		}
+
+		_deleteUnusedJobJars(fileSystem, jobJarPath);
+
+		_jobJarLeaseTime = now;
+		_jobJarPath = jobJarPath;
+
+		return jobJarPath;
 	}
 
 	private HadoopManager() {
+		System.setProperty(
+			"HADOOP_USER_NAME", HadoopPropsValues.HADOOP_USER_NAME);
 
-		// TODO be more declarative!
+		_configuration = new Configuration();
 
-		System.setProperty("HADOOP_USER_NAME", "hduser");
+		_configuration.set("fs.default.name", "hdfs://localhost:54310");
+		_configuration.set("mapred.job.tracker", "localhost:54311");
 
-		_configuration = new Configuration();
+		// Client, connection and IPC settings shared by every file system and
+		// the job client
 
-		// HDSF
+		Properties properties = PropsUtil.getProperties(
+			HadoopPropsKeys.HADOOP_CONFIGURATION, true);
 
-		_configuration.set("fs.default.name", "hdfs://localhost:54310");
+		_setAll(_configuration, properties);
 
-		// Map/Reduce
+		// Read blocks straight from the local disk when the DataNode is on the
+		// same host
 
-		_configuration.set("mapred.job.tracker", "localhost:54311");
+		if (HadoopPropsValues.HADOOP_STORE_READ_SHORT_CIRCUIT) {
+			_configuration.setBoolean("dfs.client.read.shortcircuit", true);
+		}
+
+		String[] fileSystemNames = PropsUtil.getArray(
+			HadoopPropsKeys.HADOOP_FILE_SYSTEM_NAMES);
+
+		if ((fileSystemNames == null) || (fileSystemNames.length == 0)) {
+			fileSystemNames = new String[] {DEFAULT_FILE_SYSTEM_NAME};
+		}
+		else if (!ArrayUtil.contains(
+					fileSystemNames, DEFAULT_FILE_SYSTEM_NAME)) {
+
+			fileSystemNames = ArrayUtil.append(
+				new String[] {DEFAULT_FILE_SYSTEM_NAME}, fileSystemNames);
+		}
+
+		_fileSystemNames = fileSystemNames;
+
+		for (String fileSystemName : fileSystemNames) {
+			Configuration configuration = new Configuration(_configuration);
+
+			_setAll(
+				configuration,
+				PropsUtil.getProperties(
+					HadoopPropsKeys.HADOOP_FILE_SYSTEM.concat(
+						fileSystemName).concat(StringPool.PERIOD),
+					true));
+
+			// Each named file system gets its own client instead of sharing
+			// the one Hadoop caches per URI, so closing it on undeploy does
+			// not break other users in the JVM
+
+			String scheme = FileSystem.getDefaultUri(configuration).getScheme();
+
+			configuration.setBoolean(
+				"fs." + scheme + ".impl.disable.cache", true);
+
+			_fileSystemConfigurations.put(fileSystemName, configuration);
+		}
+
+		_configuration.set(
+			"fs.default.name",
+			_fileSystemConfigurations.get(DEFAULT_FILE_SYSTEM_NAME).get(
+				"fs.default.name"));
 
 		_sharedJobConf = new JobConf(_configuration);
+	}
+
+	private void _prewarm() {
+		for (String fileSystemName : _fileSystemNames) {
+			try {
+				FileSystem fileSystem = _getFileSystem(fileSystemName);
 
-		_jobPath = new Path("/wordcount/jars/hadoop-job.jar");
+				fileSystem.getFileStatus(new Path(Path.SEPARATOR));
+			}
+			catch (IOException ioe) {
+				_log.warn(
+					"Unable to connect to file system " + fileSystemName, ioe);
+			}
+		}
+
+		try {
+			JobClient jobClient = _getJobClient();
+
+			jobClient.getClusterStatus();
+		}
+		catch (IOException ioe) {
+			_log.warn("Unable to connect to the job tracker", ioe);
+		}
+	}
+
+	private void _setAll(Configuration configuration, Properties properties) {
+		if (properties == null) {
+			return;
+		}
+
+		for (String name : properties.stringPropertyNames()) {
+			configuration.set(name, properties.getProperty(name));
+		}
+	}
+
+	/**
+	 * Uploads the job jar under a temporary name and renames it, so a job
+	 * never sees a partially written jar. Another portal instance may win
+	 * the rename with the same content.
+	 */
+	private void _uploadJobJar(
+			FileSystem fileSystem, ServletContext servletContext,
+			Path jobJarPath)
+		throws IOException {
+
+		Path tempPath = new Path(
+			_JOB_JARS_PATH,
+			StringPool.UNDERLINE + jobJarPath.getName() + StringPool.PERIOD +
+				System.currentTimeMillis());
+
+		FSDataOutputStream outputStream = null;
+
+		try {
+			outputStream = fileSystem.create(tempPath);
+
+			InputStream inputStream = servletContext.getResourceAsStream(
+				_JOB_JAR_RESOURCE_NAME);
+
+			StreamUtil.transfer(inputStream, outputStream, false);
+
+			outputStream.close();
+		}
+		finally {
+			StreamUtil.cleanUp(outputStream);
+		}
+
+		if (!fileSystem.rename(tempPath, jobJarPath)) {
+			fileSystem.delete(tempPath, false);
+
+			if (!fileSystem.exists(jobJarPath)) {
+				throw new IOException("Unable to upload job jar " + jobJarPath);
+			}
+		}
+
+		if (_log.isInfoEnabled()) {
+			_log.info("Uploaded job jar " + jobJarPath);
+		}
 	}
 
+	private static final String _JOB_JAR_RESOURCE_NAME =
+		"/WEB-INF/lib/hadoop-job.jar";
+
+	private static final Path _JOB_JARS_PATH = new Path("/wordcount/jars");
+
+	private static final Path _JOB_JAR_LEASES_PATH = new Path(
+		_JOB_JARS_PATH, "leases");
+
+	private static Log _log = LogFactoryUtil.getLog(HadoopManager.class);
+
+	private static ThreadFactory _threadFactory = new NamedThreadFactory(
+		HadoopManager.class.getName(), Thread.NORM_PRIORITY,
+		HadoopManager.class.getClassLoader());
+
 	private static HadoopManager _instance = new HadoopManager();
 
+	private static long _jobJarLeaseTime;
+	private static volatile Path _jobJarPath;
 	private static ServletContext _servletContext;
 
 	private Configuration _configuration;
-	private FileSystem _fileSystem;
-
-	private JobClient _jobClient;
-	private static JobConf _jobConf;
-	private static Path _jobPath;
-	private static RunningJob _runningJob;
+	private final ConcurrentMap<String, Configuration>
+		_fileSystemConfigurations =
+			new ConcurrentHashMap<String, Configuration>();
+	private final String[] _fileSystemNames;
+	private final ConcurrentMap<String, CallCountingFileSystem> _fileSystems =
+		new ConcurrentHashMap<String, CallCountingFileSystem>();
+	private volatile JobClient _jobClient;
+	private final String _nodeId = UUID.randomUUID().toString();
 	private static JobConf _sharedJobConf;
 
 }
\ No newline at end of file
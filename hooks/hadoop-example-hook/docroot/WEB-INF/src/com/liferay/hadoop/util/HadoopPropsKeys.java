@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+/**
+ * @author Raymond Augé
+ */
+public class HadoopPropsKeys {
+
+	public static final String HADOOP_CONFIGURATION = "hadoop.configuration.";
+
+	public static final String HADOOP_EXECUTOR_CALL_TIMEOUT =
+		"hadoop.executor.call.timeout";
+
+	public static final String HADOOP_EXECUTOR_CIRCUIT_BREAKER_THRESHOLD =
+		"hadoop.executor.circuit.breaker.threshold";
+
+	public static final String HADOOP_EXECUTOR_CIRCUIT_BREAKER_OPEN_TIME =
+		"hadoop.executor.circuit.breaker.open.time";
+
+	public static final String HADOOP_EXECUTOR_ENABLED =
+		"hadoop.executor.enabled";
+
+	public static final String HADOOP_EXECUTOR_MAX_CONCURRENT_CALLS =
+		"hadoop.executor.max.concurrent.calls";
+
+	public static final String HADOOP_EXECUTOR_MAX_CONCURRENT_CALLS_WAIT_TIME =
+		"hadoop.executor.max.concurrent.calls.wait.time";
+
+	public static final String HADOOP_EXECUTOR_THREAD_POOL_MAX_SIZE =
+		"hadoop.executor.thread.pool.max.size";
+
+	public static final String HADOOP_EXECUTOR_VIRTUAL_THREADS_ENABLED =
+		"hadoop.executor.virtual.threads.enabled";
+
+	public static final String HADOOP_FILE_SYSTEM = "hadoop.file.system.";
+
+	public static final String HADOOP_FILE_SYSTEM_NAMES =
+		"hadoop.file.system.names";
+
+	public static final String HADOOP_FILE_SYSTEM_PREWARM =
+		"hadoop.file.system.prewarm";
+
+	public static final String HADOOP_INDEX_WRITER_MAX_OPEN =
+		"hadoop.index.writer.max.open";
+
+	public static final String HADOOP_INDEX_WRITER_QUEUE_SIZE =
+		"hadoop.index.writer.queue.size";
+
+	public static final String HADOOP_INDEX_WRITER_SEGMENT_MAX_AGE =
+		"hadoop.index.writer.segment.max.age";
+
+	public static final String HADOOP_INDEX_WRITER_SEGMENT_MAX_SIZE =
+		"hadoop.index.writer.segment.max.size";
+
+	public static final String HADOOP_JOB_JAR_MAX_AGE =
+		"hadoop.job.jar.max.age";
+
+	public static final String HADOOP_JOB_SCHEDULER_DEBOUNCE_TIME =
+		"hadoop.job.scheduler.debounce.time";
+
+	public static final String HADOOP_JOB_SCHEDULER_ENABLED =
+		"hadoop.job.scheduler.enabled";
+
+	public static final String HADOOP_JOB_SCHEDULER_MAX_DELAY =
+		"hadoop.job.scheduler.max.delay";
+
+	public static final String HADOOP_JOB_SCHEDULER_MAX_JOBS =
+		"hadoop.job.scheduler.max.jobs";
+
+	public static final String HADOOP_JOB_SCHEDULER_MAX_JOBS_PER_COMPANY =
+		"hadoop.job.scheduler.max.jobs.per.company";
+
+	public static final String HADOOP_METRICS_ENABLED =
+		"hadoop.metrics.enabled";
+
+	public static final String HADOOP_STORE_COMPRESSION_CODEC =
+		"hadoop.store.compression.codec";
+
+	public static final String HADOOP_STORE_COMPRESSION_ENABLED =
+		"hadoop.store.compression.enabled";
+
+	public static final String HADOOP_STORE_COMPRESSION_SKIP_TYPES =
+		"hadoop.store.compression.skip.types";
+
+	public static final String HADOOP_STORE_CONTAINER_COMPACTION_INTERVAL =
+		"hadoop.store.container.compaction.interval";
+
+	public static final String HADOOP_STORE_CONTAINER_COMPACTION_RATIO =
+		"hadoop.store.container.compaction.ratio";
+
+	public static final String HADOOP_STORE_CONTAINER_ENABLED =
+		"hadoop.store.container.enabled";
+
+	public static final String HADOOP_STORE_CONTAINER_IDLE_TIME =
+		"hadoop.store.container.idle.time";
+
+	public static final String HADOOP_STORE_CONTAINER_INDEX_TIME_TO_LIVE =
+		"hadoop.store.container.index.time.to.live";
+
+	public static final String HADOOP_STORE_CONTAINER_MAX_OPEN =
+		"hadoop.store.container.max.open";
+
+	public static final String HADOOP_STORE_CONTAINER_MAX_SIZE =
+		"hadoop.store.container.max.size";
+
+	public static final String HADOOP_STORE_CONTAINER_THRESHOLD =
+		"hadoop.store.container.threshold";
+
+	public static final String HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_BATCH_SIZE =
+		"hadoop.store.empty.ancestors.cleaner.batch.size";
+
+	public static final String HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_DELAY =
+		"hadoop.store.empty.ancestors.cleaner.delay";
+
+	public static final String HADOOP_STORE_FILE_NAMES_PAGE_SIZE =
+		"hadoop.store.file.names.page.size";
+
+	public static final String HADOOP_STORE_FILE_STATUS_CACHE_MAX_SIZE =
+		"hadoop.store.file.status.cache.max.size";
+
+	public static final String HADOOP_STORE_FILE_STATUS_CACHE_TIME_TO_LIVE =
+		"hadoop.store.file.status.cache.time.to.live";
+
+	public static final String HADOOP_STORE_LOCAL_CACHE_DIR =
+		"hadoop.store.local.cache.dir";
+
+	public static final String HADOOP_STORE_LOCAL_CACHE_MAX_FILE_SIZE =
+		"hadoop.store.local.cache.max.file.size";
+
+	public static final String HADOOP_STORE_LOCAL_CACHE_MAX_SIZE =
+		"hadoop.store.local.cache.max.size";
+
+	public static final String HADOOP_STORE_PREFETCH_READAHEAD_SIZE =
+		"hadoop.store.prefetch.readahead.size";
+
+	public static final String HADOOP_STORE_READ_SHORT_CIRCUIT =
+		"hadoop.store.read.short.circuit";
+
+	public static final String HADOOP_STORE_THREAD_POOL_MAX_SIZE =
+		"hadoop.store.thread.pool.max.size";
+
+	public static final String HADOOP_STORE_WRITE_BLOCK_SIZE =
+		"hadoop.store.write.block.size";
+
+	public static final String HADOOP_STORE_WRITE_BUFFER_SIZE =
+		"hadoop.store.write.buffer.size";
+
+	public static final String HADOOP_STORE_WRITE_REPLICATION =
+		"hadoop.store.write.replication";
+
+	public static final String HADOOP_USER_NAME = "hadoop.user.name";
+
+	public static final String HADOOP_WORD_COUNT_OUTPUT_COMPRESSION_CODEC =
+		"hadoop.word.count.output.compression.codec";
+
+	public static final String HADOOP_WORD_COUNT_OUTPUT_FORMAT =
+		"hadoop.word.count.output.format";
+
+	public static final String HADOOP_WORD_COUNT_RESULT_CHECK_INTERVAL =
+		"hadoop.word.count.result.check.interval";
+
+}
\ No newline at end of file
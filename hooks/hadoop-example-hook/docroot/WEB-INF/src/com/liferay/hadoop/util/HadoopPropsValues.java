@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import com.liferay.portal.kernel.util.GetterUtil;
+import com.liferay.portal.kernel.util.PropsKeys;
+import com.liferay.portal.kernel.util.PropsUtil;
+import com.liferay.portal.kernel.util.StringUtil;
+
+/**
+ * @author Raymond Augé
+ */
+public class HadoopPropsValues {
+
+	public static final long HADOOP_EXECUTOR_CALL_TIMEOUT = GetterUtil.getLong(
+		PropsUtil.get(HadoopPropsKeys.HADOOP_EXECUTOR_CALL_TIMEOUT), 30000);
+
+	public static final int HADOOP_EXECUTOR_CIRCUIT_BREAKER_THRESHOLD =
+		GetterUtil.getInteger(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_EXECUTOR_CIRCUIT_BREAKER_THRESHOLD),
+			20);
+
+	public static final long HADOOP_EXECUTOR_CIRCUIT_BREAKER_OPEN_TIME =
+		GetterUtil.getLong(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_EXECUTOR_CIRCUIT_BREAKER_OPEN_TIME),
+			30000);
+
+	public static final boolean HADOOP_EXECUTOR_ENABLED = GetterUtil.getBoolean(
+		PropsUtil.get(HadoopPropsKeys.HADOOP_EXECUTOR_ENABLED), true);
+
+	public static final int HADOOP_EXECUTOR_MAX_CONCURRENT_CALLS =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_EXECUTOR_MAX_CONCURRENT_CALLS),
+			32);
+
+	public static final long HADOOP_EXECUTOR_MAX_CONCURRENT_CALLS_WAIT_TIME =
+		GetterUtil.getLong(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_EXECUTOR_MAX_CONCURRENT_CALLS_WAIT_TIME),
+			1000);
+
+	public static final int HADOOP_EXECUTOR_THREAD_POOL_MAX_SIZE =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_EXECUTOR_THREAD_POOL_MAX_SIZE),
+			64);
+
+	public static final boolean HADOOP_EXECUTOR_VIRTUAL_THREADS_ENABLED =
+		GetterUtil.getBoolean(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_EXECUTOR_VIRTUAL_THREADS_ENABLED),
+			true);
+
+	public static final boolean HADOOP_FILE_SYSTEM_PREWARM =
+		GetterUtil.getBoolean(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_FILE_SYSTEM_PREWARM), true);
+
+	public static final int HADOOP_INDEX_WRITER_MAX_OPEN =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_INDEX_WRITER_MAX_OPEN),
+			16);
+
+	public static final int HADOOP_INDEX_WRITER_QUEUE_SIZE =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_INDEX_WRITER_QUEUE_SIZE),
+			10000);
+
+	public static final long HADOOP_INDEX_WRITER_SEGMENT_MAX_AGE =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_INDEX_WRITER_SEGMENT_MAX_AGE),
+			300000);
+
+	public static final long HADOOP_INDEX_WRITER_SEGMENT_MAX_SIZE =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_INDEX_WRITER_SEGMENT_MAX_SIZE),
+			67108864);
+
+	public static final long HADOOP_JOB_JAR_MAX_AGE = GetterUtil.getLong(
+		PropsUtil.get(HadoopPropsKeys.HADOOP_JOB_JAR_MAX_AGE), 86400000);
+
+	public static final long HADOOP_JOB_SCHEDULER_DEBOUNCE_TIME =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_JOB_SCHEDULER_DEBOUNCE_TIME),
+			60000);
+
+	public static final boolean HADOOP_JOB_SCHEDULER_ENABLED =
+		GetterUtil.getBoolean(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_JOB_SCHEDULER_ENABLED), true);
+
+	public static final long HADOOP_JOB_SCHEDULER_MAX_DELAY =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_JOB_SCHEDULER_MAX_DELAY),
+			300000);
+
+	public static final int HADOOP_JOB_SCHEDULER_MAX_JOBS =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_JOB_SCHEDULER_MAX_JOBS), 4);
+
+	public static final int HADOOP_JOB_SCHEDULER_MAX_JOBS_PER_COMPANY =
+		GetterUtil.getInteger(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_JOB_SCHEDULER_MAX_JOBS_PER_COMPANY),
+			1);
+
+	public static final boolean HADOOP_METRICS_ENABLED = GetterUtil.getBoolean(
+		PropsUtil.get(HadoopPropsKeys.HADOOP_METRICS_ENABLED), true);
+
+	public static final String HADOOP_STORE_COMPRESSION_CODEC =
+		GetterUtil.getString(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_COMPRESSION_CODEC),
+			"org.apache.hadoop.io.compress.DefaultCodec");
+
+	public static final boolean HADOOP_STORE_COMPRESSION_ENABLED =
+		GetterUtil.getBoolean(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_COMPRESSION_ENABLED));
+
+	public static final String[] HADOOP_STORE_COMPRESSION_SKIP_TYPES =
+		StringUtil.split(
+			GetterUtil.getString(
+				PropsUtil.get(
+					HadoopPropsKeys.HADOOP_STORE_COMPRESSION_SKIP_TYPES),
+				"application/gzip,application/java-archive," +
+					"application/vnd.oasis.opendocument.," +
+					"application/vnd.openxmlformats-officedocument.," +
+					"application/x-7z-compressed,application/x-bzip2," +
+					"application/x-gzip,application/x-rar-compressed," +
+					"application/zip,audio/,image/,video/"));
+
+	public static final long HADOOP_STORE_CONTAINER_COMPACTION_INTERVAL =
+		GetterUtil.getLong(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_STORE_CONTAINER_COMPACTION_INTERVAL),
+			3600000);
+
+	public static final double HADOOP_STORE_CONTAINER_COMPACTION_RATIO =
+		GetterUtil.getDouble(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_STORE_CONTAINER_COMPACTION_RATIO),
+			0.5);
+
+	public static final boolean HADOOP_STORE_CONTAINER_ENABLED =
+		GetterUtil.getBoolean(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_CONTAINER_ENABLED),
+			false);
+
+	public static final long HADOOP_STORE_CONTAINER_IDLE_TIME =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_CONTAINER_IDLE_TIME),
+			60000);
+
+	public static final long HADOOP_STORE_CONTAINER_INDEX_TIME_TO_LIVE =
+		GetterUtil.getLong(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_STORE_CONTAINER_INDEX_TIME_TO_LIVE),
+			60000);
+
+	public static final int HADOOP_STORE_CONTAINER_MAX_OPEN =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_CONTAINER_MAX_OPEN),
+			16);
+
+	public static final long HADOOP_STORE_CONTAINER_MAX_SIZE =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_CONTAINER_MAX_SIZE),
+			67108864);
+
+	public static final int HADOOP_STORE_CONTAINER_THRESHOLD =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_CONTAINER_THRESHOLD),
+			65536);
+
+	public static final int HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_BATCH_SIZE =
+		GetterUtil.getInteger(
+			PropsUtil.get(
+				HadoopPropsKeys.
+					HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_BATCH_SIZE),
+			1000);
+
+	public static final long HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_DELAY =
+		GetterUtil.getLong(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_DELAY),
+			5000);
+
+	public static final int HADOOP_STORE_FILE_NAMES_PAGE_SIZE =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_FILE_NAMES_PAGE_SIZE),
+			1000);
+
+	public static final int HADOOP_STORE_FILE_STATUS_CACHE_MAX_SIZE =
+		GetterUtil.getInteger(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_STORE_FILE_STATUS_CACHE_MAX_SIZE),
+			10000);
+
+	public static final long HADOOP_STORE_FILE_STATUS_CACHE_TIME_TO_LIVE =
+		GetterUtil.getLong(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_STORE_FILE_STATUS_CACHE_TIME_TO_LIVE),
+			30000);
+
+	public static final String HADOOP_STORE_LOCAL_CACHE_DIR =
+		GetterUtil.getString(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_LOCAL_CACHE_DIR),
+			PropsUtil.get(PropsKeys.LIFERAY_HOME) + "/data/hadoop/cache");
+
+	public static final long HADOOP_STORE_LOCAL_CACHE_MAX_FILE_SIZE =
+		GetterUtil.getLong(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_STORE_LOCAL_CACHE_MAX_FILE_SIZE),
+			16777216);
+
+	public static final long HADOOP_STORE_LOCAL_CACHE_MAX_SIZE =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_LOCAL_CACHE_MAX_SIZE));
+
+	public static final long HADOOP_STORE_PREFETCH_READAHEAD_SIZE =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_PREFETCH_READAHEAD_SIZE),
+			67108864);
+
+	public static final boolean HADOOP_STORE_READ_SHORT_CIRCUIT =
+		GetterUtil.getBoolean(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_READ_SHORT_CIRCUIT),
+			false);
+
+	public static final int HADOOP_STORE_THREAD_POOL_MAX_SIZE =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_THREAD_POOL_MAX_SIZE),
+			10);
+
+	public static final long HADOOP_STORE_WRITE_BLOCK_SIZE =
+		GetterUtil.getLong(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_WRITE_BLOCK_SIZE));
+
+	public static final int HADOOP_STORE_WRITE_BUFFER_SIZE =
+		GetterUtil.getInteger(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_WRITE_BUFFER_SIZE),
+			131072);
+
+	public static final short HADOOP_STORE_WRITE_REPLICATION =
+		GetterUtil.getShort(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_STORE_WRITE_REPLICATION));
+
+	public static final String HADOOP_USER_NAME = GetterUtil.getString(
+		PropsUtil.get(HadoopPropsKeys.HADOOP_USER_NAME), "hduser");
+
+	public static final String HADOOP_WORD_COUNT_OUTPUT_COMPRESSION_CODEC =
+		GetterUtil.getString(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_WORD_COUNT_OUTPUT_COMPRESSION_CODEC),
+			"deflate");
+
+	public static final String HADOOP_WORD_COUNT_OUTPUT_FORMAT =
+		GetterUtil.getString(
+			PropsUtil.get(HadoopPropsKeys.HADOOP_WORD_COUNT_OUTPUT_FORMAT),
+			"text");
+
+	public static final long HADOOP_WORD_COUNT_RESULT_CHECK_INTERVAL =
+		GetterUtil.getLong(
+			PropsUtil.get(
+				HadoopPropsKeys.HADOOP_WORD_COUNT_RESULT_CHECK_INTERVAL),
+			60000);
+
+}
\ No newline at end of file
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of non negative values with a fixed set of log linear
+ * buckets, in the spirit of HdrHistogram. Values below 32 have a bucket each,
+ * and every larger power of two range is split into 16 buckets, so
+ * percentiles are accurate to about 6% over the whole range of
+ * <code>long</code>. Recording a value allocates nothing and takes no lock.
+ *
+ * @author Raymond Augé
+ */
+public class Histogram {
+
+	public long getCount() {
+		return _count.get();
+	}
+
+	public long getMax() {
+		return _max.get();
+	}
+
+	public long getMean() {
+		long count = _count.get();
+
+		if (count == 0) {
+			return 0;
+		}
+
+		return _sum.get() / count;
+	}
+
+	/**
+	 * Returns the highest value of the bucket holding the given percentile of
+	 * the recorded values, capped by the largest value recorded.
+	 *
+	 * @param percentile the percentile, from 0 to 100
+	 */
+	public long getPercentile(double percentile) {
+		long count = _count.get();
+
+		if (count == 0) {
+			return 0;
+		}
+
+		long threshold = Math.max(
+			(long)Math.ceil((count * percentile) / 100), 1);
+
+		long max = _max.get();
+		long total = 0;
+
+		for (int i = 0; i < _BUCKETS_COUNT; i++) {
+			total += _buckets.get(i);
+
+			if (total >= threshold) {
+				return Math.min(_getHighestValue(i), max);
+			}
+		}
+
+		return max;
+	}
+
+	public long getSum() {
+		return _sum.get();
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		_buckets.incrementAndGet(_getIndex(value));
+		_count.incrementAndGet();
+		_sum.addAndGet(value);
+
+		long max = _max.get();
+
+		while ((value > max) && !_max.compareAndSet(max, value)) {
+			max = _max.get();
+		}
+	}
+
+	private long _getHighestValue(int index) {
+		if (index < _LINEAR_BUCKETS_COUNT) {
+			return index;
+		}
+
+		int shift = (index >> 4) - 1;
+
+		long mantissa = (index & 15) + 16;
+
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	private int _getIndex(long value) {
+		if (value < _LINEAR_BUCKETS_COUNT) {
+			return (int)value;
+		}
+
+		// Keep the five highest bits of the value, the first of which is
+		// always set
+
+		int shift = 59 - Long.numberOfLeadingZeros(value);
+
+		return (shift << 4) + (int)(value >>> shift);
+	}
+
+	private static final int _BUCKETS_COUNT = 960;
+
+	private static final int _LINEAR_BUCKETS_COUNT = 32;
+
+	private final AtomicLongArray _buckets = new AtomicLongArray(
+		_BUCKETS_COUNT);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+
+}
@@ -0,0 +1,455 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.NamedThreadFactory;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+
+/**
+ * Schedules the map reduce jobs of the hook so bursts of changes do not flood
+ * the cluster with redundant jobs.
+ *
+ * <p>
+ * Word count requests of a repository are coalesced into a single queued run
+ * that is debounced until no request arrives for the debounce time, or until
+ * the maximum delay since the first request is reached. A request arriving
+ * while the repository is counted queues exactly one more run. Queued runs
+ * are started oldest repository first, as long as neither the global nor the
+ * company limit of running jobs is reached.
+ * </p>
+ *
+ * <p>
+ * The state of every key is kept in a registry of {@link JobState}s, which is
+ * also used by {@link #submit(String, Callable)} to never run two jobs of the
+ * same key at once.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class JobScheduler {
+
+	public static JobScheduler getInstance() {
+		return _instance;
+	}
+
+	public static String getKey(long companyId, long repositoryId) {
+		return HadoopManager.getFullDirName(companyId, repositoryId, null);
+	}
+
+	/**
+	 * Stops dispatching queued runs and interrupts the running ones.
+	 */
+	public void destroy() {
+		synchronized (this) {
+			_destroyed = true;
+		}
+
+		_dispatcherExecutorService.shutdownNow();
+		_jobExecutorService.shutdownNow();
+		_submitExecutorService.shutdownNow();
+	}
+
+	public synchronized JobState getJobState(String key) {
+		return _jobStates.get(key);
+	}
+
+	public synchronized List<JobState> getJobStates() {
+		return new ArrayList<JobState>(_jobStates.values());
+	}
+
+	public synchronized int getQueuedJobsCount() {
+		int queuedJobsCount = 0;
+
+		for (JobState jobState : _jobStates.values()) {
+			if (jobState.getStatus() == JobState.STATUS_QUEUED) {
+				queuedJobsCount++;
+			}
+		}
+
+		return queuedJobsCount;
+	}
+
+	public synchronized int getRunningJobsCount() {
+		return _runningJobsCount;
+	}
+
+	/**
+	 * Requests a word count run of the repository.
+	 *
+	 * @see WordCountJob
+	 */
+	public synchronized void schedule(long companyId, long repositoryId) {
+		if (_destroyed || !HadoopPropsValues.HADOOP_JOB_SCHEDULER_ENABLED) {
+			return;
+		}
+
+		JobState jobState = _getJobState(
+			getKey(companyId, repositoryId), companyId, repositoryId);
+
+		jobState.setRequestsCount(jobState.getRequestsCount() + 1);
+
+		if (jobState.getStatus() == JobState.STATUS_RUNNING) {
+			jobState.setPending(true);
+
+			return;
+		}
+
+		_queue(jobState, System.currentTimeMillis());
+	}
+
+	public void schedule(StoreEvent storeEvent) {
+		schedule(storeEvent.getCompanyId(), storeEvent.getRepositoryId());
+	}
+
+	/**
+	 * Submits the job created by the callable, unless a job of the same key is
+	 * still running, in which case that job is returned and the callable is not
+	 * called. The callable is called while holding the lock of the key so it
+	 * can safely prepare the output of the job.
+	 */
+	public RunningJob submit(String key, Callable<JobConf> callable)
+		throws IOException {
+
+		JobState jobState = null;
+
+		synchronized (this) {
+			jobState = _getJobState(key, 0, 0);
+		}
+
+		synchronized (jobState) {
+			RunningJob runningJob = jobState.getRunningJob();
+
+			if ((runningJob != null) && !runningJob.isComplete()) {
+				return runningJob;
+			}
+
+			jobState.setSubmitError(null);
+			jobState.setSubmitTime(System.currentTimeMillis());
+
+			try {
+				JobConf jobConf = callable.call();
+
+				JobClient jobClient = HadoopManager.getJobClient();
+
+				runningJob = jobClient.submitJob(jobConf);
+			}
+			catch (Exception e) {
+				jobState.setSubmitError(e);
+
+				if (e instanceof IOException) {
+					throw (IOException)e;
+				}
+
+				throw new IOException(e);
+			}
+
+			jobState.setRunningJob(runningJob);
+
+			return runningJob;
+		}
+	}
+
+	public RunningJob submit(String key, final JobConf jobConf)
+		throws IOException {
+
+		return submit(
+			key,
+			new Callable<JobConf>() {
+
+				public JobConf call() {
+					return jobConf;
+				}
+
+			});
+	}
+
+	/**
+	 * Submits like {@link #submit(String, Callable)} from a background thread
+	 * and returns at once. The progress of the submission and of the job is
+	 * read from the returned state.
+	 */
+	public JobState submitAsync(
+		final String key, final Callable<JobConf> callable) {
+
+		final JobState jobState;
+
+		synchronized (this) {
+			jobState = _getJobState(key, 0, 0);
+
+			if (jobState.isSubmitting()) {
+				return jobState;
+			}
+
+			jobState.setSubmitting(true);
+		}
+
+		try {
+			_submitExecutorService.execute(
+				new Runnable() {
+
+					public void run() {
+						try {
+							submit(key, callable);
+						}
+						catch (Exception e) {
+							_log.error("Unable to submit job " + key, e);
+						}
+						finally {
+							jobState.setSubmitting(false);
+						}
+					}
+
+				});
+		}
+		catch (RejectedExecutionException ree) {
+			jobState.setSubmitting(false);
+
+			throw ree;
+		}
+
+		return jobState;
+	}
+
+	private JobScheduler() {
+		ThreadFactory threadFactory = new NamedThreadFactory(
+			JobScheduler.class.getName(), Thread.NORM_PRIORITY,
+			JobScheduler.class.getClassLoader());
+
+		_dispatcherExecutorService =
+			Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+		_dispatcherExecutorService.scheduleWithFixedDelay(
+			new DispatcherRunnable(), _DISPATCH_INTERVAL, _DISPATCH_INTERVAL,
+			TimeUnit.MILLISECONDS);
+
+		_jobExecutorService = Executors.newFixedThreadPool(
+			_MAX_JOBS, threadFactory);
+
+		_submitExecutorService = Executors.newSingleThreadExecutor(
+			threadFactory);
+	}
+
+	private synchronized void _dispatch() {
+		if (_destroyed || (HadoopManager.getServletContext() == null)) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		for (JobState jobState : _jobStates.values()) {
+			if (_runningJobsCount >= _MAX_JOBS) {
+				return;
+			}
+
+			if ((jobState.getStatus() != JobState.STATUS_QUEUED) ||
+				(jobState.getDueTime() > now)) {
+
+				continue;
+			}
+
+			Long companyId = jobState.getCompanyId();
+
+			Integer companyRunningJobsCount = _companyRunningJobsCounts.get(
+				companyId);
+
+			if (companyRunningJobsCount == null) {
+				companyRunningJobsCount = 0;
+			}
+
+			if (companyRunningJobsCount >= _MAX_JOBS_PER_COMPANY) {
+				continue;
+			}
+
+			_companyRunningJobsCounts.put(
+				companyId, companyRunningJobsCount + 1);
+
+			_runningJobsCount++;
+
+			jobState.setDueTime(0);
+			jobState.setLastStartTime(now);
+			jobState.setPending(false);
+			jobState.setRequestsCount(0);
+			jobState.setRunsCount(jobState.getRunsCount() + 1);
+			jobState.setStatus(JobState.STATUS_RUNNING);
+
+			_jobExecutorService.execute(new WordCountRunnable(jobState));
+		}
+	}
+
+	private synchronized void _finish(JobState jobState, Throwable throwable) {
+		Long companyId = jobState.getCompanyId();
+
+		int companyRunningJobsCount = _companyRunningJobsCounts.get(companyId);
+
+		if (companyRunningJobsCount > 1) {
+			_companyRunningJobsCounts.put(
+				companyId, companyRunningJobsCount - 1);
+		}
+		else {
+			_companyRunningJobsCounts.remove(companyId);
+		}
+
+		_runningJobsCount--;
+
+		long now = System.currentTimeMillis();
+
+		jobState.setLastError(throwable);
+		jobState.setLastFinishTime(now);
+
+		if (throwable == null) {
+			jobState.setStatus(JobState.STATUS_SUCCEEDED);
+		}
+		else {
+			jobState.setStatus(JobState.STATUS_FAILED);
+		}
+
+		// A failed run is retried like a new request
+
+		if (jobState.isPending() || (throwable != null)) {
+			jobState.setPending(false);
+
+			_queue(jobState, now);
+		}
+	}
+
+	private JobState _getJobState(
+		String key, long companyId, long repositoryId) {
+
+		JobState jobState = _jobStates.get(key);
+
+		if (jobState == null) {
+			jobState = new JobState(key, companyId, repositoryId);
+
+			_jobStates.put(key, jobState);
+		}
+
+		return jobState;
+	}
+
+	private void _queue(JobState jobState, long now) {
+		if (jobState.getStatus() != JobState.STATUS_QUEUED) {
+			jobState.setFirstRequestTime(now);
+			jobState.setStatus(JobState.STATUS_QUEUED);
+		}
+
+		long dueTime = Math.min(
+			now + _DEBOUNCE_TIME, jobState.getFirstRequestTime() + _MAX_DELAY);
+
+		jobState.setDueTime(dueTime);
+	}
+
+	private static final long _DEBOUNCE_TIME = Math.max(
+		HadoopPropsValues.HADOOP_JOB_SCHEDULER_DEBOUNCE_TIME, 0);
+
+	private static final long _DISPATCH_INTERVAL = 1000;
+
+	private static final long _MAX_DELAY = Math.max(
+		HadoopPropsValues.HADOOP_JOB_SCHEDULER_MAX_DELAY, _DEBOUNCE_TIME);
+
+	private static final int _MAX_JOBS = Math.max(
+		HadoopPropsValues.HADOOP_JOB_SCHEDULER_MAX_JOBS, 1);
+
+	private static final int _MAX_JOBS_PER_COMPANY = Math.max(
+		HadoopPropsValues.HADOOP_JOB_SCHEDULER_MAX_JOBS_PER_COMPANY, 1);
+
+	private static Log _log = LogFactoryUtil.getLog(JobScheduler.class);
+
+	private static JobScheduler _instance = new JobScheduler();
+
+	private final Map<Long, Integer> _companyRunningJobsCounts =
+		new HashMap<Long, Integer>();
+	private boolean _destroyed;
+	private final ScheduledExecutorService _dispatcherExecutorService;
+	private final ExecutorService _jobExecutorService;
+	private final Map<String, JobState> _jobStates =
+		new LinkedHashMap<String, JobState>();
+	private int _runningJobsCount;
+	private final ExecutorService _submitExecutorService;
+
+	private class DispatcherRunnable implements Runnable {
+
+		public void run() {
+			try {
+				_dispatch();
+			}
+			catch (Throwable t) {
+				_log.error(t, t);
+			}
+		}
+
+	}
+
+	private class WordCountRunnable implements Runnable {
+
+		public WordCountRunnable(JobState jobState) {
+			_jobState = jobState;
+		}
+
+		public void run() {
+			long startTime = System.nanoTime();
+
+			Throwable throwable = null;
+
+			WordCountJob wordCountJob = new WordCountJob(
+				_jobState.getCompanyId(), _jobState.getRepositoryId());
+
+			try {
+				wordCountJob.run();
+			}
+			catch (Throwable t) {
+				_log.error(
+					"Unable to count the words of " + _jobState.getKey(), t);
+
+				throwable = t;
+			}
+			finally {
+				MetricsRegistry metricsRegistry =
+					MetricsRegistry.getInstance();
+
+				if (throwable != null) {
+					metricsRegistry.increment("job.wordCount.errors");
+				}
+
+				metricsRegistry.record("job.wordCount", startTime);
+
+				_finish(_jobState, throwable);
+			}
+		}
+
+		private final JobState _jobState;
+
+	}
+
+}
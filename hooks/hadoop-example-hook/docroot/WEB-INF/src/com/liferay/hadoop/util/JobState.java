@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import org.apache.hadoop.mapred.RunningJob;
+
+/**
+ * State of the jobs of a key in the {@link JobScheduler} registry. Scheduling
+ * fields are only changed by the scheduler while it holds its lock, and are
+ * volatile so they can be read without it.
+ *
+ * @author Raymond Augé
+ */
+public class JobState {
+
+	public static final int STATUS_FAILED = 3;
+
+	public static final int STATUS_IDLE = 0;
+
+	public static final int STATUS_QUEUED = 1;
+
+	public static final int STATUS_RUNNING = 2;
+
+	public static final int STATUS_SUCCEEDED = 4;
+
+	public JobState(String key, long companyId, long repositoryId) {
+		_key = key;
+		_companyId = companyId;
+		_repositoryId = repositoryId;
+	}
+
+	public long getCompanyId() {
+		return _companyId;
+	}
+
+	/**
+	 * Returns the time the next run is due, or 0 if no run is queued.
+	 */
+	public long getDueTime() {
+		return _dueTime;
+	}
+
+	public String getKey() {
+		return _key;
+	}
+
+	public Throwable getLastError() {
+		return _lastError;
+	}
+
+	public long getLastFinishTime() {
+		return _lastFinishTime;
+	}
+
+	public long getLastStartTime() {
+		return _lastStartTime;
+	}
+
+	public long getRepositoryId() {
+		return _repositoryId;
+	}
+
+	/**
+	 * Returns the number of requests folded into the queued run.
+	 */
+	public int getRequestsCount() {
+		return _requestsCount;
+	}
+
+	public long getRunsCount() {
+		return _runsCount;
+	}
+
+	/**
+	 * Returns the last job submitted for the key, which may still be running.
+	 */
+	public RunningJob getRunningJob() {
+		return _runningJob;
+	}
+
+	public int getStatus() {
+		return _status;
+	}
+
+	/**
+	 * Returns the error of the last submission, or <code>null</code> if it
+	 * succeeded.
+	 */
+	public Throwable getSubmitError() {
+		return _submitError;
+	}
+
+	public long getSubmitTime() {
+		return _submitTime;
+	}
+
+	public boolean isPending() {
+		return _pending;
+	}
+
+	/**
+	 * Returns <code>true</code> while a job of the key is being prepared and
+	 * submitted in the background.
+	 *
+	 * @see JobScheduler#submitAsync(String, java.util.concurrent.Callable)
+	 */
+	public boolean isSubmitting() {
+		return _submitting;
+	}
+
+	protected long getFirstRequestTime() {
+		return _firstRequestTime;
+	}
+
+	protected void setDueTime(long dueTime) {
+		_dueTime = dueTime;
+	}
+
+	protected void setFirstRequestTime(long firstRequestTime) {
+		_firstRequestTime = firstRequestTime;
+	}
+
+	protected void setLastError(Throwable lastError) {
+		_lastError = lastError;
+	}
+
+	protected void setLastFinishTime(long lastFinishTime) {
+		_lastFinishTime = lastFinishTime;
+	}
+
+	protected void setLastStartTime(long lastStartTime) {
+		_lastStartTime = lastStartTime;
+	}
+
+	protected void setPending(boolean pending) {
+		_pending = pending;
+	}
+
+	protected void setRequestsCount(int requestsCount) {
+		_requestsCount = requestsCount;
+	}
+
+	protected void setRunningJob(RunningJob runningJob) {
+		_runningJob = runningJob;
+	}
+
+	protected void setRunsCount(long runsCount) {
+		_runsCount = runsCount;
+	}
+
+	protected void setStatus(int status) {
+		_status = status;
+	}
+
+	protected void setSubmitError(Throwable submitError) {
+		_submitError = submitError;
+	}
+
+	protected void setSubmitTime(long submitTime) {
+		_submitTime = submitTime;
+	}
+
+	protected void setSubmitting(boolean submitting) {
+		_submitting = submitting;
+	}
+
+	private final long _companyId;
+	private volatile long _dueTime;
+	private volatile long _firstRequestTime;
+	private final String _key;
+	private volatile Throwable _lastError;
+	private volatile long _lastFinishTime;
+	private volatile long _lastStartTime;
+	private volatile boolean _pending;
+	private final long _repositoryId;
+	private volatile int _requestsCount;
+	private volatile RunningJob _runningJob;
+	private volatile long _runsCount;
+	private volatile int _status = STATUS_IDLE;
+	private volatile Throwable _submitError;
+	private volatile long _submitTime;
+	private volatile boolean _submitting;
+
+}
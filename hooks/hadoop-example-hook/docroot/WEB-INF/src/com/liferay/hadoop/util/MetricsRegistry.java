@@ -0,0 +1,352 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import com.liferay.hadoop.search.IndexDocumentWriter;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.apache.hadoop.fs.FileSystem;
+
+/**
+ * Records the latencies and counters of the store, the indexer and the word
+ * count jobs. Latencies are kept in a {@link Histogram} per operation, in
+ * microseconds, and counters in an <code>AtomicLong</code> per name, so
+ * recording allocates nothing once an operation was seen.
+ *
+ * <p>
+ * The registry is also an MBean whose read only attributes are the values
+ * returned by {@link #getValues()}, which adds the gauges of the indexer
+ * queue, the job scheduler and the file systems read when asked.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class MetricsRegistry implements DynamicMBean {
+
+	public static final String OBJECT_NAME =
+		"com.liferay.hadoop:type=MetricsRegistry";
+
+	public static MetricsRegistry getInstance() {
+		return _instance;
+	}
+
+	public void destroy() {
+		if (_objectName == null) {
+			return;
+		}
+
+		try {
+			MBeanServer mBeanServer =
+				ManagementFactory.getPlatformMBeanServer();
+
+			if (mBeanServer.isRegistered(_objectName)) {
+				mBeanServer.unregisterMBean(_objectName);
+			}
+		}
+		catch (Exception e) {
+			_log.error("Unable to unregister " + OBJECT_NAME, e);
+		}
+
+		_objectName = null;
+	}
+
+	public Object getAttribute(String attribute)
+		throws AttributeNotFoundException {
+
+		Long value = getValues().get(attribute);
+
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		return value;
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Long> values = getValues();
+
+		AttributeList attributeList = new AttributeList();
+
+		for (String attribute : attributes) {
+			Long value = values.get(attribute);
+
+			if (value != null) {
+				attributeList.add(new Attribute(attribute, value));
+			}
+		}
+
+		return attributeList;
+	}
+
+	public long getCount(String name) {
+		AtomicLong counter = _counters.get(name);
+
+		if (counter == null) {
+			return 0;
+		}
+
+		return counter.get();
+	}
+
+	public Histogram getHistogram(String name) {
+		Histogram histogram = _histograms.get(name);
+
+		if (histogram == null) {
+			histogram = new Histogram();
+
+			Histogram previousHistogram = _histograms.putIfAbsent(
+				name, histogram);
+
+			if (previousHistogram != null) {
+				histogram = previousHistogram;
+			}
+		}
+
+		return histogram;
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		Map<String, Long> values = getValues();
+
+		MBeanAttributeInfo[] mBeanAttributeInfos =
+			new MBeanAttributeInfo[values.size()];
+
+		int i = 0;
+
+		for (String name : values.keySet()) {
+			mBeanAttributeInfos[i++] = new MBeanAttributeInfo(
+				name, Long.class.getName(), name, true, false, false);
+		}
+
+		return new MBeanInfo(
+			MetricsRegistry.class.getName(), "Hadoop store metrics",
+			mBeanAttributeInfos, null, new MBeanOperationInfo[0], null);
+	}
+
+	/**
+	 * Returns the current value of every metric, sorted by name. A histogram
+	 * named <code>store.write</code> yields <code>store.write.count</code>,
+	 * <code>store.write.mean</code>, <code>store.write.p50</code>,
+	 * <code>store.write.p90</code>, <code>store.write.p99</code>,
+	 * <code>store.write.p999</code> and <code>store.write.max</code>.
+	 */
+	public Map<String, Long> getValues() {
+		Map<String, Long> values = new TreeMap<String, Long>();
+
+		for (Map.Entry<String, AtomicLong> entry : _counters.entrySet()) {
+			AtomicLong counter = entry.getValue();
+
+			values.put(entry.getKey(), counter.get());
+		}
+
+		for (Map.Entry<String, Histogram> entry : _histograms.entrySet()) {
+			String name = entry.getKey();
+			Histogram histogram = entry.getValue();
+
+			values.put(name.concat(".count"), histogram.getCount());
+			values.put(name.concat(".mean"), histogram.getMean());
+			values.put(name.concat(".p50"), histogram.getPercentile(50));
+			values.put(name.concat(".p90"), histogram.getPercentile(90));
+			values.put(name.concat(".p99"), histogram.getPercentile(99));
+			values.put(name.concat(".p999"), histogram.getPercentile(99.9));
+			values.put(name.concat(".max"), histogram.getMax());
+		}
+
+		_addGauges(values);
+
+		return values;
+	}
+
+	public void increment(String name) {
+		increment(name, 1);
+	}
+
+	public void increment(String name, long delta) {
+		if (!_ENABLED) {
+			return;
+		}
+
+		AtomicLong counter = _counters.get(name);
+
+		if (counter == null) {
+			counter = new AtomicLong();
+
+			AtomicLong previousCounter = _counters.putIfAbsent(name, counter);
+
+			if (previousCounter != null) {
+				counter = previousCounter;
+			}
+		}
+
+		counter.addAndGet(delta);
+	}
+
+	public Object invoke(
+			String actionName, Object[] params, String[] signature)
+		throws ReflectionException {
+
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	/**
+	 * Records the time elapsed since the start time, as returned by
+	 * <code>System.nanoTime()</code>, in the histogram of the operation.
+	 */
+	public void record(String name, long startTime) {
+		if (!_ENABLED) {
+			return;
+		}
+
+		Histogram histogram = getHistogram(name);
+
+		histogram.record((System.nanoTime() - startTime) / 1000);
+	}
+
+	/**
+	 * Registers the registry with the platform MBean server. The MBean server
+	 * reads the gauges when it registers the MBean, so this is called once
+	 * the plugin has started rather than when the registry is created.
+	 */
+	public void registerMBean() {
+		if (!_ENABLED || (_objectName != null)) {
+			return;
+		}
+
+		try {
+			ObjectName objectName = new ObjectName(OBJECT_NAME);
+
+			MBeanServer mBeanServer =
+				ManagementFactory.getPlatformMBeanServer();
+
+			// Left behind by a deployment that was not undeployed cleanly
+
+			if (mBeanServer.isRegistered(objectName)) {
+				mBeanServer.unregisterMBean(objectName);
+			}
+
+			mBeanServer.registerMBean(this, objectName);
+
+			_objectName = objectName;
+		}
+		catch (Exception e) {
+			_log.error("Unable to register " + OBJECT_NAME, e);
+		}
+	}
+
+	public void setAttribute(Attribute attribute)
+		throws AttributeNotFoundException {
+
+		throw new AttributeNotFoundException(
+			attribute.getName() + " is read only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	private MetricsRegistry() {
+	}
+
+	private void _addGauges(Map<String, Long> values) {
+		IndexDocumentWriter indexDocumentWriter =
+			IndexDocumentWriter.getInstance();
+
+		values.put(
+			"indexer.documents.written", indexDocumentWriter.getWrittenCount());
+		values.put(
+			"indexer.queue.size", (long)indexDocumentWriter.getQueueSize());
+		values.put(
+			"indexer.segments.open",
+			(long)indexDocumentWriter.getOpenSegmentsCount());
+
+		JobScheduler jobScheduler = JobScheduler.getInstance();
+
+		values.put("job.jobs.queued", (long)jobScheduler.getQueuedJobsCount());
+		values.put(
+			"job.jobs.running", (long)jobScheduler.getRunningJobsCount());
+
+		HadoopExecutor hadoopExecutor = HadoopExecutor.getInstance();
+
+		for (String fileSystemName : HadoopManager.getFileSystemNames()) {
+			String prefix = "fileSystem.".concat(fileSystemName);
+
+			if (hadoopExecutor.isCircuitOpen(fileSystemName)) {
+				values.put(prefix.concat(".circuitOpen"), 1L);
+			}
+			else {
+				values.put(prefix.concat(".circuitOpen"), 0L);
+			}
+
+			values.put(
+				prefix.concat(".calls"),
+				HadoopManager.getCallsCount(fileSystemName));
+			values.put(
+				prefix.concat(".calls.inFlight"),
+				(long)HadoopManager.getInFlightCallsCount(fileSystemName));
+		}
+
+		// Kept by the Hadoop client for every file system scheme, including
+		// the bytes read from and written to the DataNodes
+
+		for (FileSystem.Statistics statistics :
+				FileSystem.getAllStatistics()) {
+
+			String prefix = "io.".concat(statistics.getScheme());
+
+			values.put(
+				prefix.concat(".bytesRead"), statistics.getBytesRead());
+			values.put(
+				prefix.concat(".bytesWritten"), statistics.getBytesWritten());
+			values.put(
+				prefix.concat(".readOps"), (long)statistics.getReadOps());
+			values.put(
+				prefix.concat(".writeOps"), (long)statistics.getWriteOps());
+		}
+	}
+
+	private static final boolean _ENABLED =
+		HadoopPropsValues.HADOOP_METRICS_ENABLED;
+
+	private static Log _log = LogFactoryUtil.getLog(MetricsRegistry.class);
+
+	private static MetricsRegistry _instance = new MetricsRegistry();
+
+	private final ConcurrentMap<String, AtomicLong> _counters =
+		new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, Histogram> _histograms =
+		new ConcurrentHashMap<String, Histogram>();
+	private volatile ObjectName _objectName;
+
+}
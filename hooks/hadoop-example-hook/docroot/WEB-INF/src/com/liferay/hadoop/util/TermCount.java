@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+/**
+ * @author Raymond Augé
+ */
+public class TermCount {
+
+	public TermCount(String term, long count) {
+		_term = term;
+		_count = count;
+	}
+
+	public long getCount() {
+		return _count;
+	}
+
+	public String getTerm() {
+		return _term;
+	}
+
+	@Override
+	public String toString() {
+		return _term.concat("=").concat(String.valueOf(_count));
+	}
+
+	private final long _count;
+	private final String _term;
+
+}
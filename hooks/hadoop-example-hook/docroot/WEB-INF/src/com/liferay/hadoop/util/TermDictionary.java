@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Immutable dictionary of the word counts of a repository. Terms are kept as
+ * UTF-8 bytes in a single array sorted by term, so a count is looked up with
+ * a binary search, and a second array orders the terms by descending count
+ * for top terms queries.
+ *
+ * @author Raymond Augé
+ */
+public class TermDictionary {
+
+	public long getCount(String term) {
+		byte[] bytes = term.getBytes(_UTF8);
+
+		int low = 0;
+		int high = _counts.length - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+
+			int value = WritableComparator.compareBytes(
+				_termBytes, _offsets[middle],
+				_offsets[middle + 1] - _offsets[middle], bytes, 0,
+				bytes.length);
+
+			if (value < 0) {
+				low = middle + 1;
+			}
+			else if (value > 0) {
+				high = middle - 1;
+			}
+			else {
+				return _counts[middle];
+			}
+		}
+
+		return 0;
+	}
+
+	public long getLoadTime() {
+		return _loadTime;
+	}
+
+	/**
+	 * Returns the modification time of the results the dictionary was loaded
+	 * from.
+	 */
+	public long getResultsTime() {
+		return _resultsTime;
+	}
+
+	public int getTermsCount() {
+		return _counts.length;
+	}
+
+	/**
+	 * Returns the terms with the highest counts, highest first.
+	 */
+	public List<TermCount> getTopTerms(int size) {
+		size = Math.min(size, _topIndexes.length);
+
+		if (size <= 0) {
+			return Collections.emptyList();
+		}
+
+		List<TermCount> termCounts = new ArrayList<TermCount>(size);
+
+		for (int i = 0; i < size; i++) {
+			int index = _topIndexes[i];
+
+			termCounts.add(new TermCount(_getTerm(index), _counts[index]));
+		}
+
+		return termCounts;
+	}
+
+	public long getTotalCount() {
+		return _totalCount;
+	}
+
+	/**
+	 * Builds a dictionary from terms and counts in any order.
+	 *
+	 * @param termBytes the UTF-8 bytes of the terms, one after the other
+	 * @param offsets the offset of each term, followed by the end of the last
+	 *        term
+	 * @param counts the count of each term
+	 * @param size the number of terms
+	 */
+	protected TermDictionary(
+		byte[] termBytes, int[] offsets, long[] counts, int size,
+		long resultsTime) {
+
+		Integer[] indexes = new Integer[size];
+
+		for (int i = 0; i < size; i++) {
+			indexes[i] = i;
+		}
+
+		Arrays.sort(indexes, new TermComparator(termBytes, offsets));
+
+		_counts = new long[size];
+		_offsets = new int[size + 1];
+		_termBytes = new byte[offsets[size]];
+
+		int offset = 0;
+		long totalCount = 0;
+
+		for (int i = 0; i < size; i++) {
+			int index = indexes[i];
+
+			int length = offsets[index + 1] - offsets[index];
+
+			System.arraycopy(
+				termBytes, offsets[index], _termBytes, offset, length);
+
+			_counts[i] = counts[index];
+			_offsets[i] = offset;
+
+			offset += length;
+			totalCount += counts[index];
+		}
+
+		_offsets[size] = offset;
+
+		for (int i = 0; i < size; i++) {
+			indexes[i] = i;
+		}
+
+		Arrays.sort(indexes, new CountComparator(_counts));
+
+		_topIndexes = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			_topIndexes[i] = indexes[i];
+		}
+
+		_loadTime = System.currentTimeMillis();
+		_resultsTime = resultsTime;
+		_totalCount = totalCount;
+	}
+
+	private String _getTerm(int index) {
+		return new String(
+			_termBytes, _offsets[index], _offsets[index + 1] - _offsets[index],
+			_UTF8);
+	}
+
+	private static final Charset _UTF8 = Charset.forName("UTF-8");
+
+	private final long[] _counts;
+	private final long _loadTime;
+	private final int[] _offsets;
+	private final long _resultsTime;
+	private final byte[] _termBytes;
+	private final int[] _topIndexes;
+	private final long _totalCount;
+
+	private static class CountComparator implements Comparator<Integer> {
+
+		public CountComparator(long[] counts) {
+			_counts = counts;
+		}
+
+		public int compare(Integer index1, Integer index2) {
+			long count1 = _counts[index1];
+			long count2 = _counts[index2];
+
+			if (count1 > count2) {
+				return -1;
+			}
+			else if (count1 < count2) {
+				return 1;
+			}
+
+			return index1.compareTo(index2);
+		}
+
+		private final long[] _counts;
+
+	}
+
+	private static class TermComparator implements Comparator<Integer> {
+
+		public TermComparator(byte[] termBytes, int[] offsets) {
+			_termBytes = termBytes;
+			_offsets = offsets;
+		}
+
+		public int compare(Integer index1, Integer index2) {
+			return WritableComparator.compareBytes(
+				_termBytes, _offsets[index1],
+				_offsets[index1 + 1] - _offsets[index1], _termBytes,
+				_offsets[index2], _offsets[index2 + 1] - _offsets[index2]);
+		}
+
+		private final int[] _offsets;
+		private final byte[] _termBytes;
+
+	}
+
+}
@@ -0,0 +1,684 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import com.liferay.hadoop.job.DocumentReduce;
+import com.liferay.hadoop.job.DocumentWritable;
+import com.liferay.hadoop.job.Map;
+import com.liferay.hadoop.job.MergeMap;
+import com.liferay.hadoop.job.Reduce;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.GetterUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.KeyValueTextInputFormat;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.MultipleInputs;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+
+/**
+ * Counts the words of the index segments of a repository that were not
+ * counted yet and merges them into the repository's existing results.
+ *
+ * <p>
+ * A documents job reads the new segments with {@link Map} and the version of
+ * each document the results hold, kept in the <code>_documents</code>
+ * directory of the results. {@link DocumentReduce} keeps the latest version
+ * of each document and writes how the term counts change, so a document
+ * indexed again replaces its counts and a deleted document is subtracted. A
+ * counts job then sums those changes and the previous results with
+ * {@link MergeMap}. Once the new results and documents replace the old ones
+ * in a single rename, the segments are moved to
+ * <code>/index/.../merged</code> and the watermark under
+ * <code>/wordcount/...</code> is advanced. The location of a segment is
+ * therefore what tells whether it was counted, and a segment read twice
+ * changes nothing.
+ * </p>
+ *
+ * <p>
+ * Only the new segments are tokenized, but the join is not incremental. Every
+ * run reads, shuffles and rewrites the whole <code>_documents</code>
+ * directory, which holds the term counts of every counted document, and reads
+ * and rewrites the whole previous results. The cost of a run therefore grows
+ * with the size of the repository, not with the size of its new segments.
+ * Counting fewer, larger batches of segments, through the debounce time and
+ * maximum delay of the {@link JobScheduler}, amortizes it.
+ * </p>
+ *
+ * <p>
+ * Results counted before documents were kept are recounted from every
+ * segment of the repository.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class WordCountJob {
+
+	public static final String OUTPUT_FORMAT_MAP = "map";
+
+	public static final String OUTPUT_FORMAT_TEXT = "text";
+
+	public static final String SEGMENT_PREFIX = "segment-";
+
+	/**
+	 * Returns a job summing the changes of the term counts written by a
+	 * documents job and the counts of the previous results, if there are any,
+	 * into the output path.
+	 *
+	 * @see #createDocumentsJobConf(FileSystem, String, List, Path, Path)
+	 */
+	public static JobConf createCountsJobConf(
+			FileSystem fileSystem, String jobName, Path documentsPath,
+			Path resultsPath, Path outputPath)
+		throws IOException {
+
+		JobConf jobConf = HadoopManager.createNewJobConf();
+
+		jobConf.setJobName(jobName);
+		jobConf.setJarByClass(Map.class);
+		jobConf.setOutputKeyClass(Text.class);
+		jobConf.setOutputValueClass(VLongWritable.class);
+		jobConf.setCombinerClass(Reduce.class);
+		jobConf.setReducerClass(Reduce.class);
+
+		setOutputFormat(jobConf);
+
+		DistributedCache.addArchiveToClassPath(
+			HadoopManager.getJobJarPath(), jobConf, fileSystem);
+
+		Path countsPath = getCountsPath(documentsPath);
+
+		FileStatus[] countsFileStatuses = fileSystem.globStatus(countsPath);
+
+		if ((countsFileStatuses != null) && (countsFileStatuses.length > 0)) {
+			MultipleInputs.addInputPath(
+				jobConf, countsPath, SequenceFileInputFormat.class,
+				MergeMap.class);
+		}
+
+		if ((resultsPath != null) && fileSystem.exists(resultsPath)) {
+			if (isMapFileResults(fileSystem, resultsPath)) {
+				MultipleInputs.addInputPath(
+					jobConf, resultsPath, SequenceFileInputFormat.class,
+					MergeMap.class);
+			}
+			else {
+				MultipleInputs.addInputPath(
+					jobConf, resultsPath, KeyValueTextInputFormat.class,
+					MergeMap.class);
+			}
+		}
+
+		FileOutputFormat.setOutputPath(jobConf, outputPath);
+
+		return jobConf;
+	}
+
+	/**
+	 * Returns a job keeping the latest version of every document of the index
+	 * segments and of the counted documents, if there are any. The documents
+	 * are written to the output path, and the changes of the term counts to
+	 * the files of {@link #getCountsPath(Path)}, to be summed by a counts job.
+	 * Every counted document is read and written again, including those the
+	 * segments do not touch.
+	 *
+	 * @see #createCountsJobConf(FileSystem, String, Path, Path, Path)
+	 */
+	public static JobConf createDocumentsJobConf(
+			FileSystem fileSystem, String jobName, List<Path> segmentPaths,
+			Path documentsPath, Path outputPath)
+		throws IOException {
+
+		JobConf jobConf = HadoopManager.createNewJobConf();
+
+		jobConf.setJobName(jobName);
+		jobConf.setJarByClass(Map.class);
+		jobConf.setMapOutputKeyClass(Text.class);
+		jobConf.setMapOutputValueClass(DocumentWritable.class);
+		jobConf.setOutputKeyClass(Text.class);
+		jobConf.setOutputValueClass(DocumentWritable.class);
+		jobConf.setReducerClass(DocumentReduce.class);
+		jobConf.setOutputFormat(SequenceFileOutputFormat.class);
+
+		MultipleOutputs.addNamedOutput(
+			jobConf, DocumentReduce.COUNTS, SequenceFileOutputFormat.class,
+			Text.class, VLongWritable.class);
+
+		DistributedCache.addArchiveToClassPath(
+			HadoopManager.getJobJarPath(), jobConf, fileSystem);
+
+		for (Path segmentPath : segmentPaths) {
+			MultipleInputs.addInputPath(
+				jobConf, segmentPath, TextInputFormat.class, Map.class);
+		}
+
+		if (documentsPath != null) {
+			MultipleInputs.addInputPath(
+				jobConf, new Path(documentsPath, "part-*"),
+				SequenceFileInputFormat.class, IdentityMapper.class);
+		}
+
+		FileOutputFormat.setOutputPath(jobConf, outputPath);
+
+		return jobConf;
+	}
+
+	/**
+	 * Returns the pattern of the files holding the changes of the term counts
+	 * written by a documents job to the output path.
+	 */
+	public static Path getCountsPath(Path outputPath) {
+		return new Path(outputPath, DocumentReduce.COUNTS + "-*");
+	}
+
+	/**
+	 * Returns the part files of the results, which are directories when the
+	 * results were written as map files, skipping the job's own files.
+	 */
+	public static FileStatus[] getResultsPartStatuses(
+			FileSystem fileSystem, Path resultsPath)
+		throws IOException {
+
+		FileStatus[] fileStatuses = fileSystem.listStatus(
+			resultsPath, _partPathFilter);
+
+		if (fileStatuses == null) {
+			return new FileStatus[0];
+		}
+
+		return fileStatuses;
+	}
+
+	/**
+	 * Returns <code>true</code> if the results were written as map files, one
+	 * directory per reducer, rather than as text.
+	 */
+	public static boolean isMapFileResults(
+			FileSystem fileSystem, Path resultsPath)
+		throws IOException {
+
+		FileStatus[] fileStatuses = getResultsPartStatuses(
+			fileSystem, resultsPath);
+
+		if (fileStatuses.length == 0) {
+			return false;
+		}
+
+		return fileStatuses[0].isDir();
+	}
+
+	/**
+	 * Submits the job under the key and waits for it to complete. The output
+	 * of the job is deleted if it fails.
+	 *
+	 * @see JobScheduler#submit(String, JobConf)
+	 */
+	public static void runJob(String key, JobConf jobConf) throws IOException {
+		JobScheduler jobScheduler = JobScheduler.getInstance();
+
+		RunningJob runningJob = jobScheduler.submit(key, jobConf);
+
+		runningJob.waitForCompletion();
+
+		if (runningJob.isSuccessful()) {
+			return;
+		}
+
+		Path outputPath = FileOutputFormat.getOutputPath(jobConf);
+
+		FileSystem fileSystem = HadoopManager.getFileSystem();
+
+		fileSystem.delete(outputPath, true);
+
+		throw new IOException(
+			"Job " + runningJob.getID() + " failed to write " + outputPath);
+	}
+
+	/**
+	 * Sets the output format configured by
+	 * <code>hadoop.word.count.output.format</code>. Map file results are
+	 * block compressed with the configured codec and sorted by word, so the
+	 * count of a word can be looked up without reading the whole results.
+	 */
+	public static void setOutputFormat(JobConf jobConf) {
+		String outputFormat = HadoopPropsValues.HADOOP_WORD_COUNT_OUTPUT_FORMAT;
+
+		if (!outputFormat.equals(OUTPUT_FORMAT_MAP)) {
+			jobConf.setOutputFormat(TextOutputFormat.class);
+
+			return;
+		}
+
+		jobConf.setOutputFormat(MapFileOutputFormat.class);
+
+		String codec =
+			HadoopPropsValues.HADOOP_WORD_COUNT_OUTPUT_COMPRESSION_CODEC;
+
+		if (codec.equals("deflate")) {
+			FileOutputFormat.setOutputCompressorClass(
+				jobConf, DefaultCodec.class);
+		}
+		else if (codec.equals("snappy")) {
+			FileOutputFormat.setOutputCompressorClass(
+				jobConf, SnappyCodec.class);
+		}
+		else {
+			FileOutputFormat.setCompressOutput(jobConf, false);
+
+			return;
+		}
+
+		FileOutputFormat.setCompressOutput(jobConf, true);
+		SequenceFileOutputFormat.setOutputCompressionType(
+			jobConf, SequenceFile.CompressionType.BLOCK);
+	}
+
+	public WordCountJob(long companyId, long repositoryId) {
+		_companyId = companyId;
+		_repositoryId = repositoryId;
+
+		String fullDirName = HadoopManager.getFullDirName(
+			companyId, repositoryId, null);
+
+		_indexPath = new Path("/index".concat(fullDirName));
+		_mergedPath = new Path(_indexPath, "merged");
+		_wordCountPath = new Path("/wordcount".concat(fullDirName));
+		_previousResultsPath = new Path(_wordCountPath, ".results-previous");
+		_resultsPath = new Path(_wordCountPath, "results");
+	}
+
+	public long getCompanyId() {
+		return _companyId;
+	}
+
+	public long getRepositoryId() {
+		return _repositoryId;
+	}
+
+	public Path getResultsPath() {
+		return _resultsPath;
+	}
+
+	/**
+	 * Returns the watermark of the repository, or an empty set of properties
+	 * if nothing was counted yet.
+	 */
+	public Properties getWatermark() throws IOException {
+		FileSystem fileSystem = HadoopManager.getFileSystem();
+
+		Properties properties = new Properties();
+
+		InputStream inputStream = null;
+
+		try {
+			inputStream = fileSystem.open(
+				new Path(_wordCountPath, _WATERMARK_NAME));
+
+			properties.load(inputStream);
+		}
+		catch (FileNotFoundException fnfe) {
+		}
+		finally {
+			StreamUtil.cleanUp(inputStream);
+		}
+
+		return properties;
+	}
+
+	/**
+	 * Runs the job if the repository has segments that were not counted yet
+	 * and waits for it to complete. Returns <code>false</code> if there was
+	 * nothing to count or another portal node is counting the repository.
+	 */
+	public boolean run() throws IOException {
+		FileSystem fileSystem = HadoopManager.getFileSystem();
+
+		List<Path> segmentPaths = _getSegmentPaths(fileSystem, _indexPath);
+
+		if (segmentPaths.isEmpty()) {
+			return false;
+		}
+
+		Path lockPath = new Path(_wordCountPath, _LOCK_NAME);
+
+		try {
+			fileSystem.create(lockPath, false).close();
+		}
+		catch (IOException ioe) {
+			_releaseStaleLock(fileSystem, lockPath);
+
+			return false;
+		}
+
+		try {
+
+			// Segments may have been merged by another node before the lock
+			// was taken
+
+			segmentPaths = _getSegmentPaths(fileSystem, _indexPath);
+
+			if (segmentPaths.isEmpty()) {
+				return false;
+			}
+
+			_restoreResults(fileSystem);
+
+			_run(fileSystem, segmentPaths);
+
+			return true;
+		}
+		finally {
+			fileSystem.delete(lockPath, false);
+		}
+	}
+
+	private List<Path> _getSegmentPaths(FileSystem fileSystem, Path dirPath)
+		throws IOException {
+
+		FileStatus[] fileStatuses = fileSystem.listStatus(
+			dirPath,
+			new PathFilter() {
+
+				public boolean accept(Path path) {
+					String name = path.getName();
+
+					return name.startsWith(SEGMENT_PREFIX);
+				}
+
+			});
+
+		if (fileStatuses == null) {
+			return Collections.emptyList();
+		}
+
+		List<Path> segmentPaths = new ArrayList<Path>(fileStatuses.length);
+
+		for (FileStatus fileStatus : fileStatuses) {
+			if (!fileStatus.isDir()) {
+				segmentPaths.add(fileStatus.getPath());
+			}
+		}
+
+		Collections.sort(segmentPaths, _pathNameComparator);
+
+		return segmentPaths;
+	}
+
+	private void _releaseStaleLock(FileSystem fileSystem, Path lockPath) {
+		try {
+			FileStatus fileStatus = fileSystem.getFileStatus(lockPath);
+
+			long age =
+				System.currentTimeMillis() - fileStatus.getModificationTime();
+
+			if (age > _LOCK_TIMEOUT) {
+				fileSystem.delete(lockPath, false);
+			}
+		}
+		catch (IOException ioe) {
+			if (_log.isDebugEnabled()) {
+				_log.debug(ioe, ioe);
+			}
+		}
+	}
+
+	private void _rename(FileSystem fileSystem, Path path, Path newPath)
+		throws IOException {
+
+		if (!fileSystem.rename(path, newPath)) {
+			throw new IOException(
+				"Unable to rename " + path + " to " + newPath);
+		}
+	}
+
+	/**
+	 * Puts back the previous results if a run failed after moving them away
+	 * and before the new results took their place. The segments of that run
+	 * were not moved yet and are counted again.
+	 */
+	private void _restoreResults(FileSystem fileSystem) throws IOException {
+		if (fileSystem.exists(_resultsPath) ||
+			!fileSystem.exists(_previousResultsPath)) {
+
+			return;
+		}
+
+		_rename(fileSystem, _previousResultsPath, _resultsPath);
+
+		if (_log.isWarnEnabled()) {
+			_log.warn("Restored the previous results of " + _wordCountPath);
+		}
+	}
+
+	private void _run(FileSystem fileSystem, List<Path> segmentPaths)
+		throws IOException {
+
+		long startTime = System.currentTimeMillis();
+
+		String key = JobScheduler.getKey(_companyId, _repositoryId);
+
+		Path countedDocumentsPath = new Path(_resultsPath, _DOCUMENTS_NAME);
+		List<Path> inputPaths = segmentPaths;
+		Path resultsPath = _resultsPath;
+
+		if (!fileSystem.exists(countedDocumentsPath)) {
+			countedDocumentsPath = null;
+
+			if (fileSystem.exists(_resultsPath)) {
+				inputPaths = new ArrayList<Path>(segmentPaths);
+
+				inputPaths.addAll(_getSegmentPaths(fileSystem, _mergedPath));
+
+				resultsPath = null;
+
+				if (_log.isInfoEnabled()) {
+					_log.info(
+						"Recounting every segment of " + _indexPath +
+							" because its results have no documents");
+				}
+			}
+		}
+
+		Path documentsPath = new Path(
+			_wordCountPath, ".documents-" + startTime);
+		Path outputPath = new Path(_wordCountPath, ".results-" + startTime);
+
+		try {
+			runJob(
+				key,
+				createDocumentsJobConf(
+					fileSystem, "Word Count Documents " + _indexPath,
+					inputPaths, countedDocumentsPath, documentsPath));
+
+			FileStatus[] countsFileStatuses = fileSystem.globStatus(
+				getCountsPath(documentsPath));
+
+			if (countsFileStatuses == null) {
+				countsFileStatuses = new FileStatus[0];
+			}
+
+			// The results are written again even if no count changed, so they
+			// are replaced together with the documents
+
+			if ((countsFileStatuses.length > 0) ||
+				((resultsPath != null) && fileSystem.exists(resultsPath))) {
+
+				runJob(
+					key,
+					createCountsJobConf(
+						fileSystem, "Word Count " + _indexPath, documentsPath,
+						resultsPath, outputPath));
+			}
+			else if (!fileSystem.mkdirs(outputPath)) {
+				throw new IOException("Unable to create " + outputPath);
+			}
+
+			for (FileStatus countsFileStatus : countsFileStatuses) {
+				fileSystem.delete(countsFileStatus.getPath(), false);
+			}
+
+			_rename(
+				fileSystem, documentsPath,
+				new Path(outputPath, _DOCUMENTS_NAME));
+
+			// Replace the results and their documents together, then move the
+			// segments. A failure in between leaves segments that are read
+			// again, which changes nothing once their documents are counted.
+
+			fileSystem.delete(_previousResultsPath, true);
+
+			if (fileSystem.exists(_resultsPath)) {
+				_rename(fileSystem, _resultsPath, _previousResultsPath);
+			}
+
+			_rename(fileSystem, outputPath, _resultsPath);
+		}
+		finally {
+			fileSystem.delete(documentsPath, true);
+			fileSystem.delete(outputPath, true);
+		}
+
+		fileSystem.mkdirs(_mergedPath);
+
+		for (Path segmentPath : segmentPaths) {
+			_rename(
+				fileSystem, segmentPath,
+				new Path(_mergedPath, segmentPath.getName()));
+		}
+
+		_writeWatermark(fileSystem, segmentPaths, startTime);
+
+		WordCountResultService wordCountResultService =
+			WordCountResultService.getInstance();
+
+		wordCountResultService.refresh(_companyId, _repositoryId);
+
+		if (_log.isInfoEnabled()) {
+			_log.info(
+				"Merged the word counts of " + segmentPaths.size() +
+					" segments of " + _indexPath + " in " +
+						(System.currentTimeMillis() - startTime) + " ms");
+		}
+	}
+
+	private void _writeWatermark(
+			FileSystem fileSystem, List<Path> segmentPaths, long startTime)
+		throws IOException {
+
+		Properties properties = getWatermark();
+
+		long segmentsCount = GetterUtil.getLong(
+			properties.getProperty(_SEGMENTS_COUNT));
+
+		Path lastSegmentPath = segmentPaths.get(segmentPaths.size() - 1);
+
+		properties.setProperty(
+			_SEGMENTS_COUNT,
+			String.valueOf(segmentsCount + segmentPaths.size()));
+		properties.setProperty(_LAST_SEGMENT_NAME, lastSegmentPath.getName());
+		properties.setProperty(_LAST_MERGE_TIME, String.valueOf(startTime));
+
+		OutputStream outputStream = null;
+
+		try {
+			outputStream = fileSystem.create(
+				new Path(_wordCountPath, _WATERMARK_NAME), true);
+
+			properties.store(outputStream, null);
+
+			outputStream.close();
+		}
+		finally {
+			StreamUtil.cleanUp(outputStream);
+		}
+	}
+
+	private static final String _DOCUMENTS_NAME = "_documents";
+
+	private static final String _LAST_MERGE_TIME = "last.merge.time";
+
+	private static final String _LAST_SEGMENT_NAME = "last.segment.name";
+
+	private static final String _LOCK_NAME = ".lock";
+
+	private static final long _LOCK_TIMEOUT = 6 * 60 * 60 * 1000;
+
+	private static final String _SEGMENTS_COUNT = "segments.count";
+
+	private static final String _WATERMARK_NAME = "watermark";
+
+	private static Log _log = LogFactoryUtil.getLog(WordCountJob.class);
+
+	private static Comparator<Path> _pathNameComparator =
+		new Comparator<Path>() {
+
+			public int compare(Path path1, Path path2) {
+				String name1 = path1.getName();
+
+				return name1.compareTo(path2.getName());
+			}
+
+		};
+
+	private static PathFilter _partPathFilter = new PathFilter() {
+
+		public boolean accept(Path path) {
+			String name = path.getName();
+
+			return name.startsWith("part-");
+		}
+
+	};
+
+	private final long _companyId;
+	private final Path _indexPath;
+	private final Path _mergedPath;
+	private final Path _previousResultsPath;
+	private final long _repositoryId;
+	private final Path _resultsPath;
+	private final Path _wordCountPath;
+
+}
\ No newline at end of file
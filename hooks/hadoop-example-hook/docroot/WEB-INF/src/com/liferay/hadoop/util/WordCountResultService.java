@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.util.NamedThreadFactory;
+import com.liferay.portal.kernel.util.StreamUtil;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * Answers term count and top terms queries from the word count results of a
+ * repository without reading HDFS per request.
+ *
+ * <p>
+ * The results of a repository are loaded into a {@link TermDictionary} the
+ * first time they are queried. Afterwards, the modification time of the
+ * results is checked in the background at most once per check interval, and
+ * a new dictionary replaces the old one once it is fully loaded. Queries
+ * never wait for a reload and always see a complete dictionary.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class WordCountResultService {
+
+	public static WordCountResultService getInstance() {
+		return _instance;
+	}
+
+	public void destroy() {
+		_executorService.shutdownNow();
+
+		_termDictionaries.clear();
+	}
+
+	public long getCount(long companyId, long repositoryId, String term)
+		throws IOException {
+
+		TermDictionary termDictionary = getTermDictionary(
+			companyId, repositoryId);
+
+		if (termDictionary == null) {
+			return 0;
+		}
+
+		return termDictionary.getCount(term);
+	}
+
+	/**
+	 * Returns the dictionary of the repository, loading it first if it was
+	 * never loaded, or <code>null</code> if the words of the repository were
+	 * never counted.
+	 */
+	public TermDictionary getTermDictionary(long companyId, long repositoryId)
+		throws IOException {
+
+		String key = JobScheduler.getKey(companyId, repositoryId);
+
+		Entry entry = _termDictionaries.get(key);
+
+		if (entry == null) {
+			entry = new Entry(companyId, repositoryId);
+
+			Entry previousEntry = _termDictionaries.putIfAbsent(key, entry);
+
+			if (previousEntry != null) {
+				entry = previousEntry;
+			}
+		}
+
+		return entry.getTermDictionary();
+	}
+
+	public List<TermCount> getTopTerms(
+			long companyId, long repositoryId, int size)
+		throws IOException {
+
+		TermDictionary termDictionary = getTermDictionary(
+			companyId, repositoryId);
+
+		if (termDictionary == null) {
+			return Collections.emptyList();
+		}
+
+		return termDictionary.getTopTerms(size);
+	}
+
+	/**
+	 * Reloads the dictionary of the repository in the background if it was
+	 * loaded before. Called when a word count job of this JVM replaced the
+	 * results of the repository.
+	 */
+	public void refresh(long companyId, long repositoryId) {
+		Entry entry = _termDictionaries.get(
+			JobScheduler.getKey(companyId, repositoryId));
+
+		if (entry != null) {
+			entry.refresh();
+		}
+	}
+
+	/**
+	 * Loads the results written by a word count job, whether text or map
+	 * files, or returns <code>null</code> if there are no results.
+	 */
+	protected TermDictionary load(Path resultsPath) throws IOException {
+		long startTime = System.nanoTime();
+
+		FileSystem fileSystem = HadoopManager.getFileSystem();
+
+		FileStatus resultsFileStatus = null;
+
+		try {
+			resultsFileStatus = fileSystem.getFileStatus(resultsPath);
+		}
+		catch (FileNotFoundException fnfe) {
+			return null;
+		}
+
+		FileStatus[] fileStatuses = WordCountJob.getResultsPartStatuses(
+			fileSystem, resultsPath);
+
+		TermsBuffer termsBuffer = new TermsBuffer();
+
+		for (FileStatus fileStatus : fileStatuses) {
+			if (fileStatus.isDir()) {
+				_loadMapFile(fileSystem, fileStatus.getPath(), termsBuffer);
+			}
+			else {
+				_loadText(fileSystem, fileStatus.getPath(), termsBuffer);
+			}
+		}
+
+		TermDictionary termDictionary = new TermDictionary(
+			termsBuffer._termBytes, termsBuffer._offsets, termsBuffer._counts,
+			termsBuffer._size, resultsFileStatus.getModificationTime());
+
+		_metricsRegistry.record("results.load", startTime);
+
+		return termDictionary;
+	}
+
+	private WordCountResultService() {
+		_executorService = Executors.newSingleThreadExecutor(
+			new NamedThreadFactory(
+				WordCountResultService.class.getName(), Thread.NORM_PRIORITY,
+				WordCountResultService.class.getClassLoader()));
+	}
+
+	private void _loadMapFile(
+			FileSystem fileSystem, Path path, TermsBuffer termsBuffer)
+		throws IOException {
+
+		SequenceFile.Reader reader = new SequenceFile.Reader(
+			fileSystem, new Path(path, MapFile.DATA_FILE_NAME),
+			fileSystem.getConf());
+
+		try {
+			Text key = new Text();
+			VLongWritable value = new VLongWritable();
+
+			while (reader.next(key, value)) {
+				termsBuffer.add(
+					key.getBytes(), 0, key.getLength(), value.get());
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private void _loadText(
+			FileSystem fileSystem, Path path, TermsBuffer termsBuffer)
+		throws IOException {
+
+		InputStream inputStream = fileSystem.open(path);
+
+		try {
+			LineReader lineReader = new LineReader(inputStream);
+
+			Text line = new Text();
+
+			while (lineReader.readLine(line) > 0) {
+				byte[] bytes = line.getBytes();
+				int length = line.getLength();
+
+				int pos = length - 1;
+
+				while ((pos >= 0) && (bytes[pos] != '\t')) {
+					pos--;
+				}
+
+				if (pos < 0) {
+					continue;
+				}
+
+				long count = 0;
+
+				for (int i = pos + 1; i < length; i++) {
+					count = (count * 10) + (bytes[i] - '0');
+				}
+
+				termsBuffer.add(bytes, 0, pos, count);
+			}
+		}
+		finally {
+			StreamUtil.cleanUp(inputStream);
+		}
+	}
+
+	private static final long _CHECK_INTERVAL = Math.max(
+		HadoopPropsValues.HADOOP_WORD_COUNT_RESULT_CHECK_INTERVAL, 0);
+
+	private static Log _log = LogFactoryUtil.getLog(
+		WordCountResultService.class);
+
+	private static WordCountResultService _instance =
+		new WordCountResultService();
+
+	private final ExecutorService _executorService;
+	private final MetricsRegistry _metricsRegistry =
+		MetricsRegistry.getInstance();
+	private final ConcurrentMap<String, Entry> _termDictionaries =
+		new ConcurrentHashMap<String, Entry>();
+
+	private static class TermsBuffer {
+
+		public void add(byte[] bytes, int offset, int length, long count) {
+			if (_size == _counts.length) {
+				_counts = Arrays.copyOf(_counts, _size * 2);
+				_offsets = Arrays.copyOf(_offsets, (_size * 2) + 1);
+			}
+
+			int end = _offsets[_size] + length;
+
+			if (end > _termBytes.length) {
+				_termBytes = Arrays.copyOf(
+					_termBytes, Math.max(_termBytes.length * 2, end));
+			}
+
+			System.arraycopy(
+				bytes, offset, _termBytes, _offsets[_size], length);
+
+			_counts[_size] = count;
+			_offsets[++_size] = end;
+		}
+
+		private long[] _counts = new long[1024];
+		private int[] _offsets = new int[1025];
+		private int _size;
+		private byte[] _termBytes = new byte[8192];
+
+	}
+
+	private class Entry implements Runnable {
+
+		public Entry(long companyId, long repositoryId) {
+			_resultsPath = new WordCountJob(
+				companyId, repositoryId).getResultsPath();
+		}
+
+		public TermDictionary getTermDictionary() throws IOException {
+			if (!_loaded) {
+				synchronized (this) {
+					if (!_loaded) {
+						_termDictionary = load(_resultsPath);
+						_checkTime = System.currentTimeMillis();
+						_loaded = true;
+
+						return _termDictionary;
+					}
+				}
+			}
+
+			if ((System.currentTimeMillis() - _checkTime) > _CHECK_INTERVAL) {
+				refresh();
+			}
+
+			return _termDictionary;
+		}
+
+		public void refresh() {
+			synchronized (this) {
+				if (_refreshing) {
+					return;
+				}
+
+				_refreshing = true;
+			}
+
+			_executorService.execute(this);
+		}
+
+		public void run() {
+			try {
+				FileSystem fileSystem = HadoopManager.getFileSystem();
+
+				long resultsTime = 0;
+
+				try {
+					FileStatus fileStatus = fileSystem.getFileStatus(
+						_resultsPath);
+
+					resultsTime = fileStatus.getModificationTime();
+				}
+				catch (FileNotFoundException fnfe) {
+				}
+
+				TermDictionary termDictionary = _termDictionary;
+
+				if ((termDictionary == null) ||
+					(termDictionary.getResultsTime() != resultsTime)) {
+
+					_termDictionary = load(_resultsPath);
+				}
+			}
+			catch (Exception e) {
+				_log.error("Unable to load " + _resultsPath, e);
+			}
+			finally {
+				synchronized (this) {
+					_checkTime = System.currentTimeMillis();
+					_refreshing = false;
+				}
+			}
+		}
+
+		private volatile long _checkTime;
+		private volatile boolean _loaded;
+		private boolean _refreshing;
+		private final Path _resultsPath;
+		private volatile TermDictionary _termDictionary;
+
+	}
+
+}
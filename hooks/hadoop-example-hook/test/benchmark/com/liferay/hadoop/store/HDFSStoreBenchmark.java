@@ -0,0 +1,622 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.HadoopPropsKeys;
+import com.liferay.hadoop.util.PropertiesProps;
+import com.liferay.hadoop.util.RootedFileSystem;
+import com.liferay.portal.kernel.util.GetterUtil;
+import com.liferay.portal.kernel.util.PropsUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+import com.liferay.portal.kernel.util.StringPool;
+import com.liferay.portal.kernel.util.StringUtil;
+import com.liferay.portal.kernel.util.Validator;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Measures the main operations of {@link HDFSStore} for every combination of
+ * file size, fan-out and thread count, and writes one CSV row per operation
+ * and combination. The fan-out is the number of files of the repository a
+ * combination works on, and the threads share them.
+ *
+ * <p>
+ * The store runs in process against the local file system below a temporary
+ * directory, or against the cluster named by
+ * <code>benchmark.fs.default.name</code>. Each row reports the throughput,
+ * the latency percentiles and the number of file system calls per operation,
+ * each of which is a NameNode RPC on HDFS. The file status and local file
+ * caches are cleared before each operation unless
+ * <code>benchmark.cold</code> is <code>false</code>.
+ * </p>
+ *
+ * <p>
+ * Run it with <code>ant benchmark</code>. The sweep is set with the
+ * <code>benchmark.*</code> system properties read in the constructor, and
+ * <code>hadoop.*</code> system properties override the portal properties of
+ * the hook.
+ * </p>
+ *
+ * @author Raymond Augé
+ */
+public class HDFSStoreBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		HDFSStoreBenchmark hdfsStoreBenchmark = new HDFSStoreBenchmark();
+
+		try {
+			hdfsStoreBenchmark.run();
+		}
+		finally {
+			hdfsStoreBenchmark.destroy();
+		}
+	}
+
+	public HDFSStoreBenchmark() throws IOException {
+		_cold = GetterUtil.getBoolean(
+			System.getProperty("benchmark.cold"), true);
+		_fanOuts = _getInts("benchmark.fan.outs", "10,100,1000");
+		_fileNamesCalls = GetterUtil.getInteger(
+			System.getProperty("benchmark.file.names.calls"), 10);
+		_fileSizes = _getInts("benchmark.file.sizes", "1024,65536,1048576");
+		_iterations = GetterUtil.getInteger(
+			System.getProperty("benchmark.iterations"), 3);
+		_outputFile = new File(
+			GetterUtil.getString(
+				System.getProperty("benchmark.output"),
+				"test-results/benchmark/HDFSStoreBenchmark.csv"));
+		_threadCounts = _getInts("benchmark.threads", "1,4,16");
+		_warmupIterations = GetterUtil.getInteger(
+			System.getProperty("benchmark.warmup.iterations"), 1);
+
+		_rootDir = File.createTempFile("hdfs-store-benchmark-", null);
+
+		_rootDir.delete();
+		_rootDir.mkdirs();
+
+		Properties properties = new Properties();
+
+		String fsDefaultName = System.getProperty("benchmark.fs.default.name");
+
+		if (Validator.isNull(fsDefaultName)) {
+			RootedFileSystem.setProperties(
+				properties, HadoopManager.DEFAULT_FILE_SYSTEM_NAME,
+				new File(_rootDir, "hdfs"));
+		}
+		else {
+			properties.setProperty(
+				HadoopPropsKeys.HADOOP_FILE_SYSTEM + "default.fs.default.name",
+				fsDefaultName);
+		}
+
+		// Deletions clean their empty ancestors before they return, so
+		// their cost is measured with them
+
+		properties.setProperty(
+			HadoopPropsKeys.HADOOP_JOB_SCHEDULER_ENABLED, "false");
+		properties.setProperty(
+			HadoopPropsKeys.HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_DELAY, "0");
+		properties.setProperty(
+			HadoopPropsKeys.HADOOP_STORE_LOCAL_CACHE_DIR,
+			new File(_rootDir, "cache").getPath());
+
+		Properties systemProperties = System.getProperties();
+
+		for (String key : systemProperties.stringPropertyNames()) {
+			if (key.startsWith("hadoop.")) {
+				properties.setProperty(
+					key, systemProperties.getProperty(key));
+			}
+		}
+
+		PropsUtil.setProps(new PropertiesProps(properties));
+
+		_store = new HDFSStore();
+
+		// Every run writes below its own company, so a run against a cluster
+		// leaves other data alone
+
+		_companyId = System.currentTimeMillis();
+
+		int maxFileSize = 0;
+
+		for (int fileSize : _fileSizes) {
+			maxFileSize = Math.max(maxFileSize, fileSize);
+		}
+
+		_bytes = new byte[maxFileSize];
+
+		Random random = new Random(_companyId);
+
+		random.nextBytes(_bytes);
+	}
+
+	public void destroy() throws IOException {
+		try {
+			FileSystem fileSystem = HadoopManager.getFileSystem();
+
+			fileSystem.delete(
+				new Path(StringPool.SLASH + _companyId), true);
+		}
+		finally {
+			_executorService.shutdownNow();
+
+			HDFSStore.destroyAll();
+
+			HadoopManager.destroy();
+
+			FileUtil.fullyDelete(_rootDir);
+		}
+	}
+
+	public void run() throws Exception {
+		File outputDir = _outputFile.getAbsoluteFile().getParentFile();
+
+		outputDir.mkdirs();
+
+		PrintWriter printWriter = new PrintWriter(new FileWriter(_outputFile));
+
+		try {
+			printWriter.println(_HEADER);
+
+			System.out.println(_HEADER);
+
+			for (int fileSize : _fileSizes) {
+				for (int fanOut : _fanOuts) {
+					for (int threadCount : _threadCounts) {
+						_run(printWriter, fileSize, fanOut, threadCount);
+					}
+				}
+			}
+		}
+		finally {
+			printWriter.close();
+		}
+
+		System.out.println("Results written to " + _outputFile.getPath());
+	}
+
+	private void _clearCaches() {
+		if (!_cold) {
+			return;
+		}
+
+		FileStatusCache fileStatusCache = _store.getFileStatusCache();
+
+		fileStatusCache.clear();
+
+		LocalFileCache localFileCache = _store.getLocalFileCache();
+
+		localFileCache.clear();
+	}
+
+	private long _getCallsCount() {
+		return HadoopManager.getCallsCount(
+			HadoopManager.DEFAULT_FILE_SYSTEM_NAME);
+	}
+
+	private String _getFileName(int index) {
+		return "file-" + index;
+	}
+
+	private int[] _getInts(String key, String defaultValue) {
+		String[] values = StringUtil.split(
+			GetterUtil.getString(System.getProperty(key), defaultValue));
+
+		int[] ints = new int[values.length];
+
+		for (int i = 0; i < values.length; i++) {
+			ints[i] = GetterUtil.getInteger(values[i].trim());
+		}
+
+		return ints;
+	}
+
+	private void _run(
+			PrintWriter printWriter, int fileSize, int fanOut, int threadCount)
+		throws Exception {
+
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+
+		for (int i = 0; i < (_warmupIterations + _iterations); i++) {
+			boolean warmup = i < _warmupIterations;
+
+			List<Operation> operations = _runIteration(
+				fileSize, fanOut, threadCount);
+
+			if (warmup) {
+				continue;
+			}
+
+			for (Operation operation : operations) {
+				Result result = results.get(operation.getName());
+
+				if (result == null) {
+					result = new Result(operation.getBytes());
+
+					results.put(operation.getName(), result);
+				}
+
+				result.add(operation);
+			}
+		}
+
+		for (Map.Entry<String, Result> entry : results.entrySet()) {
+			Result result = entry.getValue();
+
+			String row = result.toCSV(
+				entry.getKey(), fileSize, fanOut, threadCount);
+
+			printWriter.println(row);
+
+			System.out.println(row);
+		}
+
+		printWriter.flush();
+	}
+
+	/**
+	 * Runs every operation once on a new repository and deletes it.
+	 */
+	private List<Operation> _runIteration(
+			final int fileSize, int fanOut, int threadCount)
+		throws Exception {
+
+		final long repositoryId = _repositoryId.incrementAndGet();
+
+		List<Operation> operations = new ArrayList<Operation>();
+
+		operations.add(
+			new Operation("addFile", fanOut, fileSize) {
+
+				@Override
+				public void run(int index) throws Exception {
+					_store.addFile(
+						_companyId, repositoryId, _getFileName(index),
+						new ByteArrayInputStream(_bytes, 0, fileSize));
+				}
+
+			});
+
+		operations.add(
+			new Operation("hasFile", fanOut, 0) {
+
+				@Override
+				public void run(int index) throws Exception {
+					_store.hasFile(
+						_companyId, repositoryId, _getFileName(index),
+						HDFSStore.VERSION_DEFAULT);
+				}
+
+			});
+
+		operations.add(
+			new Operation("getFileSize", fanOut, 0) {
+
+				@Override
+				public void run(int index) throws Exception {
+					_store.getFileSize(
+						_companyId, repositoryId, _getFileName(index));
+				}
+
+			});
+
+		operations.add(
+			new Operation("getFileAsStream", fanOut, fileSize) {
+
+				@Override
+				public void run(int index) throws Exception {
+					InputStream inputStream = _store.getFileAsStream(
+						_companyId, repositoryId, _getFileName(index),
+						HDFSStore.VERSION_DEFAULT);
+
+					try {
+						byte[] buffer = new byte[8192];
+
+						while (inputStream.read(buffer) != -1) {
+						}
+					}
+					finally {
+						StreamUtil.cleanUp(inputStream);
+					}
+				}
+
+			});
+
+		operations.add(
+			new Operation("getFileNames", _fileNamesCalls, 0) {
+
+				@Override
+				public void run(int index) throws Exception {
+					_store.getFileNames(_companyId, repositoryId);
+				}
+
+			});
+
+		operations.add(
+			new Operation("deleteFile", fanOut, 0) {
+
+				@Override
+				public void run(int index) throws Exception {
+					_store.deleteFile(
+						_companyId, repositoryId, _getFileName(index));
+				}
+
+			});
+
+		for (Operation operation : operations) {
+			_clearCaches();
+
+			_runOperation(operation, threadCount);
+		}
+
+		// The directories are left as deleted versions leave them, each
+		// below a directory of its own so there are ancestors to clean
+
+		final Path[] paths = new Path[fanOut];
+
+		FileSystem fileSystem = HadoopManager.getFileSystem();
+
+		for (int i = 0; i < fanOut; i++) {
+			paths[i] = HadoopManager.getFullDirPath(
+				_companyId, repositoryId,
+				_getFileName(i) + StringPool.SLASH + _getFileName(i));
+
+			fileSystem.mkdirs(paths[i]);
+		}
+
+		Operation deleteEmptyAncestorsOperation = new Operation(
+			"deleteEmptyAncestors", fanOut, 0) {
+
+			@Override
+			public void run(int index) throws Exception {
+				_store.deleteEmptyAncestors(
+					_companyId, repositoryId, paths[index]);
+			}
+
+		};
+
+		_clearCaches();
+
+		_runOperation(deleteEmptyAncestorsOperation, threadCount);
+
+		operations.add(deleteEmptyAncestorsOperation);
+
+		fileSystem.delete(
+			HadoopManager.getFullDirPath(_companyId, repositoryId, null), true);
+
+		return operations;
+	}
+
+	private void _runOperation(final Operation operation, int threadCount)
+		throws Exception {
+
+		final AtomicInteger nextIndex = new AtomicInteger();
+
+		List<Callable<Void>> callables = new ArrayList<Callable<Void>>();
+
+		for (int i = 0; i < threadCount; i++) {
+			callables.add(
+				new Callable<Void>() {
+
+					public Void call() throws Exception {
+						int index = 0;
+
+						while ((index = nextIndex.getAndIncrement()) <
+									operation.getCount()) {
+
+							long startTime = System.nanoTime();
+
+							operation.run(index);
+
+							operation.setLatency(
+								index, System.nanoTime() - startTime);
+						}
+
+						return null;
+					}
+
+				});
+		}
+
+		long callsCount = _getCallsCount();
+		long startTime = System.nanoTime();
+
+		List<Future<Void>> futures = _executorService.invokeAll(callables);
+
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+
+		operation.setTime(System.nanoTime() - startTime);
+		operation.setCallsCount(_getCallsCount() - callsCount);
+	}
+
+	private static final String _HEADER =
+		"operation,fileSize,fanOut,threads,operations,opsPerSecond," +
+			"meanMicros,p50Micros,p90Micros,p99Micros,maxMicros," +
+				"callsPerOperation,megabytesPerSecond";
+
+	private final byte[] _bytes;
+	private final boolean _cold;
+	private final long _companyId;
+	private final ExecutorService _executorService =
+		Executors.newCachedThreadPool();
+	private final int[] _fanOuts;
+	private final int _fileNamesCalls;
+	private final int[] _fileSizes;
+	private final int _iterations;
+	private final File _outputFile;
+	private final AtomicInteger _repositoryId = new AtomicInteger();
+	private final File _rootDir;
+	private final HDFSStore _store;
+	private final int[] _threadCounts;
+	private final int _warmupIterations;
+
+	/**
+	 * One operation of an iteration, run once for each index below its
+	 * count.
+	 */
+	private abstract static class Operation {
+
+		public Operation(String name, int count, long bytes) {
+			_name = name;
+			_bytes = bytes;
+			_latencies = new long[count];
+		}
+
+		public long getBytes() {
+			return _bytes;
+		}
+
+		public long getCallsCount() {
+			return _callsCount;
+		}
+
+		public int getCount() {
+			return _latencies.length;
+		}
+
+		public long[] getLatencies() {
+			return _latencies;
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		public long getTime() {
+			return _time;
+		}
+
+		public abstract void run(int index) throws Exception;
+
+		public void setCallsCount(long callsCount) {
+			_callsCount = callsCount;
+		}
+
+		public void setLatency(int index, long latency) {
+			_latencies[index] = latency;
+		}
+
+		public void setTime(long time) {
+			_time = time;
+		}
+
+		private final long _bytes;
+		private long _callsCount;
+		private final long[] _latencies;
+		private final String _name;
+		private long _time;
+
+	}
+
+	/**
+	 * The measured iterations of one operation for one combination.
+	 */
+	private static class Result {
+
+		public Result(long bytes) {
+			_bytes = bytes;
+		}
+
+		public void add(Operation operation) {
+			long[] latencies = operation.getLatencies();
+
+			_latencies = Arrays.copyOf(
+				_latencies, _latencies.length + latencies.length);
+
+			System.arraycopy(
+				latencies, 0, _latencies, _latencies.length - latencies.length,
+				latencies.length);
+
+			_callsCount += operation.getCallsCount();
+			_time += operation.getTime();
+		}
+
+		public String toCSV(
+			String name, int fileSize, int fanOut, int threadCount) {
+
+			long[] latencies = _latencies.clone();
+
+			Arrays.sort(latencies);
+
+			long totalLatency = 0;
+
+			for (long latency : latencies) {
+				totalLatency += latency;
+			}
+
+			int count = Math.max(latencies.length, 1);
+			double seconds = Math.max(_time, 1) / 1e9;
+
+			return String.format(
+				Locale.ENGLISH,
+				"%s,%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.2f,%.2f",
+				name, fileSize, fanOut, threadCount, latencies.length,
+				latencies.length / seconds, totalLatency / count / 1e3,
+				_getPercentile(latencies, 50), _getPercentile(latencies, 90),
+				_getPercentile(latencies, 99), _getPercentile(latencies, 100),
+				(double)_callsCount / count,
+				_bytes * latencies.length / seconds / (1024 * 1024));
+		}
+
+		/**
+		 * Returns the latency in microseconds below which the percentage of
+		 * the sorted latencies fall.
+		 */
+		private double _getPercentile(long[] latencies, int percentage) {
+			if (latencies.length == 0) {
+				return 0;
+			}
+
+			int index = (int)Math.ceil(
+				percentage / 100.0 * latencies.length) - 1;
+
+			return latencies[Math.max(index, 0)] / 1e3;
+		}
+
+		private final long _bytes;
+		private long _callsCount;
+		private long[] _latencies = new long[0];
+		private long _time;
+
+	}
+
+}
\ No newline at end of file
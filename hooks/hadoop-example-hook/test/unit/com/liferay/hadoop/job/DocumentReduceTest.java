@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.job;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Raymond Augé
+ */
+public class DocumentReduceTest {
+
+	@Test
+	public void testCountedLater() throws Exception {
+
+		// A segment read again holds an older version than the counted one
+
+		_reduce(
+			_createDocument(2, false, true, "a", "b"),
+			_createDocument(1, false, false, "c"));
+
+		Assert.assertEquals("[2 counted {a=1, b=1}]", _documents.toString());
+		Assert.assertEquals("{}", _counts.toString());
+	}
+
+	@Test
+	public void testCountedSame() throws Exception {
+		_reduce(
+			_createDocument(1, false, false, "a"),
+			_createDocument(1, false, true, "a"));
+
+		Assert.assertEquals("[1 counted {a=1}]", _documents.toString());
+		Assert.assertEquals("{}", _counts.toString());
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		_reduce(
+			_createDocument(1, false, true, "a", "b"),
+			_createDocument(2, true, false));
+
+		Assert.assertEquals("[2 counted deleted {}]", _documents.toString());
+		Assert.assertEquals("{a=-1, b=-1}", _counts.toString());
+	}
+
+	@Test
+	public void testDeleteSameVersion() throws Exception {
+		_reduce(
+			_createDocument(1, false, false, "a"),
+			_createDocument(1, true, false),
+			_createDocument(1, false, false, "b"));
+
+		Assert.assertEquals("[1 counted deleted {}]", _documents.toString());
+		Assert.assertEquals("{}", _counts.toString());
+	}
+
+	@Test
+	public void testLatestVersion() throws Exception {
+		_reduce(
+			_createDocument(2, false, false, "b", "b"),
+			_createDocument(1, false, false, "a"),
+			_createDocument(3, false, false, "c"));
+
+		Assert.assertEquals("[3 counted {c=1}]", _documents.toString());
+		Assert.assertEquals("{c=1}", _counts.toString());
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		_reduce(
+			_createDocument(1, false, true, "a", "b", "b"),
+			_createDocument(2, false, false, "b", "c"));
+
+		Assert.assertEquals("[2 counted {b=1, c=1}]", _documents.toString());
+		Assert.assertEquals("{a=-1, b=-1, c=1}", _counts.toString());
+	}
+
+	private DocumentWritable _createDocument(
+			long version, boolean deleted, boolean counted, String... terms)
+		throws Exception {
+
+		DocumentWritable document = new DocumentWritable();
+
+		document.reset(version, deleted);
+		document.setCounted(counted);
+
+		TermCountMap termCountMap = document.getTermCountMap();
+
+		for (String term : terms) {
+			byte[] bytes = term.getBytes("UTF-8");
+
+			termCountMap.increment(bytes, 0, bytes.length, 1);
+		}
+
+		return document;
+	}
+
+	private String _getTermCounts(TermCountMap termCountMap)
+		throws IOException {
+
+		final Map<String, Long> termCounts = new TreeMap<String, Long>();
+
+		TermCountMap copyTermCountMap = new TermCountMap();
+
+		copyTermCountMap.add(termCountMap, 1);
+
+		copyTermCountMap.flush(
+			new OutputCollector<Text, VLongWritable>() {
+
+				public void collect(Text term, VLongWritable count) {
+					termCounts.put(term.toString(), count.get());
+				}
+
+			});
+
+		return termCounts.toString();
+	}
+
+	private void _reduce(DocumentWritable... documents) throws Exception {
+		DocumentReduce documentReduce = new CountsDocumentReduce();
+
+		List<DocumentWritable> values = Arrays.asList(documents);
+
+		documentReduce.reduce(
+			new Text("1"), values.iterator(),
+			new OutputCollector<Text, DocumentWritable>() {
+
+				public void collect(Text key, DocumentWritable document)
+					throws IOException {
+
+					StringBuilder sb = new StringBuilder();
+
+					sb.append(document.getVersion());
+
+					if (document.isCounted()) {
+						sb.append(" counted");
+					}
+
+					if (document.isDeleted()) {
+						sb.append(" deleted");
+					}
+
+					sb.append(" ");
+					sb.append(_getTermCounts(document.getTermCountMap()));
+
+					_documents.add(sb.toString());
+				}
+
+			},
+			Reporter.NULL);
+	}
+
+	private Map<String, Long> _counts = new TreeMap<String, Long>();
+	private List<String> _documents = new ArrayList<String>();
+
+	/**
+	 * Collects the differences of the counts instead of writing them to the
+	 * named output of the job.
+	 */
+	private class CountsDocumentReduce extends DocumentReduce {
+
+		@Override
+		protected OutputCollector<Text, VLongWritable> getCountsOutput(
+			Reporter reporter) {
+
+			return new OutputCollector<Text, VLongWritable>() {
+
+				public void collect(Text term, VLongWritable count) {
+					_counts.put(term.toString(), count.get());
+				}
+
+			};
+		}
+
+	}
+
+}
\ No newline at end of file
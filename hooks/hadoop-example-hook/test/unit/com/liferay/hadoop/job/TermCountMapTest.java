@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.job;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.mapred.OutputCollector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Raymond Augé
+ */
+public class TermCountMapTest {
+
+	@Test
+	public void testAdd() throws Exception {
+		TermCountMap termCountMap = new TermCountMap();
+
+		_increment(termCountMap, "a", 1);
+		_increment(termCountMap, "b", 2);
+
+		TermCountMap otherTermCountMap = new TermCountMap();
+
+		_increment(otherTermCountMap, "b", 2);
+		_increment(otherTermCountMap, "c", 3);
+
+		termCountMap.add(otherTermCountMap, -1);
+
+		Assert.assertEquals("{a=1, c=-3}", _flush(termCountMap));
+	}
+
+	@Test
+	public void testClear() throws Exception {
+		TermCountMap termCountMap = new TermCountMap();
+
+		int capacity = termCountMap.getCapacity();
+
+		for (int i = 0; i < (capacity * 16); i++) {
+			_increment(termCountMap, String.valueOf(i), 1);
+		}
+
+		Assert.assertTrue(termCountMap.getCapacity() > capacity);
+
+		// The table is kept while it is used
+
+		termCountMap.clear();
+
+		Assert.assertTrue(termCountMap.getCapacity() > capacity);
+		Assert.assertEquals(0, termCountMap.size());
+		Assert.assertEquals(0, _get(termCountMap, "1"));
+
+		_increment(termCountMap, "a", 1);
+
+		termCountMap.clear();
+
+		Assert.assertEquals(capacity, termCountMap.getCapacity());
+
+		_increment(termCountMap, "a", 2);
+
+		Assert.assertEquals("{a=2}", _flush(termCountMap));
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		TermCountMap termCountMap = new TermCountMap();
+
+		_increment(termCountMap, "a", 1);
+		_increment(termCountMap, "b", 1);
+		_increment(termCountMap, "b", -1);
+
+		Assert.assertEquals("{a=1}", _flush(termCountMap));
+		Assert.assertEquals(0, termCountMap.size());
+		Assert.assertEquals(0, termCountMap.getMemorySize());
+	}
+
+	@Test
+	public void testIncrement() throws Exception {
+		TermCountMap termCountMap = new TermCountMap();
+
+		Assert.assertEquals(1, _increment(termCountMap, "a", 1));
+		Assert.assertEquals(3, _increment(termCountMap, "a", 2));
+		Assert.assertEquals(1, _increment(termCountMap, "b", 1));
+
+		Assert.assertEquals(3, _get(termCountMap, "a"));
+		Assert.assertEquals(1, _get(termCountMap, "b"));
+		Assert.assertEquals(0, _get(termCountMap, "c"));
+		Assert.assertEquals(2, termCountMap.size());
+	}
+
+	@Test
+	public void testRehash() throws Exception {
+		TermCountMap termCountMap = new TermCountMap();
+
+		int count = termCountMap.getCapacity() * 4;
+
+		for (int i = 0; i < count; i++) {
+			_increment(termCountMap, String.valueOf(i), i);
+		}
+
+		Assert.assertEquals(count, termCountMap.size());
+
+		for (int i = 0; i < count; i++) {
+			Assert.assertEquals(i, _get(termCountMap, String.valueOf(i)));
+		}
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		TermCountMap termCountMap = new TermCountMap();
+
+		_increment(termCountMap, "a", 1);
+		_increment(termCountMap, "été", 300);
+
+		ByteArrayOutputStream byteArrayOutputStream =
+			new ByteArrayOutputStream();
+
+		termCountMap.write(new DataOutputStream(byteArrayOutputStream));
+
+		TermCountMap readTermCountMap = new TermCountMap();
+
+		_increment(readTermCountMap, "a", 1);
+
+		// Read counts are added to the counts of the map
+
+		readTermCountMap.readFields(
+			new DataInputStream(
+				new ByteArrayInputStream(
+					byteArrayOutputStream.toByteArray())));
+
+		Assert.assertEquals("{a=2, été=300}", _flush(readTermCountMap));
+	}
+
+	private String _flush(TermCountMap termCountMap) throws Exception {
+		final Map<String, Long> counts = new TreeMap<String, Long>();
+
+		termCountMap.flush(
+			new OutputCollector<Text, VLongWritable>() {
+
+				public void collect(Text term, VLongWritable count) {
+					counts.put(term.toString(), count.get());
+				}
+
+			});
+
+		return counts.toString();
+	}
+
+	private int _get(TermCountMap termCountMap, String term) throws Exception {
+		byte[] bytes = term.getBytes("UTF-8");
+
+		return termCountMap.get(bytes, 0, bytes.length);
+	}
+
+	private int _increment(TermCountMap termCountMap, String term, int delta)
+		throws Exception {
+
+		byte[] bytes = term.getBytes("UTF-8");
+
+		return termCountMap.increment(bytes, 0, bytes.length, delta);
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Raymond Augé
+ */
+public class TermTokenizerTest {
+
+	@Test
+	public void testLowerCase() throws Exception {
+		Assert.assertEquals(
+			"[Hello, éTÉ]", _tokenize("Hello éTÉ", false, false));
+		Assert.assertEquals(
+			"[hello, été]", _tokenize("Hello éTÉ", true, false));
+
+		// Dotted capital I is lower cased code point by code point
+
+		Assert.assertEquals(
+			"[istanbul]", _tokenize("\u0130stanbul", true, false));
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		byte[] bytes = {'a', (byte)0xc3, 'b', ' ', (byte)0xff};
+
+		Assert.assertEquals(
+			Arrays.asList("61c362", "ff"), _tokenize(bytes, false, false));
+		Assert.assertEquals(
+			Arrays.asList("61", "62"), _tokenize(bytes, false, true));
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		TermTokenizer termTokenizer = new TermTokenizer(false, false);
+
+		byte[] bytes = "a b c".getBytes("UTF-8");
+
+		termTokenizer.reset(bytes, 2, 3);
+
+		Assert.assertTrue(termTokenizer.next());
+		Assert.assertEquals(
+			"b",
+			new String(
+				termTokenizer.getBytes(), 0, termTokenizer.getLength(),
+				"UTF-8"));
+		Assert.assertFalse(termTokenizer.next());
+	}
+
+	@Test
+	public void testUnicode() throws Exception {
+		Assert.assertEquals(
+			"[l'été,, «déjà», vu.]",
+			_tokenize("l'été, «déjà» vu.", false, false));
+		Assert.assertEquals(
+			"[l, été, déjà, vu]",
+			_tokenize("l'été, «déjà» vu.", false, true));
+
+		// Combining marks stay in their term
+
+		Assert.assertEquals(
+			"[e\u0301te\u0301, 42]",
+			_tokenize("e\u0301te\u0301 42", false, true));
+	}
+
+	@Test
+	public void testWhitespace() throws Exception {
+		Assert.assertEquals(
+			"[a, b, c, d, e]", _tokenize(" a\tb\nc\r\rd\fe ", false, false));
+		Assert.assertEquals("[]", _tokenize(" \t ", false, false));
+
+		// Other white space is not a delimiter by default
+
+		Assert.assertEquals("[a\u00a0b]", _tokenize("a\u00a0b", false, false));
+		Assert.assertEquals("[a, b]", _tokenize("a\u00a0b", false, true));
+	}
+
+	private String _tokenize(String s, boolean lowerCase, boolean unicode)
+		throws Exception {
+
+		TermTokenizer termTokenizer = new TermTokenizer(lowerCase, unicode);
+
+		byte[] bytes = s.getBytes("UTF-8");
+
+		termTokenizer.reset(bytes, 0, bytes.length);
+
+		List<String> terms = new ArrayList<String>();
+
+		while (termTokenizer.next()) {
+			terms.add(
+				new String(
+					termTokenizer.getBytes(), 0, termTokenizer.getLength(),
+					"UTF-8"));
+		}
+
+		return terms.toString();
+	}
+
+	private List<String> _tokenize(
+		byte[] bytes, boolean lowerCase, boolean unicode) {
+
+		TermTokenizer termTokenizer = new TermTokenizer(lowerCase, unicode);
+
+		termTokenizer.reset(bytes, 0, bytes.length);
+
+		List<String> terms = new ArrayList<String>();
+
+		while (termTokenizer.next()) {
+			StringBuilder sb = new StringBuilder();
+
+			for (int i = 0; i < termTokenizer.getLength(); i++) {
+				sb.append(
+					String.format("%02x", termTokenizer.getBytes()[i] & 0xff));
+			}
+
+			terms.add(sb.toString());
+		}
+
+		return terms;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,346 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.hadoop.util.RootedFileSystem;
+import com.liferay.hadoop.util.TestPropsUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the containers of a repository against the local file system. Another
+ * JVM is played by another manager over the same directory, and a JVM is
+ * restarted by replacing its manager, which closes its containers.
+ *
+ * @author Raymond Augé
+ */
+public class ContainerManagerTest {
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		TestPropsUtil.setProps();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		_rootDir = File.createTempFile("container-manager-", null);
+
+		_rootDir.delete();
+		_rootDir.mkdirs();
+
+		_fileSystem = RootedFileSystem.getInstance(_rootDir);
+
+		_containerManager = _createContainerManager();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		_containerManager.destroy();
+
+		FileUtil.fullyDelete(_rootDir);
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+
+		// Each container is rolled after two entries
+
+		_put("a", 1);
+		_put("b", 2);
+		_put("c", 3);
+		_put("d", 4);
+
+		_containerManager.delete(_COMPANY_ID, _REPOSITORY_ID, "a");
+		_containerManager.delete(_COMPANY_ID, _REPOSITORY_ID, "c");
+
+		_restart();
+
+		Assert.assertEquals(3, _getContainersCount());
+
+		// Both containers of entries are half dead, but only the first one
+		// fits in a new container. The container of deletes still hides the
+		// entry of the second one.
+
+		_containerManager.compact(_COMPANY_ID, _REPOSITORY_ID);
+
+		Assert.assertEquals(3, _getContainersCount());
+		Assert.assertEquals("[b, d]", _getKeys());
+
+		_containerManager.compact(_COMPANY_ID, _REPOSITORY_ID);
+
+		Assert.assertEquals(2, _getContainersCount());
+		Assert.assertEquals("[b, d]", _getKeys());
+
+		_assertContent("b", 2);
+		_assertContent("d", 4);
+
+		// Nothing is dead anymore
+
+		_containerManager.compact(_COMPANY_ID, _REPOSITORY_ID);
+
+		Assert.assertEquals(2, _getContainersCount());
+	}
+
+	@Test
+	public void testCompactOpenContainer() throws Exception {
+		_put("a", 1);
+
+		_containerManager.delete(_COMPANY_ID, _REPOSITORY_ID, "a");
+
+		_containerManager.compact(_COMPANY_ID, _REPOSITORY_ID);
+
+		Assert.assertEquals(1, _getContainersCount());
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		_put("1/1.0", 1);
+		_put("1/2.0", 2);
+		_put("2/1.0", 3);
+
+		_containerManager.delete(_COMPANY_ID, _REPOSITORY_ID, "1/1.0");
+
+		Assert.assertNull(
+			_containerManager.getRecord(_COMPANY_ID, _REPOSITORY_ID, "1/1.0"));
+		Assert.assertEquals("[1/2.0, 2/1.0]", _getKeys());
+
+		_containerManager.delete(_COMPANY_ID, _REPOSITORY_ID, "1");
+
+		Assert.assertEquals("[2/1.0]", _getKeys());
+		Assert.assertFalse(
+			_containerManager.hasKeys(_COMPANY_ID, _REPOSITORY_ID, "1"));
+
+		_restart();
+
+		Assert.assertEquals("[2/1.0]", _getKeys());
+	}
+
+	@Test
+	public void testDeleteNotPacked() throws Exception {
+		_containerManager.delete(_COMPANY_ID, _REPOSITORY_ID, "1/1.0");
+
+		Assert.assertEquals(0, _containerManager.getOpenContainersCount());
+		Assert.assertEquals(0, _getContainersCount());
+	}
+
+	@Test
+	public void testDeletePutByOtherJVM() throws Exception {
+		Assert.assertFalse(
+			_containerManager.hasKeys(_COMPANY_ID, _REPOSITORY_ID, "a"));
+
+		ContainerManager containerManager = _createContainerManager();
+
+		try {
+			containerManager.put(
+				_COMPANY_ID, _REPOSITORY_ID, "a", _getBytes(1), _LENGTH);
+		}
+		finally {
+			containerManager.destroy();
+		}
+
+		// The index of this JVM is reloaded before the delete is skipped
+
+		_containerManager.delete(_COMPANY_ID, _REPOSITORY_ID, "a");
+
+		_restart();
+
+		Assert.assertEquals("[]", _getKeys());
+	}
+
+	@Test
+	public void testDeletePutWithSkewedClock() throws Exception {
+
+		// Another JVM whose clock is an hour ahead
+
+		_writeSkewed("a", 1);
+
+		_containerManager.delete(_COMPANY_ID, _REPOSITORY_ID, "a");
+
+		Assert.assertEquals("[]", _getKeys());
+
+		_restart();
+
+		Assert.assertEquals("[]", _getKeys());
+	}
+
+	@Test
+	public void testOverwrite() throws Exception {
+		_put("a", 1);
+		_put("a", 2);
+
+		_assertContent("a", 2);
+
+		_restart();
+
+		_assertContent("a", 2);
+	}
+
+	@Test
+	public void testOverwriteWithSkewedClock() throws Exception {
+		_writeSkewed("a", 1);
+
+		_restart();
+
+		_put("a", 2);
+
+		_assertContent("a", 2);
+
+		_restart();
+
+		_assertContent("a", 2);
+	}
+
+	@Test
+	public void testPut() throws Exception {
+		_put("1/1.0", 1);
+
+		Assert.assertEquals("[1/1.0]", _getKeys());
+
+		_assertContent("1/1.0", 1);
+
+		InputStream inputStream = _containerManager.getInputStream(
+			_COMPANY_ID, _REPOSITORY_ID, "1/1.0", 10, 20);
+
+		byte[] bytes = Arrays.copyOfRange(_getBytes(1), 10, 30);
+
+		Assert.assertArrayEquals(bytes, _read(inputStream));
+
+		Assert.assertNull(
+			_containerManager.getInputStream(
+				_COMPANY_ID, _REPOSITORY_ID, "1/2.0"));
+	}
+
+	private void _assertContent(String key, int seed) throws Exception {
+		InputStream inputStream = _containerManager.getInputStream(
+			_COMPANY_ID, _REPOSITORY_ID, key);
+
+		Assert.assertArrayEquals(_getBytes(seed), _read(inputStream));
+	}
+
+	private ContainerManager _createContainerManager() {
+		return new ContainerManager(
+			_fileSystem, true, 1024, _MAX_SIZE, 16, 3600000, 3600000, 0, 0.5);
+	}
+
+	private byte[] _getBytes(int seed) {
+		byte[] bytes = new byte[_LENGTH];
+
+		Arrays.fill(bytes, (byte)seed);
+
+		bytes[0] = (byte)(seed + 1);
+
+		return bytes;
+	}
+
+	private int _getContainersCount() throws Exception {
+		FileStatus[] fileStatuses = _fileSystem.listStatus(
+			_containerManager.getContainersPath(_COMPANY_ID, _REPOSITORY_ID));
+
+		if (fileStatuses == null) {
+			return 0;
+		}
+
+		int count = 0;
+
+		for (FileStatus fileStatus : fileStatuses) {
+			Path path = fileStatus.getPath();
+
+			if (path.getName().endsWith(ContainerWriter.DATA_EXTENSION)) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private String _getKeys() throws Exception {
+		Set<String> keys = new TreeSet<String>(
+			_containerManager.getKeys(_COMPANY_ID, _REPOSITORY_ID, null));
+
+		return keys.toString();
+	}
+
+	private void _put(String key, int seed) throws Exception {
+		_containerManager.put(
+			_COMPANY_ID, _REPOSITORY_ID, key, _getBytes(seed), _LENGTH);
+	}
+
+	private byte[] _read(InputStream inputStream) throws Exception {
+		ByteArrayOutputStream byteArrayOutputStream =
+			new ByteArrayOutputStream();
+
+		StreamUtil.transfer(inputStream, byteArrayOutputStream);
+
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private void _restart() {
+		_containerManager.destroy();
+
+		_containerManager = _createContainerManager();
+	}
+
+	private void _writeSkewed(String key, int seed) throws Exception {
+		Path containersPath = _containerManager.getContainersPath(
+			_COMPANY_ID, _REPOSITORY_ID);
+
+		ContainerWriter containerWriter = new ContainerWriter(
+			_fileSystem, new Path(containersPath, "skewed.data"));
+
+		try {
+			long timestamp = (System.currentTimeMillis() + 3600000) * 1000;
+
+			containerWriter.write(
+				ContainerRecord.TYPE_PUT, key, timestamp, _getBytes(seed),
+				_LENGTH);
+		}
+		finally {
+			containerWriter.close();
+		}
+	}
+
+	private static final long _COMPANY_ID = 1;
+
+	private static final int _LENGTH = 100;
+
+	// Two entries of _LENGTH bytes fill a container
+
+	private static final long _MAX_SIZE = 200;
+
+	private static final long _REPOSITORY_ID = 2;
+
+	private ContainerManager _containerManager;
+	private FileSystem _fileSystem;
+	private File _rootDir;
+
+}
\ No newline at end of file
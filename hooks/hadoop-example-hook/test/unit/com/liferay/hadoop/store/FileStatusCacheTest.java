@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Raymond Augé
+ */
+public class FileStatusCacheTest {
+
+	@Before
+	public void setUp() {
+		_fileStatusCache = new FileStatusCache(100, 60000);
+		_fileSystem = new LookupFileSystem();
+	}
+
+	@Test
+	public void testGetFileStatus() throws Exception {
+		Path path = new Path("/1/1/1");
+
+		_fileStatusCache.getFileStatus(_fileSystem, path);
+		_fileStatusCache.getFileStatus(_fileSystem, path);
+
+		Assert.assertEquals(1, _fileSystem._lookupCount);
+		Assert.assertEquals(1, _fileStatusCache.getHitCount());
+	}
+
+	@Test
+	public void testGetFileStatusRacingRelatedPath() throws Exception {
+		_assertCached(new Path("/1/1/1"), new Path("/1/1/1"), false, false);
+		_assertCached(new Path("/1/1"), new Path("/1/1/1"), false, false);
+		_assertCached(new Path("/1/1/1"), new Path("/1/1"), true, false);
+		_assertCached(new Path("/1/1"), new Path("/1"), true, false);
+	}
+
+	@Test
+	public void testGetFileStatusRacingUnrelatedPath() throws Exception {
+		_assertCached(new Path("/1/1/1"), new Path("/1/1/2"), false, true);
+		_assertCached(new Path("/1/1/1"), new Path("/1/2"), true, true);
+		_assertCached(new Path("/1/1/1"), new Path("/1/2/1"), false, true);
+	}
+
+	@Test
+	public void testGetLength() throws Exception {
+		Path path = new Path("/1/1/1");
+
+		FileStatus fileStatus = _fileStatusCache.getFileStatus(
+			_fileSystem, path);
+
+		Assert.assertEquals(-1, _fileStatusCache.getLength(path, fileStatus));
+
+		_fileStatusCache.setLength(path, fileStatus, 10);
+
+		Assert.assertEquals(10, _fileStatusCache.getLength(path, fileStatus));
+
+		// The length is dropped with the status
+
+		_fileStatusCache.remove(path);
+
+		Assert.assertEquals(-1, _fileStatusCache.getLength(path, fileStatus));
+
+		FileStatus newFileStatus = _fileStatusCache.getFileStatus(
+			_fileSystem, path);
+
+		_fileStatusCache.setLength(path, fileStatus, 10);
+
+		Assert.assertEquals(
+			-1, _fileStatusCache.getLength(path, newFileStatus));
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		Path path = new Path("/1/1/1");
+
+		_fileStatusCache.getFileStatus(_fileSystem, path);
+		_fileStatusCache.getFileStatus(_fileSystem, path.getParent());
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/1/2"));
+
+		_fileStatusCache.remove(path);
+
+		Assert.assertEquals(1, _fileStatusCache.getSize());
+	}
+
+	@Test
+	public void testRemoveAll() throws Exception {
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1"));
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/1"));
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/1/1"));
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/1/1/1"));
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/10"));
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/1-1"));
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/2"));
+
+		_fileStatusCache.removeAll(new Path("/1/1"));
+
+		// The siblings whose names start with the name of the directory stay
+
+		Assert.assertEquals(3, _fileStatusCache.getSize());
+
+		int lookupCount = _fileSystem._lookupCount;
+
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/10"));
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/1-1"));
+		_fileStatusCache.getFileStatus(_fileSystem, new Path("/1/2"));
+
+		Assert.assertEquals(lookupCount, _fileSystem._lookupCount);
+	}
+
+	private void _assertCached(
+			Path path, Path racingPath, boolean removeAll, boolean cached)
+		throws Exception {
+
+		_fileStatusCache.clear();
+
+		_fileSystem._racingPath = racingPath;
+		_fileSystem._removeAll = removeAll;
+
+		_fileStatusCache.getFileStatus(_fileSystem, path);
+
+		_fileSystem._racingPath = null;
+
+		int lookupCount = _fileSystem._lookupCount;
+
+		_fileStatusCache.getFileStatus(_fileSystem, path);
+
+		if (cached) {
+			Assert.assertEquals(lookupCount, _fileSystem._lookupCount);
+		}
+		else {
+			Assert.assertEquals(lookupCount + 1, _fileSystem._lookupCount);
+		}
+	}
+
+	private FileStatusCache _fileStatusCache;
+	private LookupFileSystem _fileSystem;
+
+	/**
+	 * Counts the lookups, and invalidates the racing path while looking up,
+	 * as a concurrent write would.
+	 */
+	private class LookupFileSystem extends RawLocalFileSystem {
+
+		@Override
+		public FileStatus getFileStatus(Path path) throws IOException {
+			_lookupCount++;
+
+			if (_racingPath != null) {
+				if (_removeAll) {
+					_fileStatusCache.removeAll(_racingPath);
+				}
+				else {
+					_fileStatusCache.remove(_racingPath);
+				}
+			}
+
+			return new FileStatus(0, true, 1, 0, 0, path);
+		}
+
+		private int _lookupCount;
+		private Path _racingPath;
+		private boolean _removeAll;
+
+	}
+
+}
\ No newline at end of file
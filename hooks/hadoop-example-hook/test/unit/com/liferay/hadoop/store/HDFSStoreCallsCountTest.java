@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.TestPropsUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Pins the number of calls each store operation makes to the file system,
+ * each of which is a NameNode RPC on HDFS. The store runs against the local
+ * file system below a temporary directory set by {@link TestPropsUtil}, and
+ * the calls are counted by the
+ * {@link com.liferay.hadoop.util.CallCountingFileSystem} wrapping it.
+ *
+ * @author Raymond Augé
+ */
+public class HDFSStoreCallsCountTest {
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		TestPropsUtil.setProps();
+
+		// Look up the marker of compressed files once, so no operation
+		// counts it
+
+		CompressedFile compressedFile = new CompressedFile(
+			false, null, new String[0], 3600000);
+
+		compressedFile.hasCompressedFiles(HadoopManager.getFileSystem());
+
+		_store = new HDFSStore(compressedFile);
+	}
+
+	@AfterClass
+	public static void tearDownClass() throws Exception {
+		HDFSStore.destroyAll();
+
+		HadoopManager.destroy();
+	}
+
+	@Test
+	public void testAddFile() throws Exception {
+		long callsCount = _getCallsCount();
+
+		_addFile(1, "1");
+
+		Assert.assertEquals(1, _getCallsCount() - callsCount);
+	}
+
+	@Test
+	public void testDeleteFile() throws Exception {
+		_addFile(2, "1");
+		_addFile(2, "2");
+
+		long callsCount = _getCallsCount();
+
+		_store.deleteFile(_COMPANY_ID, 2, "1");
+
+		// The version, its emptied file name directory and the repository
+		// directory, which is not empty
+
+		Assert.assertEquals(3, _getCallsCount() - callsCount);
+	}
+
+	@Test
+	public void testGetFileAsStream() throws Exception {
+		_addFile(3, "1");
+
+		long callsCount = _getCallsCount();
+
+		InputStream inputStream = _store.getFileAsStream(
+			_COMPANY_ID, 3, "1", HDFSStore.VERSION_DEFAULT);
+
+		StreamUtil.cleanUp(inputStream);
+
+		Assert.assertEquals(1, _getCallsCount() - callsCount);
+	}
+
+	@Test
+	public void testGetFileAsStreamRange() throws Exception {
+		_addFile(10, "1");
+
+		long callsCount = _getCallsCount();
+
+		InputStream inputStream = _store.getFileAsStream(
+			_COMPANY_ID, 10, "1", HDFSStore.VERSION_DEFAULT, 10, 20);
+
+		ByteArrayOutputStream byteArrayOutputStream =
+			new ByteArrayOutputStream();
+
+		StreamUtil.transfer(inputStream, byteArrayOutputStream);
+
+		Assert.assertEquals(20, byteArrayOutputStream.size());
+
+		Assert.assertEquals(1, _getCallsCount() - callsCount);
+	}
+
+	@Test
+	public void testGetFileNames() throws Exception {
+		_addFile(4, "1");
+		_addFile(4, "2");
+
+		long callsCount = _getCallsCount();
+
+		String[] fileNames = _store.getFileNames(_COMPANY_ID, 4);
+
+		// The repository directory and each file name directory
+
+		Assert.assertEquals(3, _getCallsCount() - callsCount);
+		Assert.assertEquals("[1, 2]", Arrays.toString(fileNames));
+	}
+
+	@Test
+	public void testGetFileSize() throws Exception {
+		_addFile(5, "1");
+
+		long callsCount = _getCallsCount();
+
+		Assert.assertEquals(
+			_BYTES.length, _store.getFileSize(_COMPANY_ID, 5, "1"));
+
+		// The status, which tells the file is not compressed, so it is not
+		// opened
+
+		Assert.assertEquals(1, _getCallsCount() - callsCount);
+
+		callsCount = _getCallsCount();
+
+		Assert.assertEquals(
+			_BYTES.length, _store.getFileSize(_COMPANY_ID, 5, "1"));
+
+		// The status is cached
+
+		Assert.assertEquals(0, _getCallsCount() - callsCount);
+	}
+
+	@Test
+	public void testHasFile() throws Exception {
+		_addFile(6, "1");
+
+		long callsCount = _getCallsCount();
+
+		Assert.assertTrue(
+			_store.hasFile(_COMPANY_ID, 6, "1", HDFSStore.VERSION_DEFAULT));
+		Assert.assertFalse(
+			_store.hasFile(_COMPANY_ID, 6, "2", HDFSStore.VERSION_DEFAULT));
+		Assert.assertEquals(2, _getCallsCount() - callsCount);
+
+		// Both the present and the missing status are cached
+
+		callsCount = _getCallsCount();
+
+		Assert.assertTrue(
+			_store.hasFile(_COMPANY_ID, 6, "1", HDFSStore.VERSION_DEFAULT));
+		Assert.assertFalse(
+			_store.hasFile(_COMPANY_ID, 6, "2", HDFSStore.VERSION_DEFAULT));
+		Assert.assertEquals(0, _getCallsCount() - callsCount);
+	}
+
+	@Test
+	public void testMove() throws Exception {
+		_addFile(7, "1");
+
+		long callsCount = _getCallsCount();
+
+		_store.move(
+			HadoopManager.getFullDirName(_COMPANY_ID, 7, null),
+			HadoopManager.getFullDirName(_COMPANY_ID, 8, null));
+
+		// The check of the target, the creation of its parent and the rename
+
+		Assert.assertEquals(3, _getCallsCount() - callsCount);
+	}
+
+	@Test
+	public void testUpdateFile() throws Exception {
+		_addFile(9, "1");
+
+		long callsCount = _getCallsCount();
+
+		_store.updateFile(_COMPANY_ID, 9, "1", "2");
+
+		Assert.assertEquals(1, _getCallsCount() - callsCount);
+
+		callsCount = _getCallsCount();
+
+		_store.updateFile(
+			_COMPANY_ID, 9, "2", "1.1", new ByteArrayInputStream(_BYTES));
+
+		Assert.assertEquals(1, _getCallsCount() - callsCount);
+	}
+
+	private void _addFile(long repositoryId, String fileName)
+		throws Exception {
+
+		_store.addFile(
+			_COMPANY_ID, repositoryId, fileName,
+			new ByteArrayInputStream(_BYTES));
+	}
+
+	private long _getCallsCount() {
+		return HadoopManager.getCallsCount(
+			HadoopManager.DEFAULT_FILE_SYSTEM_NAME);
+	}
+
+	// Long enough for a compressed version
+
+	private static final byte[] _BYTES = new byte[100];
+
+	private static final long _COMPANY_ID = 1;
+
+	private static HDFSStore _store;
+
+}
\ No newline at end of file
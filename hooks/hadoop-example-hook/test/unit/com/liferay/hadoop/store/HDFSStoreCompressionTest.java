@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import com.liferay.hadoop.util.HadoopManager;
+import com.liferay.hadoop.util.TestPropsUtil;
+import com.liferay.portal.kernel.exception.SystemException;
+import com.liferay.portal.kernel.util.MimeTypes;
+import com.liferay.portal.kernel.util.MimeTypesUtil;
+import com.liferay.portal.kernel.util.StreamUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Writes and reads compressed versions through a store with compression
+ * enabled, and uploads through a store with compression disabled, over the
+ * local file system set by {@link TestPropsUtil}.
+ *
+ * @author Raymond Augé
+ */
+public class HDFSStoreCompressionTest {
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		TestPropsUtil.setProps();
+
+		MimeTypesUtil mimeTypesUtil = new MimeTypesUtil();
+
+		mimeTypesUtil.setMimeTypes(new TextMimeTypes());
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		_fileSystem = HadoopManager.getFileSystem();
+
+		_store = new HDFSStore(
+			new CompressedFile(
+				true, DefaultCodec.class.getName(), new String[0], 0));
+		_uncompressedStore = new HDFSStore(
+			new CompressedFile(
+				false, DefaultCodec.class.getName(), new String[0], 0));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		_store.destroy();
+		_uncompressedStore.destroy();
+
+		_fileSystem.delete(
+			HadoopManager.getFullDirPath(_COMPANY_ID, _REPOSITORY_ID, null),
+			true);
+
+		// Let other tests run as if no file was ever compressed
+
+		_fileSystem.delete(new Path("/.compressed"), false);
+	}
+
+	@Test
+	public void testCodecNotAllowed() throws Exception {
+		Path path = new Path(_getFullPath("1") + ".lhz");
+
+		DataOutputStream dataOutputStream = new DataOutputStream(
+			_fileSystem.create(path));
+
+		try {
+			dataOutputStream.write(_MAGIC);
+			dataOutputStream.writeUTF(Object.class.getName());
+			dataOutputStream.write(new byte[16]);
+		}
+		finally {
+			dataOutputStream.close();
+		}
+
+		try {
+			_store.getFileAsStream(
+				_COMPANY_ID, _REPOSITORY_ID, "1", HDFSStore.VERSION_DEFAULT);
+
+			Assert.fail();
+		}
+		catch (SystemException se) {
+			Throwable cause = se.getCause();
+
+			Assert.assertTrue(
+				cause.getMessage(),
+				cause.getMessage().contains("is not allowed"));
+		}
+	}
+
+	@Test
+	public void testDeleteFile() throws Exception {
+		_addFile(_store, "1", _getBytes());
+
+		_store.deleteFile(_COMPANY_ID, _REPOSITORY_ID, "1");
+
+		Assert.assertFalse(
+			_store.hasFile(
+				_COMPANY_ID, _REPOSITORY_ID, "1", HDFSStore.VERSION_DEFAULT));
+		Assert.assertFalse(
+			_fileSystem.exists(new Path(_getFullPath("1") + ".lhz")));
+	}
+
+	@Test
+	public void testGetFileAsStream() throws Exception {
+		byte[] bytes = _getBytes();
+
+		_addFile(_store, "1", bytes);
+
+		// The compressed copy is stored next to the path of the version
+
+		Assert.assertFalse(_fileSystem.exists(_getFullPath("1")));
+		Assert.assertTrue(
+			_fileSystem.getFileStatus(
+				new Path(_getFullPath("1") + ".lhz")).getLen() < bytes.length);
+
+		Assert.assertArrayEquals(bytes, _read(_store, "1"));
+		Assert.assertArrayEquals(bytes, _read(_uncompressedStore, "1"));
+	}
+
+	@Test
+	public void testGetFileAsStreamRange() throws Exception {
+		byte[] bytes = _getBytes();
+
+		_addFile(_store, "1", bytes);
+
+		Assert.assertArrayEquals(
+			Arrays.copyOfRange(bytes, 5000, 5100),
+			_read(_store, "1", 5000, 100));
+		Assert.assertArrayEquals(
+			Arrays.copyOfRange(bytes, 5000, bytes.length),
+			_read(_store, "1", 5000, -1));
+		Assert.assertArrayEquals(
+			Arrays.copyOfRange(bytes, bytes.length - 10, bytes.length),
+			_read(_store, "1", bytes.length - 10, 100));
+		Assert.assertEquals(
+			0, _read(_store, "1", bytes.length + 10, 10).length);
+	}
+
+	@Test
+	public void testGetFileSize() throws Exception {
+		byte[] bytes = _getBytes();
+
+		_addFile(_store, "1", bytes);
+
+		Assert.assertEquals(
+			bytes.length,
+			_store.getFileSize(_COMPANY_ID, _REPOSITORY_ID, "1"));
+
+		// The uncompressed length is cached with the status
+
+		long callsCount = HadoopManager.getCallsCount(
+			HadoopManager.DEFAULT_FILE_SYSTEM_NAME);
+
+		Assert.assertEquals(
+			bytes.length,
+			_store.getFileSize(_COMPANY_ID, _REPOSITORY_ID, "1"));
+		Assert.assertEquals(
+			callsCount,
+			HadoopManager.getCallsCount(
+				HadoopManager.DEFAULT_FILE_SYSTEM_NAME));
+	}
+
+	@Test
+	public void testOverwrite() throws Exception {
+		byte[] bytes = _getBytes();
+
+		_addFile(_store, "1", bytes);
+
+		byte[] newBytes = Arrays.copyOf(bytes, 100);
+
+		_addFile(_uncompressedStore, "1", newBytes);
+
+		Assert.assertFalse(
+			_fileSystem.exists(new Path(_getFullPath("1") + ".lhz")));
+		Assert.assertArrayEquals(newBytes, _read(_store, "1"));
+
+		_addFile(_store, "1", bytes);
+
+		Assert.assertFalse(_fileSystem.exists(_getFullPath("1")));
+		Assert.assertArrayEquals(bytes, _read(_store, "1"));
+		Assert.assertArrayEquals(bytes, _read(_uncompressedStore, "1"));
+	}
+
+	@Test
+	public void testUploadStartingWithMagic() throws Exception {
+		byte[] bytes = Arrays.copyOf(_MAGIC, 100);
+
+		_addFile(_uncompressedStore, "1", bytes);
+
+		Assert.assertArrayEquals(bytes, _read(_store, "1"));
+		Assert.assertArrayEquals(
+			Arrays.copyOf(bytes, 50), _read(_store, "1", 0, 50));
+		Assert.assertEquals(
+			bytes.length,
+			_store.getFileSize(_COMPANY_ID, _REPOSITORY_ID, "1"));
+	}
+
+	private void _addFile(HDFSStore store, String fileName, byte[] bytes)
+		throws Exception {
+
+		store.updateFile(
+			_COMPANY_ID, _REPOSITORY_ID, fileName, HDFSStore.VERSION_DEFAULT,
+			new ByteArrayInputStream(bytes));
+	}
+
+	private byte[] _getBytes() {
+		byte[] bytes = new byte[10000];
+
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte)('a' + (i % 7));
+		}
+
+		return bytes;
+	}
+
+	private Path _getFullPath(String fileName) {
+		return HadoopManager.getFullVersionFilePath(
+			_COMPANY_ID, _REPOSITORY_ID, fileName, HDFSStore.VERSION_DEFAULT);
+	}
+
+	private byte[] _read(HDFSStore store, String fileName) throws Exception {
+		return _read(
+			store.getFileAsStream(
+				_COMPANY_ID, _REPOSITORY_ID, fileName,
+				HDFSStore.VERSION_DEFAULT));
+	}
+
+	private byte[] _read(InputStream inputStream) throws Exception {
+		ByteArrayOutputStream byteArrayOutputStream =
+			new ByteArrayOutputStream();
+
+		StreamUtil.transfer(inputStream, byteArrayOutputStream);
+
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private byte[] _read(
+			HDFSStore store, String fileName, long offset, long length)
+		throws Exception {
+
+		return _read(
+			store.getFileAsStream(
+				_COMPANY_ID, _REPOSITORY_ID, fileName,
+				HDFSStore.VERSION_DEFAULT, offset, length));
+	}
+
+	private static final long _COMPANY_ID = 100;
+
+	private static final byte[] _MAGIC = {
+		(byte)0x89, 'L', 'H', 'Z', '\r', '\n', 0x1A, '\n'
+	};
+
+	private static final long _REPOSITORY_ID = 1;
+
+	private FileSystem _fileSystem;
+	private HDFSStore _store;
+	private HDFSStore _uncompressedStore;
+
+	/**
+	 * Detects every version as plain text, which is compressible.
+	 */
+	private static class TextMimeTypes implements MimeTypes {
+
+		public String getContentType(File file) {
+			return _CONTENT_TYPE;
+		}
+
+		public String getContentType(File file, String title) {
+			return _CONTENT_TYPE;
+		}
+
+		public String getContentType(InputStream inputStream, String title) {
+			return _CONTENT_TYPE;
+		}
+
+		public String getContentType(String title) {
+			return _CONTENT_TYPE;
+		}
+
+		public String getExtensionContentType(String extension) {
+			return _CONTENT_TYPE;
+		}
+
+		public Set<String> getExtensions(String contentType) {
+			return Collections.emptySet();
+		}
+
+		public boolean isWebImage(String mimeType) {
+			return false;
+		}
+
+		private static final String _CONTENT_TYPE = "text/plain";
+
+	}
+
+}
\ No newline at end of file
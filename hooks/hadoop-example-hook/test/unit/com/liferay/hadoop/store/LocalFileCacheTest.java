@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.store;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Raymond Augé
+ */
+public class LocalFileCacheTest {
+
+	@Before
+	public void setUp() throws Exception {
+		_rootDir = File.createTempFile("local-file-cache-", null);
+
+		_rootDir.delete();
+		_rootDir.mkdirs();
+
+		_fileSystem = new OpeningFileSystem();
+
+		_fileSystem.initialize(
+			new File(_rootDir, "hdfs").toURI(), new Configuration());
+
+		_localFileCache = new LocalFileCache(
+			new File(_rootDir, "cache"), 1000, 100);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtil.fullyDelete(_rootDir);
+	}
+
+	@Test
+	public void testGetFile() throws Exception {
+		Path path = _createFile("1/1/1");
+
+		FileStatus fileStatus = _fileSystem.getFileStatus(path);
+
+		File file = _localFileCache.getFile(_fileSystem, path, fileStatus);
+
+		Assert.assertNotNull(file);
+		Assert.assertEquals(10, file.length());
+
+		Assert.assertSame(
+			file, _localFileCache.getFile(_fileSystem, path, fileStatus));
+
+		Assert.assertEquals(1, _fileSystem._openCount);
+	}
+
+	@Test
+	public void testGetFileRacingRelatedPath() throws Exception {
+		Path path = _createFile("1/1/1");
+
+		_assertCached(path, path, false, false);
+		_assertCached(path, path.getParent(), true, false);
+		_assertCached(path, path.getParent().getParent(), true, false);
+	}
+
+	@Test
+	public void testGetFileRacingUnrelatedPath() throws Exception {
+		Path path = _createFile("1/1/1");
+
+		_assertCached(path, _createFile("1/1/2"), false, true);
+		_assertCached(path, _createFile("1/10/1").getParent(), true, true);
+	}
+
+	@Test
+	public void testRemoveAll() throws Exception {
+		Path path = _createFile("1/1/1");
+		Path siblingPath = _createFile("1/10/1");
+
+		_localFileCache.getFile(
+			_fileSystem, path, _fileSystem.getFileStatus(path));
+		_localFileCache.getFile(
+			_fileSystem, siblingPath, _fileSystem.getFileStatus(siblingPath));
+
+		Assert.assertEquals(20, _localFileCache.getSize());
+
+		_localFileCache.removeAll(path.getParent());
+
+		Assert.assertEquals(10, _localFileCache.getSize());
+	}
+
+	private void _assertCached(
+			Path path, Path racingPath, boolean removeAll, boolean cached)
+		throws Exception {
+
+		_localFileCache.clear();
+
+		_fileSystem._racingPath = racingPath;
+		_fileSystem._removeAll = removeAll;
+
+		FileStatus fileStatus = _fileSystem.getFileStatus(path);
+
+		File file = _localFileCache.getFile(_fileSystem, path, fileStatus);
+
+		_fileSystem._racingPath = null;
+
+		if (cached) {
+			Assert.assertNotNull(file);
+			Assert.assertEquals(10, _localFileCache.getSize());
+		}
+		else {
+			Assert.assertNull(file);
+			Assert.assertEquals(0, _localFileCache.getSize());
+		}
+	}
+
+	private Path _createFile(String name) throws IOException {
+		Path path = new Path(new File(_rootDir, "hdfs/" + name).toURI());
+
+		FSDataOutputStream outputStream = _fileSystem.create(path);
+
+		try {
+			outputStream.write(new byte[10]);
+		}
+		finally {
+			outputStream.close();
+		}
+
+		return path;
+	}
+
+	private OpeningFileSystem _fileSystem;
+	private LocalFileCache _localFileCache;
+	private File _rootDir;
+
+	/**
+	 * Counts the opened files, and invalidates the racing path while a file
+	 * is opened, as a concurrent write would.
+	 */
+	private class OpeningFileSystem extends RawLocalFileSystem {
+
+		@Override
+		public FSDataInputStream open(Path path, int bufferSize)
+			throws IOException {
+
+			_openCount++;
+
+			if (_racingPath != null) {
+				if (_removeAll) {
+					_localFileCache.removeAll(_racingPath);
+				}
+				else {
+					_localFileCache.remove(_racingPath);
+				}
+			}
+
+			return super.open(path, bufferSize);
+		}
+
+		private int _openCount;
+		private Path _racingPath;
+		private boolean _removeAll;
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import com.liferay.portal.kernel.configuration.Filter;
+import com.liferay.portal.kernel.util.Props;
+import com.liferay.portal.kernel.util.StringUtil;
+
+import java.util.Properties;
+
+/**
+ * Serves the portal properties from a {@link Properties} instance, so the
+ * hook runs outside of the portal.
+ *
+ * @author Raymond Augé
+ */
+public class PropertiesProps implements Props {
+
+	public PropertiesProps(Properties properties) {
+		_properties = properties;
+	}
+
+	public boolean contains(String key) {
+		return _properties.containsKey(key);
+	}
+
+	public String get(String key) {
+		return _properties.getProperty(key);
+	}
+
+	public String get(String key, Filter filter) {
+		return get(key);
+	}
+
+	public String[] getArray(String key) {
+		String value = get(key);
+
+		if (value == null) {
+			return new String[0];
+		}
+
+		return StringUtil.split(value);
+	}
+
+	public String[] getArray(String key, Filter filter) {
+		return getArray(key);
+	}
+
+	public Properties getProperties() {
+		return _properties;
+	}
+
+	public Properties getProperties(String prefix, boolean removePrefix) {
+		Properties properties = new Properties();
+
+		for (String key : _properties.stringPropertyNames()) {
+			if (!key.startsWith(prefix)) {
+				continue;
+			}
+
+			String value = _properties.getProperty(key);
+
+			if (removePrefix) {
+				key = key.substring(prefix.length());
+			}
+
+			properties.setProperty(key, value);
+		}
+
+		return properties;
+	}
+
+	private final Properties _properties;
+
+}
\ No newline at end of file
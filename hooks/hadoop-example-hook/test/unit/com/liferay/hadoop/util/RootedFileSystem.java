@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.net.URI;
+
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Keeps the absolute paths of the store below a root directory of the local
+ * file system, and reports statuses with the paths they were asked for, so
+ * the store runs in process without a cluster. Written bytes are not
+ * buffered, so readers see them as soon as they are synced, as on HDFS.
+ *
+ * @author Raymond Augé
+ */
+public class RootedFileSystem extends RawLocalFileSystem {
+
+	/**
+	 * Returns a rooted file system below the directory, for tests that do not
+	 * go through {@link HadoopManager}.
+	 */
+	public static RootedFileSystem getInstance(File rootDir)
+		throws IOException {
+
+		Configuration configuration = new Configuration();
+
+		configuration.set(_ROOT_DIR, rootDir.getPath());
+
+		RootedFileSystem rootedFileSystem = new RootedFileSystem();
+
+		rootedFileSystem.initialize(URI.create("file:///"), configuration);
+
+		return rootedFileSystem;
+	}
+
+	/**
+	 * Sets the properties making the named file system a rooted file system
+	 * below the directory.
+	 */
+	public static void setProperties(
+		Properties properties, String fileSystemName, File rootDir) {
+
+		String prefix = HadoopPropsKeys.HADOOP_FILE_SYSTEM + fileSystemName;
+
+		properties.setProperty(prefix + ".fs.default.name", "file:///");
+		properties.setProperty(
+			prefix + ".fs.file.impl", RootedFileSystem.class.getName());
+		properties.setProperty(prefix + "." + _ROOT_DIR, rootDir.getPath());
+	}
+
+	@Override
+	public FSDataOutputStream create(
+			Path path, boolean overwrite, int bufferSize, short replication,
+			long blockSize, Progressable progressable)
+		throws IOException {
+
+		// Creates the parent directories and fails if the file exists and is
+		// not to be overwritten
+
+		FSDataOutputStream outputStream = super.create(
+			path, overwrite, bufferSize, replication, blockSize,
+			progressable);
+
+		outputStream.close();
+
+		return new FSDataOutputStream(
+			new FileOutputStream(pathToFile(path)), statistics);
+	}
+
+	@Override
+	public FileStatus getFileStatus(Path path) throws IOException {
+		FileStatus fileStatus = super.getFileStatus(path);
+
+		return new FileStatus(
+			fileStatus.getLen(), fileStatus.isDir(),
+			fileStatus.getReplication(), fileStatus.getBlockSize(),
+			fileStatus.getModificationTime(), makeQualified(path));
+	}
+
+	@Override
+	public void initialize(URI uri, Configuration configuration)
+		throws IOException {
+
+		super.initialize(uri, configuration);
+
+		_rootDir = new File(configuration.get(_ROOT_DIR));
+	}
+
+	@Override
+	public File pathToFile(Path path) {
+		return new File(_rootDir, path.toUri().getPath());
+	}
+
+	private static final String _ROOT_DIR = "rooted.file.system.root.dir";
+
+	private File _rootDir;
+
+}
\ No newline at end of file
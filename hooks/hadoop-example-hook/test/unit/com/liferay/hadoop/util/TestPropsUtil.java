@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2000-2012 Liferay, Inc. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.liferay.hadoop.util;
+
+import com.liferay.portal.kernel.util.PropsUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Properties;
+
+import org.apache.hadoop.fs.FileUtil;
+
+/**
+ * Sets the properties of the hook once per JVM, since they are read into
+ * static fields by the first test that needs them. The store runs against a
+ * rooted file system below a temporary directory that is deleted on exit.
+ *
+ * @author Raymond Augé
+ */
+public class TestPropsUtil {
+
+	public static synchronized void setProps() throws IOException {
+		if (_rootDir != null) {
+			return;
+		}
+
+		_rootDir = File.createTempFile("hadoop-test-", null);
+
+		_rootDir.delete();
+		_rootDir.mkdirs();
+
+		Runtime runtime = Runtime.getRuntime();
+
+		runtime.addShutdownHook(
+			new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						FileUtil.fullyDelete(_rootDir);
+					}
+					catch (IOException ioe) {
+						ioe.printStackTrace();
+					}
+				}
+
+			});
+
+		Properties properties = new Properties();
+
+		properties.setProperty(
+			HadoopPropsKeys.HADOOP_EXECUTOR_ENABLED, "false");
+		properties.setProperty(
+			HadoopPropsKeys.HADOOP_JOB_SCHEDULER_ENABLED, "false");
+		properties.setProperty(
+			HadoopPropsKeys.HADOOP_STORE_EMPTY_ANCESTORS_CLEANER_DELAY, "0");
+		properties.setProperty(
+			HadoopPropsKeys.HADOOP_STORE_LOCAL_CACHE_DIR,
+			new File(_rootDir, "cache").getPath());
+
+		RootedFileSystem.setProperties(
+			properties, HadoopManager.DEFAULT_FILE_SYSTEM_NAME,
+			new File(_rootDir, "hdfs"));
+
+		PropsUtil.setProps(new PropertiesProps(properties));
+	}
+
+	private static File _rootDir;
+
+}
\ No newline at end of file